@@ -0,0 +1,95 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+/**
+ * End-to-end BeIDCard file reads against a SimulatedBeIDCard, either answering
+ * instantly (measuring only the client overhead), with the timing of a real
+ * reader, or with the timing and 6Cxx responses of a T=0 reader. A new BeIDCard is used for each invocation, so that no files are
+ * kept in memory between reads.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BeIDCardBenchmark {
+	private static final EnumSet<FileType> IDENTITY_AND_ADDRESS = EnumSet.of(
+			FileType.Identity, FileType.IdentitySignature, FileType.Address,
+			FileType.AddressSignature);
+
+	@Param({"instant", "reader", "t0"})
+	public String latency;
+
+	private SimulatedBeIDCard simulatedCard;
+
+	@Setup
+	public void setUp() {
+		LatencyModel latencyModel = new LatencyModel(0);
+		if ("reader".equals(this.latency)) {
+			latencyModel.setMicrosPerAPDU(3000).setMicrosPerByte(90)
+					.setJitterMicros(1000);
+		} else if ("t0".equals(this.latency)) {
+			latencyModel = LatencyModel.typicalT0Reader();
+		}
+		this.simulatedCard = new SimulatedBeIDCard("Alice");
+		this.simulatedCard.setLatencyModel(latencyModel);
+	}
+
+	@Benchmark
+	public byte[] readIdentity() throws CardException, IOException,
+			InterruptedException {
+		return new BeIDCard(this.simulatedCard).readFile(FileType.Identity);
+	}
+
+	@Benchmark
+	public Map<FileType, byte[]> readIdentityAndAddress()
+			throws CardException, IOException, InterruptedException {
+		return new BeIDCard(this.simulatedCard).readFiles(IDENTITY_AND_ADDRESS);
+	}
+
+	@Benchmark
+	public byte[] readPhoto() throws CardException, IOException,
+			InterruptedException {
+		return new BeIDCard(this.simulatedCard).readFile(FileType.Photo);
+	}
+}
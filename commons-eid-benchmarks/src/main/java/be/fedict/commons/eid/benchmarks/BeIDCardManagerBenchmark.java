@@ -0,0 +1,119 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardTerminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.BeIDCardManager;
+import be.fedict.commons.eid.client.CardAndTerminalManager;
+import be.fedict.commons.eid.client.event.BeIDCardEventsListener;
+import be.fedict.commons.eid.client.impl.VoidLogger;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminal;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminals;
+
+/**
+ * The time a BeIDCardManager takes to report an eID card inserted into, and
+ * then removed from, a SimulatedCardTerminal, in each CardAndTerminalManager
+ * mode, with the default PollingPolicy.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BeIDCardManagerBenchmark {
+	@Param({"POLLING", "EVENT_DRIVEN"})
+	public String mode;
+
+	private SimulatedCardTerminal simulatedCardTerminal;
+	private SimulatedBeIDCard simulatedCard;
+	private CardAndTerminalManager cardAndTerminalManager;
+	private BeIDCardManager beIDCardManager;
+	private Semaphore inserted;
+	private Semaphore removed;
+
+	@Setup
+	public void setUp() {
+		final SimulatedCardTerminals simulatedCardTerminals = new SimulatedCardTerminals();
+		this.simulatedCardTerminal = new SimulatedCardTerminal("Fedix SCR 0");
+		simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal);
+		this.simulatedCard = new SimulatedBeIDCard("Alice");
+		this.inserted = new Semaphore(0);
+		this.removed = new Semaphore(0);
+
+		this.cardAndTerminalManager = new CardAndTerminalManager(
+				new VoidLogger(), simulatedCardTerminals);
+		this.cardAndTerminalManager.setMode(CardAndTerminalManager.MODE
+				.valueOf(this.mode));
+		this.beIDCardManager = new BeIDCardManager(new VoidLogger(),
+				this.cardAndTerminalManager);
+		this.beIDCardManager
+				.addBeIDCardEventListener(new BeIDCardEventsListener() {
+					@Override
+					public void eIDCardInserted(
+							final CardTerminal cardTerminal,
+							final BeIDCard card) {
+						BeIDCardManagerBenchmark.this.inserted.release();
+					}
+
+					@Override
+					public void eIDCardRemoved(final CardTerminal cardTerminal,
+							final BeIDCard card) {
+						BeIDCardManagerBenchmark.this.removed.release();
+					}
+
+					@Override
+					public void eIDCardEventsInitialized() {
+					}
+				});
+		this.cardAndTerminalManager.start();
+		this.beIDCardManager.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		this.beIDCardManager.stop();
+		this.cardAndTerminalManager.stop();
+	}
+
+	@Benchmark
+	public void insertAndRemove() throws InterruptedException {
+		this.simulatedCardTerminal.insertCard(this.simulatedCard);
+		this.inserted.acquire();
+		this.simulatedCardTerminal.removeCard();
+		this.removed.acquire();
+	}
+}
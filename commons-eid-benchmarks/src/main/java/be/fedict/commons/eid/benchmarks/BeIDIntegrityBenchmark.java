@@ -0,0 +1,90 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.consumer.Address;
+import be.fedict.commons.eid.consumer.BeIDIntegrity;
+import be.fedict.commons.eid.consumer.Identity;
+
+/**
+ * BeIDIntegrity verification of identity (with and without photo) and address
+ * files, against the RRN certificate. The BeIDIntegrity instance is reused, as
+ * a bulk verifier would.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BeIDIntegrityBenchmark {
+	private BeIDIntegrity beIDIntegrity;
+	private byte[] identityFile;
+	private byte[] identitySignatureFile;
+	private byte[] photoFile;
+	private byte[] addressFile;
+	private byte[] addressSignatureFile;
+	private X509Certificate rrnCertificate;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.beIDIntegrity = new BeIDIntegrity();
+		this.identityFile = Fixtures.load("test-identity.tlv");
+		this.identitySignatureFile = Fixtures.load("test-identity-sign.der");
+		this.photoFile = Fixtures.load("test-photo.jpg");
+		this.addressFile = Fixtures.load("test-address.tlv");
+		this.addressSignatureFile = Fixtures.load("test-address-sign.der");
+		this.rrnCertificate = this.beIDIntegrity.loadCertificate(Fixtures
+				.load("test-rrn-cert.der"));
+	}
+
+	@Benchmark
+	public Identity getVerifiedIdentity() throws NoSuchAlgorithmException {
+		return this.beIDIntegrity.getVerifiedIdentity(this.identityFile,
+				this.identitySignatureFile, this.rrnCertificate);
+	}
+
+	@Benchmark
+	public Identity getVerifiedIdentityWithPhoto()
+			throws NoSuchAlgorithmException {
+		return this.beIDIntegrity.getVerifiedIdentity(this.identityFile,
+				this.identitySignatureFile, this.photoFile,
+				this.rrnCertificate);
+	}
+
+	@Benchmark
+	public Address getVerifiedAddress() throws NoSuchAlgorithmException {
+		return this.beIDIntegrity.getVerifiedAddress(this.addressFile,
+				this.identitySignatureFile, this.addressSignatureFile,
+				this.rrnCertificate);
+	}
+}
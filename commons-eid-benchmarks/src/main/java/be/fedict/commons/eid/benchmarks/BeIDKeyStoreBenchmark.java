@@ -0,0 +1,103 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.impl.CertificateCache;
+import be.fedict.commons.eid.jca.BeIDKeyStoreParameter;
+import be.fedict.commons.eid.jca.BeIDProvider;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+/**
+ * Certificate lookups through the BeID KeyStore of the BeIDProvider, against a
+ * SimulatedBeIDCard with the timing of a real reader, with the
+ * CertificateCache emptied before each invocation, or kept warm. A new
+ * KeyStore and BeIDCard are used for each invocation, so that nothing else is
+ * kept in memory between lookups. Signing is not measured: a
+ * SimulatedBeIDCard holds no private keys.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BeIDKeyStoreBenchmark {
+	@Param({"cold", "cached"})
+	public String certificateCache;
+
+	private BeIDProvider provider;
+	private SimulatedBeIDCard simulatedCard;
+
+	@Setup
+	public void setUp() {
+		this.provider = new BeIDProvider();
+		this.simulatedCard = new SimulatedBeIDCard("Alice");
+		this.simulatedCard.setLatencyModel(new LatencyModel(0)
+				.setMicrosPerAPDU(3000).setMicrosPerByte(90)
+				.setJitterMicros(1000));
+		CertificateCache.clear();
+	}
+
+	@Benchmark
+	public Certificate[] getAuthenticationCertificateChain()
+			throws KeyStoreException, NoSuchAlgorithmException,
+			CertificateException, IOException {
+		return loadKeyStore().getCertificateChain("Authentication");
+	}
+
+	@Benchmark
+	public Certificate getCACertificate() throws KeyStoreException,
+			NoSuchAlgorithmException, CertificateException,
+			IOException {
+		return loadKeyStore().getCertificate("CA");
+	}
+
+	private KeyStore loadKeyStore() throws KeyStoreException,
+			NoSuchAlgorithmException, CertificateException,
+			IOException {
+		if ("cold".equals(this.certificateCache)) {
+			CertificateCache.clear();
+		}
+		final BeIDKeyStoreParameter keyStoreParameter = new BeIDKeyStoreParameter();
+		keyStoreParameter.setBeIDCard(new BeIDCard(this.simulatedCard));
+		final KeyStore keyStore = KeyStore.getInstance("BeID", this.provider);
+		keyStore.load(keyStoreParameter);
+		return keyStore;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.consumer.CardData;
+import be.fedict.commons.eid.consumer.tlv.ByteArrayParser;
+
+/**
+ * ByteArrayParser.parse of the card data, as returned by GET CARD DATA.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ByteArrayParserBenchmark {
+	/*
+	 * the card data used by ByteArrayParserTest
+	 */
+	private final byte[] cardDataFile = new BigInteger(
+			"534c494e33660013930d2061c018063fd0004801011100020001010f", 16)
+			.toByteArray();
+
+	@Benchmark
+	public CardData parseCardData() {
+		return ByteArrayParser.parse(this.cardDataFile, CardData.class);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.IOException;
+import java.util.GregorianCalendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.consumer.DocumentType;
+import be.fedict.commons.eid.consumer.Gender;
+import be.fedict.commons.eid.consumer.SpecialOrganisation;
+import be.fedict.commons.eid.consumer.SpecialStatus;
+import be.fedict.commons.eid.consumer.tlv.ChipNumberDataConvertor;
+import be.fedict.commons.eid.consumer.tlv.DataConvertorException;
+import be.fedict.commons.eid.consumer.tlv.DateOfBirthDataConvertor;
+import be.fedict.commons.eid.consumer.tlv.DocumentTypeConvertor;
+import be.fedict.commons.eid.consumer.tlv.GenderDataConvertor;
+import be.fedict.commons.eid.consumer.tlv.SpecialOrganisationConvertor;
+import be.fedict.commons.eid.consumer.tlv.SpecialStatusConvertor;
+import be.fedict.commons.eid.consumer.tlv.ValidityDateDataConvertor;
+
+/**
+ * Every DataConvertor, on the field values of an identity file. The Special
+ * Organisation field is absent from the fixtures, a SHAPE value is used
+ * instead.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DataConvertorBenchmark {
+	private final ChipNumberDataConvertor chipNumberDataConvertor = new ChipNumberDataConvertor();
+	private final ValidityDateDataConvertor validityDateDataConvertor = new ValidityDateDataConvertor();
+	private final DateOfBirthDataConvertor dateOfBirthDataConvertor = new DateOfBirthDataConvertor();
+	private final GenderDataConvertor genderDataConvertor = new GenderDataConvertor();
+	private final DocumentTypeConvertor documentTypeConvertor = new DocumentTypeConvertor();
+	private final SpecialStatusConvertor specialStatusConvertor = new SpecialStatusConvertor();
+	private final SpecialOrganisationConvertor specialOrganisationConvertor = new SpecialOrganisationConvertor();
+
+	private byte[] chipNumber;
+	private byte[] validityDate;
+	private byte[] dateOfBirth;
+	private byte[] gender;
+	private byte[] documentType;
+	private byte[] specialStatus;
+	private byte[] specialOrganisation;
+
+	@Setup
+	public void setUp() throws IOException {
+		final byte[] identityFile = Fixtures.load("id-alice.tlv");
+		this.chipNumber = Fixtures.getTlvValue(identityFile, 2);
+		this.validityDate = Fixtures.getTlvValue(identityFile, 3);
+		this.dateOfBirth = Fixtures.getTlvValue(identityFile, 12);
+		this.gender = Fixtures.getTlvValue(identityFile, 13);
+		this.documentType = Fixtures.getTlvValue(identityFile, 15);
+		this.specialStatus = Fixtures.getTlvValue(identityFile, 16);
+		this.specialOrganisation = new byte[]{'1'};
+	}
+
+	@Benchmark
+	public String chipNumber() throws DataConvertorException {
+		return this.chipNumberDataConvertor.convert(this.chipNumber);
+	}
+
+	@Benchmark
+	public GregorianCalendar validityDate() throws DataConvertorException {
+		return this.validityDateDataConvertor.convert(this.validityDate);
+	}
+
+	@Benchmark
+	public GregorianCalendar dateOfBirth() throws DataConvertorException {
+		return this.dateOfBirthDataConvertor.convert(this.dateOfBirth);
+	}
+
+	@Benchmark
+	public Gender gender() throws DataConvertorException {
+		return this.genderDataConvertor.convert(this.gender);
+	}
+
+	@Benchmark
+	public DocumentType documentType() throws DataConvertorException {
+		return this.documentTypeConvertor.convert(this.documentType);
+	}
+
+	@Benchmark
+	public SpecialStatus specialStatus() throws DataConvertorException {
+		return this.specialStatusConvertor.convert(this.specialStatus);
+	}
+
+	@Benchmark
+	public SpecialOrganisation specialOrganisation()
+			throws DataConvertorException {
+		return this.specialOrganisationConvertor
+				.convert(this.specialOrganisation);
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads the fixtures shared with the commons-eid-consumer unit tests.
+ * 
+ * @author Frank Marien
+ * 
+ */
+final class Fixtures {
+	private Fixtures() {
+		super();
+	}
+
+	static byte[] load(final String resourceName) throws IOException {
+		final InputStream inputStream = Fixtures.class.getResourceAsStream("/"
+				+ resourceName);
+		if (inputStream == null) {
+			throw new IOException("missing fixture: " + resourceName);
+		}
+		try {
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		} finally {
+			inputStream.close();
+		}
+	}
+
+	/*
+	 * The raw value of a field in a TLV file, or null if absent. Lengths are
+	 * encoded as in TlvParser.
+	 */
+	static byte[] getTlvValue(final byte[] file, final int tag) {
+		int idx = 0;
+		while (idx < file.length - 1) {
+			final int currentTag = file[idx++];
+			byte lengthByte = file[idx++];
+			int length = lengthByte & 0x7f;
+			while ((lengthByte & 0x80) == 0x80) {
+				lengthByte = file[idx++];
+				length = (length << 7) + (lengthByte & 0x7f);
+			}
+			if (currentTag == tag) {
+				final byte[] value = new byte[length];
+				System.arraycopy(file, idx, value, 0, length);
+				return value;
+			}
+			idx += length;
+		}
+		return null;
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import be.fedict.commons.eid.consumer.Address;
+import be.fedict.commons.eid.consumer.Identity;
+import be.fedict.commons.eid.consumer.tlv.TlvParser;
+
+/**
+ * TlvParser.parse of Identity and Address files.
+ * 
+ * @author Frank Marien
+ * 
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TlvParserBenchmark {
+	@State(Scope.Benchmark)
+	public static class IdentityFile {
+		@Param({"id-alice.tlv", "test-identity.tlv", "extended-minority.tlv"})
+		public String fixture;
+
+		private byte[] data;
+
+		@Setup
+		public void setUp() throws IOException {
+			this.data = Fixtures.load(this.fixture);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class AddressFile {
+		@Param({"address-alice.tlv", "test-address.tlv"})
+		public String fixture;
+
+		private byte[] data;
+
+		@Setup
+		public void setUp() throws IOException {
+			this.data = Fixtures.load(this.fixture);
+		}
+	}
+
+	@Benchmark
+	public Identity parseIdentity(final IdentityFile identityFile) {
+		return TlvParser.parse(identityFile.data, Identity.class);
+	}
+
+	@Benchmark
+	public Address parseAddress(final AddressFile addressFile) {
+		return TlvParser.parse(addressFile.data, Address.class);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+/**
+ * JMH benchmarks for the Commons eID components: consumer TLV and card data
+ * parsing, the data convertors, identity/address integrity verification, and
+ * BeIDCard file reads against a simulated card, with and without reader
+ * latency, BeIDCardManager insert/remove detection, and certificate lookups
+ * through the BeID JCA KeyStore. Build with "mvn package", then run all
+ * benchmarks with a GC allocation profile using:
+ * 
+ * <pre>
+ * java -jar commons-eid-benchmarks/target/benchmarks.jar -prof gc
+ * </pre>
+ */
+package be.fedict.commons.eid.benchmarks;
@@ -0,0 +1,417 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client;
+
+import java.security.cert.X509Certificate;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import be.fedict.commons.eid.client.event.BeIDCardCallback;
+import be.fedict.commons.eid.client.impl.BeIDDigest;
+
+/**
+ * An AsyncBeIDCard queues operations on one BeIDCard, to be executed one after
+ * the other by a single executor thread that owns the card. Any number of
+ * threads may submit operations without locking: each call returns a Future
+ * immediately, and optionally calls a BeIDCardCallback when the operation
+ * completes, so that callers never need to block waiting for the card.
+ * <p>
+ * Close the AsyncBeIDCard when done, to stop its executor thread. This does not
+ * close the underlying BeIDCard. Operations submitted after close() or abort()
+ * are not executed: their Future fails with a RejectedExecutionException, and
+ * their callback is called with it, on the submitting thread.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class AsyncBeIDCard {
+	private final BeIDCard beIDCard;
+	private final ExecutorService executor;
+
+	/**
+	 * Instantiate an AsyncBeIDCard for the given BeIDCard. Once instantiated,
+	 * all operations on the BeIDCard should go through this AsyncBeIDCard.
+	 * 
+	 * @param beIDCard
+	 *            the BeIDCard to execute operations on
+	 */
+	public AsyncBeIDCard(final BeIDCard beIDCard) {
+		this.beIDCard = beIDCard;
+		final String threadName = beIDCard.getCardTerminal() != null
+				? "AsyncBeIDCard " + beIDCard.getCardTerminal().getName()
+				: "AsyncBeIDCard";
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable runnable) {
+				final Thread thread = new Thread(runnable, threadName);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the BeIDCard operations are executed on
+	 */
+	public BeIDCard getBeIDCard() {
+		return this.beIDCard;
+	}
+
+	/**
+	 * Queue any operation on the BeIDCard. The Callable is executed on the
+	 * executor thread, and may call the BeIDCard directly. If this
+	 * AsyncBeIDCard was closed, the operation is not executed: the Future
+	 * fails with a RejectedExecutionException, and the callback is called with
+	 * it, before this method returns.
+	 * 
+	 * @param operation
+	 *            the operation to execute
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the result of the operation
+	 */
+	public <T> Future<T> submit(final Callable<T> operation,
+			final BeIDCardCallback<T> callback) {
+		final Operation<T> task = new Operation<T>(operation, callback);
+		try {
+			this.executor.execute(task);
+		} catch (final RejectedExecutionException rex) {
+			task.reject(rex);
+		}
+		return task;
+	}
+
+	/**
+	 * Queue any operation on the BeIDCard.
+	 * 
+	 * @param operation
+	 *            the operation to execute
+	 * @return a Future for the result of the operation
+	 */
+	public <T> Future<T> submit(final Callable<T> operation) {
+		return submit(operation, null);
+	}
+
+	/**
+	 * Queue BeIDCard.readFile()
+	 * 
+	 * @param fileType
+	 *            the file to read
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the data from the file
+	 */
+	public Future<byte[]> readFileAsync(final FileType fileType,
+			final BeIDCardCallback<byte[]> callback) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.readFile(fileType);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.readFile()
+	 * 
+	 * @param fileType
+	 *            the file to read
+	 * @return a Future for the data from the file
+	 */
+	public Future<byte[]> readFileAsync(final FileType fileType) {
+		return readFileAsync(fileType, null);
+	}
+
+	/**
+	 * Queue BeIDCard.readFiles()
+	 * 
+	 * @param fileTypes
+	 *            the files to read
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the data from each of the files, by FileType
+	 */
+	public Future<Map<FileType, byte[]>> readFilesAsync(
+			final EnumSet<FileType> fileTypes,
+			final BeIDCardCallback<Map<FileType, byte[]>> callback) {
+		final EnumSet<FileType> fileTypesToRead = EnumSet.copyOf(fileTypes);
+		return submit(new Callable<Map<FileType, byte[]>>() {
+			@Override
+			public Map<FileType, byte[]> call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.readFiles(fileTypesToRead);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.readFiles()
+	 * 
+	 * @param fileTypes
+	 *            the files to read
+	 * @return a Future for the data from each of the files, by FileType
+	 */
+	public Future<Map<FileType, byte[]>> readFilesAsync(
+			final EnumSet<FileType> fileTypes) {
+		return readFilesAsync(fileTypes, null);
+	}
+
+	/**
+	 * Queue BeIDCard.getCertificate()
+	 * 
+	 * @param fileType
+	 *            which of the certificates to read
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the certificate
+	 */
+	public Future<X509Certificate> getCertificateAsync(
+			final FileType fileType,
+			final BeIDCardCallback<X509Certificate> callback) {
+		return submit(new Callable<X509Certificate>() {
+			@Override
+			public X509Certificate call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.getCertificate(fileType);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.getCertificate()
+	 * 
+	 * @param fileType
+	 *            which of the certificates to read
+	 * @return a Future for the certificate
+	 */
+	public Future<X509Certificate> getCertificateAsync(final FileType fileType) {
+		return getCertificateAsync(fileType, null);
+	}
+
+	/**
+	 * Queue BeIDCard.getCertificateChain()
+	 * 
+	 * @param fileType
+	 *            which of the certificates to start the chain from
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the certificate chain
+	 */
+	public Future<List<X509Certificate>> getCertificateChainAsync(
+			final FileType fileType,
+			final BeIDCardCallback<List<X509Certificate>> callback) {
+		return submit(new Callable<List<X509Certificate>>() {
+			@Override
+			public List<X509Certificate> call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard
+						.getCertificateChain(fileType);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.getCertificateChain()
+	 * 
+	 * @param fileType
+	 *            which of the certificates to start the chain from
+	 * @return a Future for the certificate chain
+	 */
+	public Future<List<X509Certificate>> getCertificateChainAsync(
+			final FileType fileType) {
+		return getCertificateChainAsync(fileType, null);
+	}
+
+	/**
+	 * Queue BeIDCard.sign(). Note that this may involve user interaction,
+	 * during which all later operations on this card wait.
+	 * 
+	 * @param digestValue
+	 *            the digest value to be signed.
+	 * @param digestAlgo
+	 *            the algorithm used to calculate the given digest value.
+	 * @param fileType
+	 *            the certificate's file type.
+	 * @param requireSecureReader
+	 *            <code>true</code> if a secure pinpad reader is required.
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the signature value
+	 */
+	public Future<byte[]> signAsync(final byte[] digestValue,
+			final BeIDDigest digestAlgo, final FileType fileType,
+			final boolean requireSecureReader,
+			final BeIDCardCallback<byte[]> callback) {
+		final byte[] digestValueToSign = digestValue.clone();
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.sign(digestValueToSign,
+						digestAlgo, fileType, requireSecureReader);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.sign(). Note that this may involve user interaction,
+	 * during which all later operations on this card wait.
+	 * 
+	 * @param digestValue
+	 *            the digest value to be signed.
+	 * @param digestAlgo
+	 *            the algorithm used to calculate the given digest value.
+	 * @param fileType
+	 *            the certificate's file type.
+	 * @param requireSecureReader
+	 *            <code>true</code> if a secure pinpad reader is required.
+	 * @return a Future for the signature value
+	 */
+	public Future<byte[]> signAsync(final byte[] digestValue,
+			final BeIDDigest digestAlgo, final FileType fileType,
+			final boolean requireSecureReader) {
+		return signAsync(digestValue, digestAlgo, fileType,
+				requireSecureReader, null);
+	}
+
+	/**
+	 * Queue BeIDCard.getChallenge()
+	 * 
+	 * @param size
+	 *            the number of random bytes to get
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the random bytes
+	 */
+	public Future<byte[]> getChallengeAsync(final int size,
+			final BeIDCardCallback<byte[]> callback) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.getChallenge(size);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.getChallenge()
+	 * 
+	 * @param size
+	 *            the number of random bytes to get
+	 * @return a Future for the random bytes
+	 */
+	public Future<byte[]> getChallengeAsync(final int size) {
+		return getChallengeAsync(size, null);
+	}
+
+	/**
+	 * Queue BeIDCard.getCardData()
+	 * 
+	 * @param callback
+	 *            called when the operation completes, may be null
+	 * @return a Future for the card data
+	 */
+	public Future<byte[]> getCardDataAsync(
+			final BeIDCardCallback<byte[]> callback) {
+		return submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return AsyncBeIDCard.this.beIDCard.getCardData();
+			}
+		}, callback);
+	}
+
+	/**
+	 * Queue BeIDCard.getCardData()
+	 * 
+	 * @return a Future for the card data
+	 */
+	public Future<byte[]> getCardDataAsync() {
+		return getCardDataAsync(null);
+	}
+
+	/**
+	 * Stop accepting operations, and stop the executor thread once the
+	 * operations already queued have completed. Operations submitted later
+	 * fail with a RejectedExecutionException. The BeIDCard is not closed.
+	 * 
+	 * @return this AsyncBeIDCard, to allow method chaining
+	 */
+	public AsyncBeIDCard close() {
+		this.executor.shutdown();
+		return this;
+	}
+
+	/**
+	 * Stop accepting operations, cancel the operations still queued and
+	 * interrupt the one in progress. The callbacks of the cancelled operations
+	 * are called with a CancellationException, on the calling thread. The
+	 * BeIDCard is not closed.
+	 * 
+	 * @return this AsyncBeIDCard, to allow method chaining
+	 */
+	public AsyncBeIDCard abort() {
+		for (Runnable queued : this.executor.shutdownNow()) {
+			((Future<?>) queued).cancel(false);
+		}
+		return this;
+	}
+
+	/*
+	 * A queued operation, that calls its callback once when it completes, is
+	 * cancelled, or is rejected because the executor was shut down.
+	 */
+	private static class Operation<T> extends FutureTask<T> {
+		private final BeIDCardCallback<T> callback;
+
+		public Operation(final Callable<T> operation,
+				final BeIDCardCallback<T> callback) {
+			super(operation);
+			this.callback = callback;
+		}
+
+		public void reject(final RejectedExecutionException rex) {
+			setException(rex);
+		}
+
+		@Override
+		protected void done() {
+			if (this.callback == null) {
+				return;
+			}
+			if (isCancelled()) {
+				this.callback.operationFailed(new CancellationException());
+				return;
+			}
+			try {
+				this.callback.operationSucceeded(get());
+			} catch (final ExecutionException eex) {
+				this.callback.operationFailed(eex.getCause());
+			} catch (final InterruptedException iex) {
+				this.callback.operationFailed(iex);
+			}
+		}
+	}
+}
@@ -29,9 +29,17 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.smartcardio.ATR;
 import javax.smartcardio.Card;
@@ -44,9 +52,14 @@ import javax.smartcardio.ResponseAPDU;
 import be.fedict.commons.eid.client.event.BeIDCardListener;
 import be.fedict.commons.eid.client.impl.BeIDDigest;
 import be.fedict.commons.eid.client.impl.CCID;
+import be.fedict.commons.eid.client.impl.CardProfile;
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.client.impl.CertificateCache;
 import be.fedict.commons.eid.client.impl.LocaleManager;
 import be.fedict.commons.eid.client.impl.VoidLogger;
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
 import be.fedict.commons.eid.client.spi.BeIDCardUI;
+import be.fedict.commons.eid.client.spi.FileCache;
 import be.fedict.commons.eid.client.spi.Logger;
 import be.fedict.commons.eid.client.spi.UserCancelledException;
 
@@ -85,6 +98,18 @@ import be.fedict.commons.eid.client.spi.UserCancelledException;
  * using addCardListener(). This is useful, for example, for providing progress
  * indication to the user.
  * <p>
+ * Files read from the card, and certificates parsed from them, are kept in
+ * memory for the lifetime of the BeIDCard instance, so that subsequent calls
+ * requesting the same data don't cause any card traffic. This is bounded by
+ * the number of files on the card (some 10 KiB in total). BeIDCardManager
+ * invalidates this when the card is removed, call invalidateCache() to do so
+ * explicitly.
+ * <p>
+ * prefetchFiles() reads files into that memory in the background, for example
+ * right after insertion (see BeIDCardManager.setPrefetchFileTypes()). Any other
+ * thread using the BeIDCard meanwhile pre-empts the prefetch, which resumes
+ * once that thread is done with the card.
+ * <p>
  * For detailed progress and error/debug logging, provide an instance of
  * be.fedict.commons.eid.spi.Logger to BeIDCard's constructor (the default
  * VoidLogger discards all logging and debug messages). You are advised to
@@ -107,10 +132,13 @@ public class BeIDCard {
 	private static final byte[] APPLET_AID = new byte[]{(byte) 0xA0, 0x00,
 			0x00, 0x00, 0x30, 0x29, 0x05, 0x70, 0x00, (byte) 0xAD, 0x13, 0x10,
 			0x01, 0x01, (byte) 0xFF,};
-	private static final int BLOCK_SIZE = 0xff;
+	private static final int BLOCK_SIZE = CardTerminalProfile.DEFAULT_BLOCK_SIZE;
+	private static final int FIELDS_BLOCK_SIZE = 0x80;
+	private static final int MAX_GET_RESPONSES = 0x100;
 
 	private final CardChannel cardChannel;
 	private final List<BeIDCardListener> cardListeners;
+	private final List<APDUInterceptor> apduInterceptors;
 	private final CertificateFactory certificateFactory;
 
 	private final Card card;
@@ -119,6 +147,19 @@ public class BeIDCard {
 	private CCID ccid;
 	private BeIDCardUI ui;
 	private CardTerminal cardTerminal;
+	private CardTerminalProfile cardTerminalProfile;
+	private CardProfile cardProfile;
+	private boolean cardProfileRecognized;
+	private ReadBinaryMode readBinaryMode;
+	private FileCache fileCache;
+	private byte[] cardData;
+	private final Map<FileType, byte[]> files;
+	private final Map<FileType, X509Certificate> certificates;
+	private final ReentrantLock cardLock;
+	private final AtomicInteger foregroundWaiters;
+	private final Condition cardReleased;
+	private volatile Thread prefetchThread;
+	private int exclusiveDepth;
 	private Locale locale;
 
 	/**
@@ -145,6 +186,14 @@ public class BeIDCard {
 		}
 		this.logger = logger;
 		this.cardListeners = new LinkedList<BeIDCardListener>();
+		this.apduInterceptors = new LinkedList<APDUInterceptor>();
+		this.readBinaryMode = ReadBinaryMode.FIXED;
+		this.files = new EnumMap<FileType, byte[]>(FileType.class);
+		this.certificates = new EnumMap<FileType, X509Certificate>(
+				FileType.class);
+		this.cardLock = new ReentrantLock(true);
+		this.foregroundWaiters = new AtomicInteger();
+		this.cardReleased = this.cardLock.newCondition();
 		try {
 			this.certificateFactory = CertificateFactory.getInstance("X.509");
 		} catch (final CertificateException e) {
@@ -277,6 +326,99 @@ public class BeIDCard {
 		return this;
 	}
 
+	/**
+	 * Register an APDUInterceptor to see every command this BeIDCard sends to
+	 * the card or the CardTerminal, with its response and duration.
+	 * 
+	 * @param apduInterceptor
+	 *            an APDUInterceptor instance, for example an
+	 *            APDUMetricsCollector
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public final BeIDCard addAPDUInterceptor(
+			final APDUInterceptor apduInterceptor) {
+		synchronized (this.apduInterceptors) {
+			this.apduInterceptors.add(apduInterceptor);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Unregister an APDUInterceptor.
+	 * 
+	 * @param apduInterceptor
+	 *            an APDUInterceptor instance
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public final BeIDCard removeAPDUInterceptor(
+			final APDUInterceptor apduInterceptor) {
+		synchronized (this.apduInterceptors) {
+			this.apduInterceptors.remove(apduInterceptor);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Determine how many bytes to request in each READ BINARY command. The
+	 * default, ReadBinaryMode.FIXED, requests 0xff bytes at a time.
+	 * ReadBinaryMode.NEGOTIATED requests the largest response length the
+	 * CardTerminal and card were found to support, remembered per
+	 * CardTerminal, and falls back to 0xff bytes automatically.
+	 * 
+	 * @param newReadBinaryMode
+	 *            the ReadBinaryMode to use for subsequent file reads
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public final BeIDCard setReadBinaryMode(
+			final ReadBinaryMode newReadBinaryMode) {
+		this.readBinaryMode = newReadBinaryMode;
+		return this;
+	}
+
+	/**
+	 * @return the ReadBinaryMode currently in use
+	 */
+	public ReadBinaryMode getReadBinaryMode() {
+		return this.readBinaryMode;
+	}
+
+	/**
+	 * Set a FileCache to keep the contents of files read from this card, and
+	 * to obtain them from on subsequent reads, including by other BeIDCard
+	 * instances for the same card, after the card is removed and inserted
+	 * again. Cached files are keyed by the chip serial number, obtained with
+	 * one GET CARD DATA command. Cached address files are only used after
+	 * verifying that the address signature on the card hasn't changed.
+	 * 
+	 * @param newFileCache
+	 *            the FileCache to use, or null for none (the default)
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public final BeIDCard setFileCache(final FileCache newFileCache) {
+		this.fileCache = newFileCache;
+		return this;
+	}
+
+	/**
+	 * Discard all files and certificates kept in memory for this card, so that
+	 * subsequent calls read them from the card (or the FileCache, if set)
+	 * again.
+	 * 
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public BeIDCard invalidateCache() {
+		synchronized (this.files) {
+			this.files.clear();
+		}
+		synchronized (this.certificates) {
+			this.certificates.clear();
+		}
+		this.cardData = null;
+		return this;
+	}
+
 	/**
 	 * Reads a certain certificate from the card. Which certificate to read is
 	 * determined by the FileType param. Applicable FileTypes are
@@ -293,9 +435,7 @@ public class BeIDCard {
 	public X509Certificate getCertificate(final FileType fileType)
 			throws CertificateException, CardException, IOException,
 			InterruptedException {
-		return (X509Certificate) this.certificateFactory
-				.generateCertificate(new ByteArrayInputStream(
-						readFile(fileType)));
+		return getCertificates(EnumSet.of(fileType)).get(fileType);
 	}
 
 	/**
@@ -391,18 +531,19 @@ public class BeIDCard {
 	public List<X509Certificate> getCertificateChain(final FileType fileType)
 			throws CertificateException, CardException, IOException,
 			InterruptedException {
+		final EnumSet<FileType> chainFileTypes = EnumSet.of(fileType,
+				FileType.RootCertificate);
+		if (fileType.chainIncludesCitizenCA()) {
+			chainFileTypes.add(FileType.CACertificate);
+		}
+		final Map<FileType, X509Certificate> chainCertificates = getCertificates(chainFileTypes);
+
 		final List<X509Certificate> chain = new LinkedList<X509Certificate>();
-		chain.add((X509Certificate) this.certificateFactory
-				.generateCertificate(new ByteArrayInputStream(
-						readFile(fileType))));
+		chain.add(chainCertificates.get(fileType));
 		if (fileType.chainIncludesCitizenCA()) {
-			chain.add((X509Certificate) this.certificateFactory
-					.generateCertificate(new ByteArrayInputStream(
-							readFile(FileType.CACertificate))));
+			chain.add(chainCertificates.get(FileType.CACertificate));
 		}
-		chain.add((X509Certificate) this.certificateFactory
-				.generateCertificate(new ByteArrayInputStream(
-						readFile(FileType.RootCertificate))));
+		chain.add(chainCertificates.get(FileType.RootCertificate));
 		return chain;
 	}
 
@@ -499,6 +640,14 @@ public class BeIDCard {
 							+ fileType.name());
 		}
 
+		final CardProfile profile = getCardProfile();
+		if (profile != null
+				&& !profile.isSignatureAlgorithmSupported(digestAlgo)) {
+			throw new IllegalArgumentException("eID card with "
+					+ profile.getDescription() + " cannot sign with "
+					+ digestAlgo.name());
+		}
+
 		if (getCCID().hasFeature(CCID.FEATURE.EID_PIN_PAD_READER)) {
 			this.logger.debug("eID-aware secure PIN pad reader detected");
 		}
@@ -708,6 +857,27 @@ public class BeIDCard {
 		return responseApdu.getData();
 	}
 
+	/**
+	 * Returns the card data, as returned by the GET CARD DATA command. This
+	 * starts with the 16-byte chip serial number, followed by version
+	 * information about the chip, its operating system and the applet.
+	 * 
+	 * @return the card data
+	 * @throws CardException
+	 */
+	public byte[] getCardData() throws CardException {
+		if (this.cardData == null) {
+			final ResponseAPDU responseApdu = transmitCommand(
+					BeIDCommandAPDU.GET_CARD_DATA, 0x1c);
+			if (0x9000 != responseApdu.getSW()) {
+				throw new ResponseAPDUException("get card data failure",
+						responseApdu);
+			}
+			this.cardData = responseApdu.getData();
+		}
+		return this.cardData.clone();
+	}
+
 	/**
 	 * Create a text message transaction signature. The FedICT eID aware secure
 	 * pinpad readers can visualize such type of text message transactions on
@@ -908,28 +1078,77 @@ public class BeIDCard {
 	 * (transmitCommand, etc..) *never* in combination with the high-level
 	 * methods.
 	 * 
+	 * Exclusive transactions nest: when the calling thread already holds one,
+	 * this joins it, and only the outermost beginExclusive()/endExclusive()
+	 * pair reaches the card. See also openSession().
+	 * 
 	 * @return this BeIDCard Instance, to allow method chaining.
 	 * @throws CardException
 	 */
 	public BeIDCard beginExclusive() throws CardException {
-		this.logger.debug("---begin exclusive---");
-		this.card.beginExclusive();
+		lockCard();
+		if (this.exclusiveDepth == 0) {
+			this.logger.debug("---begin exclusive---");
+			boolean begun = false;
+			try {
+				this.card.beginExclusive();
+				begun = true;
+			} finally {
+				if (!begun) {
+					unlockCard();
+				}
+			}
+		}
+		this.exclusiveDepth++;
 		return this;
 	}
 
 	/**
 	 * Release an exclusive transaction with the card, started by
+	 * beginExclusive(). When nested in another exclusive transaction, this
+	 * only leaves the nested one. Must be called on the thread that called
 	 * beginExclusive().
 	 * 
 	 * @return this BeIDCard Instance, to allow method chaining.
 	 * @throws CardException
+	 * @throws IllegalMonitorStateException
+	 *             if the calling thread holds no exclusive transaction
 	 */
 	public BeIDCard endExclusive() throws CardException {
-		this.logger.debug("---end exclusive---");
-		this.card.endExclusive();
+		if (!this.cardLock.isHeldByCurrentThread()) {
+			throw new IllegalMonitorStateException(
+					"endExclusive() without beginExclusive() on this thread");
+		}
+		try {
+			if (this.exclusiveDepth > 1) {
+				this.exclusiveDepth--;
+				return this;
+			}
+			this.exclusiveDepth = 0;
+			this.logger.debug("---end exclusive---");
+			this.card.endExclusive();
+		} finally {
+			unlockCard();
+		}
 		return this;
 	}
 
+	/**
+	 * Open a CardSession: an exclusive transaction with the card that lasts
+	 * until the CardSession is closed. Sessions are reentrant: the higher-level
+	 * methods of this class, and any sessions opened while one is open, join
+	 * it instead of starting their own transaction. Use this around a series
+	 * of calls, e.g. reading certificates and signing, to have them all share
+	 * a single transaction. Always close the CardSession, in a finally block.
+	 * 
+	 * @return the open CardSession
+	 * @throws CardException
+	 */
+	public CardSession openSession() throws CardException {
+		this.beginExclusive();
+		return new CardSession(this);
+	}
+
 	// --------------------------------------------------------------------------------------------------------------------------------
 
 	/**
@@ -949,42 +1168,21 @@ public class BeIDCard {
 	 */
 	public byte[] readBinary(final FileType fileType, final int estimatedMaxSize)
 			throws CardException, IOException, InterruptedException {
-		int offset = 0;
 		this.logger.debug("read binary");
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		byte[] data;
-		do {
-			if (Thread.currentThread().isInterrupted()) {
-				this.logger.debug("interrupted in readBinary");
-				throw new InterruptedException();
+		final BeIDFileInputStream inputStream = new BeIDFileInputStream(this,
+				this.logger, fileType, estimatedMaxSize, false);
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+				estimatedMaxSize);
+		while (true) {
+			if (isPrefetchPreempted()) {
+				throw new PrefetchPreemptedException();
 			}
-
-			notifyReadProgress(fileType, offset, estimatedMaxSize);
-			final ResponseAPDU responseApdu = transmitCommand(
-					BeIDCommandAPDU.READ_BINARY, offset >> 8, offset & 0xFF,
-					BLOCK_SIZE);
-			final int sw = responseApdu.getSW();
-			if (0x6B00 == sw) {
-				/*
-				 * Wrong parameters (offset outside the EF) End of file reached.
-				 * Can happen in case the file size is a multiple of 0xff bytes.
-				 */
+			final byte[] block = inputStream.readBlock();
+			if (block == null) {
 				break;
 			}
-
-			if (0x9000 != sw) {
-				final IOException ioEx = new IOException(
-						"BeIDCommandAPDU response error: "
-								+ responseApdu.getSW());
-				ioEx.initCause(new ResponseAPDUException(responseApdu));
-				throw ioEx;
-			}
-
-			data = responseApdu.getData();
-			baos.write(data);
-			offset += data.length;
-		} while (BLOCK_SIZE == data.length);
-		notifyReadProgress(fileType, offset, offset);
+			baos.write(block);
+		}
 		return baos.toByteArray();
 	}
 
@@ -1010,11 +1208,11 @@ public class BeIDCard {
 			throw fnfEx;
 		}
 
-		try {
-			// SCARD_E_SHARING_VIOLATION fix
-			Thread.sleep(20);
-		} catch (final InterruptedException e) {
-			throw new RuntimeException("sleep error: " + e.getMessage());
+		// SCARD_E_SHARING_VIOLATION fix, only for CardTerminals that were
+		// seen to need it.
+		final int delay = getCardTerminalProfile().selectFileDelay();
+		if (delay > 0) {
+			sleep(delay);
 		}
 
 		return this;
@@ -1032,14 +1230,296 @@ public class BeIDCard {
 	 */
 	public byte[] readFile(final FileType fileType) throws CardException,
 			IOException, InterruptedException {
+		return this.readFiles(EnumSet.of(fileType)).get(fileType);
+	}
+
+	/**
+	 * Opens a file on the card for reading as it arrives, one READ BINARY block
+	 * at a time. The returned BeIDFileInputStream is both an InputStream and a
+	 * ReadableByteChannel. This BeIDCard is held in an exclusive transaction
+	 * until the stream is closed: always close it, in a finally block, on the
+	 * thread that opened it. Closing it on another thread throws
+	 * IllegalMonitorStateException, and leaves the transaction open. Files
+	 * read this way are not kept in memory or in the FileCache, but a file
+	 * that is already kept in memory is returned from there.
+	 * 
+	 * @param fileType
+	 *            the file to read
+	 * @return a BeIDFileInputStream reading the file
+	 * @throws CardException
+	 * @throws FileNotFoundException
+	 */
+	public BeIDFileInputStream openFile(final FileType fileType)
+			throws CardException, FileNotFoundException {
+		synchronized (this.files) {
+			final byte[] data = this.files.get(fileType);
+			if (data != null) {
+				return new BeIDFileInputStream(fileType, data.clone());
+			}
+		}
+
 		this.beginExclusive();
 
+		boolean selected = false;
 		try {
 			this.selectFile(fileType.getFileId());
-			return this.readBinary(fileType, fileType.getEstimatedMaxSize());
+			selected = true;
+		} finally {
+			if (!selected) {
+				this.endExclusive();
+			}
+		}
+
+		return new BeIDFileInputStream(this, this.logger, fileType,
+				fileType.getEstimatedMaxSize(), true);
+	}
+
+	/**
+	 * Reads several files from the card, inside one single exclusive
+	 * transaction. The files are read in FileType order, which keeps files
+	 * in the same directory on the card together. If a FileCache was set,
+	 * files found there are not read from the card at all, except for the
+	 * Address, which is only taken from the FileCache if the AddressSignature
+	 * on the card is the one cached with it.
+	 * 
+	 * @param fileTypes
+	 *            the files to read
+	 * @return a Map holding the data from each of the files, by FileType
+	 * @throws CardException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public Map<FileType, byte[]> readFiles(final EnumSet<FileType> fileTypes)
+			throws CardException, IOException, InterruptedException {
+		final Map<FileType, byte[]> files = new EnumMap<FileType, byte[]>(
+				FileType.class);
+		final EnumSet<FileType> fileTypesToRead = EnumSet.copyOf(fileTypes);
+		String chipSerialNumber = null;
+		byte[] cachedAddress = null;
+
+		synchronized (this.files) {
+			for (FileType fileType : fileTypes) {
+				final byte[] data = this.files.get(fileType);
+				if (data != null) {
+					files.put(fileType, data.clone());
+					fileTypesToRead.remove(fileType);
+				}
+			}
+		}
+
+		if (fileTypesToRead.isEmpty()) {
+			return files;
+		}
+
+		if (this.fileCache != null) {
+			chipSerialNumber = getChipSerialNumber();
+			for (FileType fileType : fileTypes) {
+				if (!fileType.isMutable()) {
+					final byte[] data = this.fileCache.get(chipSerialNumber,
+							fileType);
+					if (data != null) {
+						files.put(fileType, data);
+						fileTypesToRead.remove(fileType);
+						keepFile(fileType, data);
+					}
+				}
+			}
+
+			if (fileTypesToRead.contains(FileType.Address)) {
+				cachedAddress = this.fileCache.get(chipSerialNumber,
+						FileType.Address);
+			}
+
+			if (fileTypesToRead.isEmpty()) {
+				this.logger.debug("all files read from cache");
+				return files;
+			}
+		}
+
+		this.beginExclusive();
+
+		try {
+			byte[] address = null;
+			byte[] addressSignature = null;
+
+			if (cachedAddress != null) {
+				/*
+				 * The address is rewritten when the citizen moves: only use the
+				 * cached one when the address signature on the card is the
+				 * one we cached with it.
+				 */
+				final byte[] cachedAddressSignature = this.fileCache.get(
+						chipSerialNumber, FileType.AddressSignature);
+				addressSignature = readFileInTransaction(FileType.AddressSignature);
+				fileTypesToRead.remove(FileType.AddressSignature);
+				if (fileTypes.contains(FileType.AddressSignature)) {
+					files.put(FileType.AddressSignature, addressSignature);
+				}
+				keepFile(FileType.AddressSignature, addressSignature);
+
+				if (Arrays.equals(cachedAddressSignature, addressSignature)) {
+					files.put(FileType.Address, cachedAddress);
+					fileTypesToRead.remove(FileType.Address);
+					keepFile(FileType.Address, cachedAddress);
+				} else {
+					this.logger.debug("address changed since cached");
+				}
+			}
+
+			for (FileType fileType : fileTypesToRead) {
+				final byte[] data = readFileInTransaction(fileType);
+				files.put(fileType, data);
+				keepFile(fileType, data);
+				if (FileType.Address == fileType) {
+					address = data;
+				} else if (FileType.AddressSignature == fileType) {
+					addressSignature = data;
+				} else if (chipSerialNumber != null) {
+					this.fileCache.put(chipSerialNumber, fileType, data);
+				}
+			}
+
+			/*
+			 * The Address and AddressSignature are only ever cached as a pair,
+			 * read in this same transaction, so that a cached signature always
+			 * belongs to the cached address. The Address is put first: if the
+			 * second put fails, the signature left in the cache won't match
+			 * the card, and the address is read again.
+			 */
+			if (chipSerialNumber != null && address != null) {
+				if (addressSignature == null) {
+					addressSignature = readFileInTransaction(FileType.AddressSignature);
+					keepFile(FileType.AddressSignature, addressSignature);
+				}
+				this.fileCache.put(chipSerialNumber, FileType.Address, address);
+				this.fileCache.put(chipSerialNumber, FileType.AddressSignature,
+						addressSignature);
+			}
 		} finally {
 			this.endExclusive();
 		}
+
+		return files;
+	}
+
+	/**
+	 * Reads the start of a Tag-Length-Value encoded file (Identity or Address)
+	 * from the card, only until all the requested tags were read completely.
+	 * No further READ BINARY commands are sent once they have been. Blocks of
+	 * 128 bytes are read, so for example reading tags 1, 2 and 6 of the
+	 * Identity file (card number, chip number and national number) usually
+	 * takes only one READ BINARY, transferring part of the file. The data
+	 * returned ends on a field boundary, so the consumer's TlvParser can parse
+	 * it as usual, leaving the fields not read unset. If the whole file is
+	 * already in memory, the whole file is returned. Partial files are not
+	 * kept in memory.
+	 * 
+	 * @param fileType
+	 *            FileType.Identity or FileType.Address
+	 * @param tags
+	 *            the tags of the fields required, at least one
+	 * @return the data from the start of the file, up to and including the
+	 *         last of the requested fields, or the whole file if not all of
+	 *         them are present
+	 * @throws CardException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public byte[] readFileFields(final FileType fileType, final int... tags)
+			throws CardException, IOException, InterruptedException {
+		if (FileType.Identity != fileType && FileType.Address != fileType) {
+			throw new IllegalArgumentException("Not a TLV file: " + fileType);
+		}
+		if (tags.length == 0) {
+			throw new IllegalArgumentException("No tags given");
+		}
+
+		synchronized (this.files) {
+			final byte[] data = this.files.get(fileType);
+			if (data != null) {
+				return data.clone();
+			}
+		}
+
+		final Set<Integer> requiredTags = new HashSet<Integer>();
+		for (int tag : tags) {
+			requiredTags.add(tag & 0xff);
+		}
+
+		this.beginExclusive();
+
+		try {
+			this.selectFile(fileType.getFileId());
+			final BeIDFileInputStream inputStream = new BeIDFileInputStream(
+					this, this.logger, fileType,
+					fileType.getEstimatedMaxSize(), false)
+					.limitBlockSize(FIELDS_BLOCK_SIZE);
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+					fileType.getEstimatedMaxSize());
+			byte[] block;
+			while ((block = inputStream.readBlock()) != null) {
+				baos.write(block);
+				final byte[] data = baos.toByteArray();
+				final int fieldsLength = getTlvFieldsLength(data, requiredTags);
+				if (fieldsLength >= 0) {
+					this.logger.debug("required fields read after "
+							+ data.length + " bytes");
+					return Arrays.copyOf(data, fieldsLength);
+				}
+			}
+			return baos.toByteArray();
+		} finally {
+			this.endExclusive();
+		}
+	}
+
+	/**
+	 * Reads files from the card into memory, so that later calls to
+	 * readFile(), readFiles() and the certificate methods are served from
+	 * there. Meant to be called on a background thread: the files are read one
+	 * at a time, and whenever another thread wants to use this BeIDCard, the
+	 * file being read is abandoned, and read again once that thread is done.
+	 * Files that are already in memory are skipped.
+	 * 
+	 * @param fileTypes
+	 *            the files to read
+	 * @return this BeIDCard instance, to allow method chaining
+	 * @throws CardException
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public BeIDCard prefetchFiles(final EnumSet<FileType> fileTypes)
+			throws CardException, IOException, InterruptedException {
+		this.prefetchThread = Thread.currentThread();
+		try {
+			for (FileType fileType : fileTypes) {
+				while (!isFileKept(fileType)) {
+					/*
+					 * The lock is fair: any foreground thread already waiting
+					 * for the card will get it first.
+					 */
+					this.cardLock.lockInterruptibly();
+					try {
+						while (this.foregroundWaiters.get() > 0) {
+							this.cardReleased.await();
+						}
+						if (isFileKept(fileType)) {
+							continue;
+						}
+						this.logger.debug("prefetching " + fileType);
+						this.readFiles(EnumSet.of(fileType));
+					} catch (final PrefetchPreemptedException pex) {
+						this.logger.debug("prefetch of " + fileType
+								+ " pre-empted");
+					} finally {
+						this.cardLock.unlock();
+					}
+				}
+			}
+		} finally {
+			this.prefetchThread = null;
+		}
+		return this;
 	}
 
 	/**
@@ -1079,7 +1559,18 @@ public class BeIDCard {
 
 	protected byte[] transmitControlCommand(final int controlCode,
 			final byte[] command) throws CardException {
-		return this.card.transmitControlCommand(controlCode, command);
+		lockCard();
+		final long start = System.nanoTime();
+		byte[] response = null;
+		try {
+			response = this.card.transmitControlCommand(controlCode, command);
+			return response;
+		} finally {
+			final long duration = System.nanoTime() - start;
+			unlockCard();
+			notifyControlCommandTransmitted(controlCode, command, response,
+					duration);
+		}
 	}
 
 	protected byte[] transmitPPDUCommand(final int controlCode,
@@ -1127,29 +1618,224 @@ public class BeIDCard {
 
 	private ResponseAPDU transmit(final CommandAPDU commandApdu)
 			throws CardException {
-		ResponseAPDU responseApdu = this.cardChannel.transmit(commandApdu);
+		lockCard();
+		try {
+			return transmitLocked(commandApdu);
+		} finally {
+			unlockCard();
+		}
+	}
+
+	/*
+	 * The T=0 transport: most PC/SC stacks already handle 6Cxx and 61xx
+	 * themselves, but not all of them do, and not always.
+	 */
+	private ResponseAPDU transmitLocked(final CommandAPDU commandApdu)
+			throws CardException {
+		ResponseAPDU responseApdu = transmitAvoidingSharingViolation(commandApdu);
 		if (0x6c == responseApdu.getSW1()) {
-			/*
-			 * A minimum delay of 10 msec between the answer ?????????6C
-			 * xx????????? and the next BeIDCommandAPDU is mandatory for eID
-			 * v1.0 and v1.1 cards.
-			 */
-			this.logger.debug("sleeping...");
-			try {
-				Thread.sleep(10);
-			} catch (final InterruptedException e) {
-				throw new RuntimeException("cannot sleep");
+			responseApdu = transmitCorrectedLength(commandApdu,
+					responseApdu.getSW2());
+		}
+		if (0x61 == responseApdu.getSW1()) {
+			responseApdu = transmitGetResponses(responseApdu);
+		}
+		return responseApdu;
+	}
+
+	/*
+	 * 6Cxx: wrong length, xx is the exact length available. Resend the command
+	 * asking for exactly that.
+	 */
+	private ResponseAPDU transmitCorrectedLength(
+			final CommandAPDU commandApdu, final int sw2) throws CardException {
+		final int ne = (sw2 == 0) ? 0x100 : sw2;
+		final CommandAPDU correctedApdu;
+		if (commandApdu.getNc() > 0) {
+			correctedApdu = new CommandAPDU(commandApdu.getCLA(),
+					commandApdu.getINS(), commandApdu.getP1(),
+					commandApdu.getP2(), commandApdu.getData(), ne);
+		} else {
+			correctedApdu = new CommandAPDU(commandApdu.getCLA(),
+					commandApdu.getINS(), commandApdu.getP1(),
+					commandApdu.getP2(), ne);
+		}
+		this.logger.debug("6Cxx, resending with Le=" + ne);
+
+		/*
+		 * A minimum delay of 10 msec between the answer "6C xx" and the next
+		 * BeIDCommandAPDU is mandatory for eID v1.0 and v1.1 cards. Newer cards
+		 * don't need it. Where the CardProfile tells which generation the card
+		 * is, sleep only if it needs it. Otherwise, only sleep once we've seen
+		 * that a card with the same ATR in this CardTerminal does.
+		 */
+		final CardTerminalProfile profile = getCardTerminalProfile();
+		final CardProfile cardProfile = getCardProfile();
+		final boolean delayRequired = cardProfile != null ? cardProfile
+				.isWrongLengthDelayRequired() : profile
+				.isWrongLengthDelayRequired(getATR());
+		profile.wrongLengthRetried();
+		ResponseAPDU responseApdu;
+		if (!delayRequired) {
+			responseApdu = transmitAvoidingSharingViolation(correctedApdu);
+			if (0x6c != responseApdu.getSW1()) {
+				profile.wrongLengthDelaySkipped();
+				return responseApdu;
+			}
+			this.logger.debug("6Cxx again, card requires delay");
+			profile.wrongLengthDelayRequired(getATR());
+			profile.wrongLengthRetried();
+		}
+
+		this.logger.debug("sleeping...");
+		sleep(CardTerminalProfile.LEGACY_WRONG_LENGTH_DELAY);
+		profile.wrongLengthDelayApplied();
+		responseApdu = transmitAvoidingSharingViolation(correctedApdu);
+		return responseApdu;
+	}
+
+	/*
+	 * 61xx: xx more bytes are available. Fetch them with GET RESPONSE until the
+	 * card has no more, and return all data with the final status word.
+	 */
+	private ResponseAPDU transmitGetResponses(final ResponseAPDU firstApdu)
+			throws CardException {
+		final CardTerminalProfile profile = getCardTerminalProfile();
+		final ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ResponseAPDU responseApdu = firstApdu;
+		int getResponses = 0;
+		while (0x61 == responseApdu.getSW1()) {
+			if (++getResponses > MAX_GET_RESPONSES) {
+				throw new CardException("too many GET RESPONSE commands");
 			}
+			data.write(responseApdu.getData(), 0, responseApdu.getNr());
+			final int sw2 = responseApdu.getSW2();
+			final int ne = (sw2 == 0) ? 0x100 : sw2;
+			profile.getResponseSent();
+			responseApdu = transmitAvoidingSharingViolation(new CommandAPDU(
+					BeIDCommandAPDU.GET_RESPONSE.getCla(),
+					BeIDCommandAPDU.GET_RESPONSE.getIns(),
+					BeIDCommandAPDU.GET_RESPONSE.getP1(),
+					BeIDCommandAPDU.GET_RESPONSE.getP2(), ne));
+		}
+		data.write(responseApdu.getData(), 0, responseApdu.getNr());
+		data.write(responseApdu.getSW1());
+		data.write(responseApdu.getSW2());
+		return new ResponseAPDU(data.toByteArray());
+	}
+
+	private ResponseAPDU transmitAvoidingSharingViolation(
+			final CommandAPDU commandApdu) throws CardException {
+		try {
+			return transmitToChannel(commandApdu);
+		} catch (final CardException cex) {
+			if (!isSharingViolation(cex)) {
+				throw cex;
+			}
+			final int delay = getCardTerminalProfile().sharingViolationSeen();
+			this.logger.debug("SCARD_E_SHARING_VIOLATION, retrying after "
+					+ delay + " ms");
+			sleep(delay);
+			return transmitToChannel(commandApdu);
+		}
+	}
+
+	private ResponseAPDU transmitToChannel(final CommandAPDU commandApdu)
+			throws CardException {
+		final long start = System.nanoTime();
+		final ResponseAPDU responseApdu;
+		try {
 			responseApdu = this.cardChannel.transmit(commandApdu);
+		} catch (final CardException cex) {
+			notifyAPDUFailed(commandApdu, cex, System.nanoTime() - start);
+			throw cex;
 		}
+		notifyAPDUTransmitted(commandApdu, responseApdu, System.nanoTime()
+				- start);
 		return responseApdu;
 	}
 
+	private boolean isSharingViolation(final CardException cex) {
+		Throwable cause = cex;
+		while (cause != null) {
+			final String message = cause.getMessage();
+			if (message != null
+					&& message.contains("SCARD_E_SHARING_VIOLATION")) {
+				return true;
+			}
+			cause = cause.getCause();
+		}
+		return false;
+	}
+
+	private void sleep(final int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			throw new RuntimeException("sleep error: " + e.getMessage());
+		}
+	}
+
 	// ===========================================================================================================
 	// notifications of listeners
 	// ===========================================================================================================
 
-	private void notifyReadProgress(final FileType fileType, final int offset,
+	private void notifyAPDUTransmitted(final CommandAPDU commandApdu,
+			final ResponseAPDU responseApdu, final long durationNanos) {
+		synchronized (this.apduInterceptors) {
+			for (APDUInterceptor interceptor : this.apduInterceptors) {
+				try {
+					interceptor.apduTransmitted(getCardTerminalName(),
+							commandApdu, responseApdu, durationNanos);
+				} catch (final Exception ex) {
+					this.logger
+							.debug("Exception Thrown In APDUInterceptor.apduTransmitted():"
+									+ ex.getMessage());
+				}
+			}
+		}
+	}
+
+	private void notifyAPDUFailed(final CommandAPDU commandApdu,
+			final CardException cause, final long durationNanos) {
+		synchronized (this.apduInterceptors) {
+			for (APDUInterceptor interceptor : this.apduInterceptors) {
+				try {
+					interceptor.apduFailed(getCardTerminalName(), commandApdu,
+							cause, durationNanos);
+				} catch (final Exception ex) {
+					this.logger
+							.debug("Exception Thrown In APDUInterceptor.apduFailed():"
+									+ ex.getMessage());
+				}
+			}
+		}
+	}
+
+	private void notifyControlCommandTransmitted(final int controlCode,
+			final byte[] command, final byte[] response,
+			final long durationNanos) {
+		synchronized (this.apduInterceptors) {
+			for (APDUInterceptor interceptor : this.apduInterceptors) {
+				try {
+					interceptor.controlCommandTransmitted(
+							getCardTerminalName(), controlCode, command,
+							response, durationNanos);
+				} catch (final Exception ex) {
+					this.logger
+							.debug("Exception Thrown In APDUInterceptor.controlCommandTransmitted():"
+									+ ex.getMessage());
+				}
+			}
+		}
+	}
+
+	private String getCardTerminalName() {
+		final CardTerminal terminal = this.cardTerminal;
+		return terminal == null ? null : terminal.getName();
+	}
+
+	void notifyReadProgress(final FileType fileType, final int offset,
 			int estimatedMaxOffset) {
 		if (offset > estimatedMaxOffset) {
 			estimatedMaxOffset = offset;
@@ -1310,13 +1996,20 @@ public class BeIDCard {
 	private ResponseAPDU verifyPINViaUI(final int retriesLeft,
 			final PINPurpose purpose) throws CardException,
 			UserCancelledException {
-		final boolean windows8 = this.isWindows8();
-		if (windows8) {
-			this.endExclusive();
+		/*
+		 * On Windows 8, the transaction is reset after 5 seconds of
+		 * inactivity: suspend it while the user is entering the PIN. Other
+		 * threads in this JVM are still kept out, by the cardLock.
+		 */
+		final boolean suspend = this.isWindows8()
+				&& this.cardLock.isHeldByCurrentThread()
+				&& this.exclusiveDepth > 0;
+		if (suspend) {
+			this.card.endExclusive();
 		}
 		final char[] pin = getUI().obtainPIN(retriesLeft, purpose);
-		if (windows8) {
-			this.beginExclusive();
+		if (suspend) {
+			this.card.beginExclusive();
 		}
 		final byte[] verifyData = new byte[]{(byte) (0x20 | pin.length),
 				(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
@@ -1537,6 +2230,405 @@ public class BeIDCard {
 
 	// ----------------------------------------------------------------------------------------------------------------------------------
 
+	/*
+	 * Serialize all use of the card between threads, counting the threads
+	 * waiting for it so that a prefetch can step aside. Reentrant, to allow
+	 * transmits inside an exclusive transaction.
+	 */
+	private void lockCard() {
+		if (this.cardLock.isHeldByCurrentThread()
+				|| Thread.currentThread() == this.prefetchThread) {
+			this.cardLock.lock();
+			return;
+		}
+		this.foregroundWaiters.incrementAndGet();
+		try {
+			this.cardLock.lock();
+		} finally {
+			this.foregroundWaiters.decrementAndGet();
+		}
+	}
+
+	/*
+	 * Wakes up a prefetch waiting for the foreground threads once the card is
+	 * released. Throws IllegalMonitorStateException if the calling thread does
+	 * not hold the card.
+	 */
+	private void unlockCard() {
+		if (this.cardLock.getHoldCount() == 1) {
+			this.cardReleased.signalAll();
+		}
+		this.cardLock.unlock();
+	}
+
+	private boolean isPrefetchPreempted() {
+		return Thread.currentThread() == this.prefetchThread
+				&& this.foregroundWaiters.get() > 0;
+	}
+
+	/*
+	 * Return the length of the TLV data up to and including the last of the
+	 * required tags, or -1 if the data doesn't hold all of them completely
+	 * (yet). Lengths are encoded as in TlvParser.
+	 */
+	private static int getTlvFieldsLength(final byte[] data,
+			final Set<Integer> requiredTags) {
+		final Set<Integer> missingTags = new HashSet<Integer>(requiredTags);
+		int idx = 0;
+		while (!missingTags.isEmpty()) {
+			if (idx + 2 > data.length) {
+				return -1;
+			}
+			final int tag = data[idx++] & 0xff;
+			byte lengthByte = data[idx++];
+			int length = lengthByte & 0x7f;
+			while ((lengthByte & 0x80) == 0x80) {
+				if (idx >= data.length) {
+					return -1;
+				}
+				lengthByte = data[idx++];
+				length = (length << 7) + (lengthByte & 0x7f);
+			}
+			if (idx + length > data.length) {
+				return -1;
+			}
+			idx += length;
+			missingTags.remove(tag);
+		}
+		return idx;
+	}
+
+	private boolean isFileKept(final FileType fileType) {
+		synchronized (this.files) {
+			return this.files.containsKey(fileType);
+		}
+	}
+
+	private void keepFile(final FileType fileType, final byte[] data) {
+		synchronized (this.files) {
+			this.files.put(fileType, data.clone());
+		}
+	}
+
+	private Map<FileType, X509Certificate> getCertificates(
+			final EnumSet<FileType> fileTypes) throws CertificateException,
+			CardException, IOException, InterruptedException {
+		final Map<FileType, X509Certificate> certificates = new EnumMap<FileType, X509Certificate>(
+				FileType.class);
+		final EnumSet<FileType> fileTypesToRead = EnumSet.noneOf(FileType.class);
+
+		synchronized (this.certificates) {
+			for (FileType fileType : fileTypes) {
+				final X509Certificate certificate = this.certificates
+						.get(fileType);
+				if (certificate != null) {
+					certificates.put(fileType, certificate);
+				} else {
+					fileTypesToRead.add(fileType);
+				}
+			}
+		}
+
+		if (fileTypesToRead.isEmpty()) {
+			return certificates;
+		}
+
+		this.beginExclusive();
+
+		try {
+			final Map<FileType, byte[]> sharedHeads = new EnumMap<FileType, byte[]>(
+					FileType.class);
+			final Map<FileType, X509Certificate> cachedCertificates = new EnumMap<FileType, X509Certificate>(
+					FileType.class);
+			for (FileType fileType : fileTypes) {
+				if (fileType.isSharedCertificate()
+						&& fileTypesToRead.contains(fileType)
+						&& !isFileKept(fileType)) {
+					final X509Certificate cachedCertificate = getSharedCertificate(
+							fileType, sharedHeads, certificates);
+					if (cachedCertificate != null) {
+						cachedCertificates.put(fileType, cachedCertificate);
+					}
+					fileTypesToRead.remove(fileType);
+				}
+			}
+
+			if (!fileTypesToRead.isEmpty()) {
+				final Map<FileType, byte[]> certificateFiles = readFiles(fileTypesToRead);
+				for (Map.Entry<FileType, byte[]> certificateFile : certificateFiles
+						.entrySet()) {
+					final X509Certificate certificate = (X509Certificate) this.certificateFactory
+							.generateCertificate(new ByteArrayInputStream(
+									certificateFile.getValue()));
+					certificates.put(certificateFile.getKey(), certificate);
+					synchronized (this.certificates) {
+						this.certificates.put(certificateFile.getKey(),
+								certificate);
+					}
+				}
+			}
+
+			/*
+			 * A certificate found in the CertificateCache by its head alone is
+			 * only used once a certificate from this card verifies against it,
+			 * or else once the tail of its file on this card matches. The
+			 * Citizen CA goes first, so that once confirmed it can vouch for
+			 * the Root. An unconfirmed certificate is read in full after all.
+			 */
+			confirmSharedCertificate(FileType.CACertificate,
+					cachedCertificates, sharedHeads, certificates);
+			confirmSharedCertificate(FileType.RootCertificate,
+					cachedCertificates, sharedHeads, certificates);
+
+			/*
+			 * The Root goes into the CertificateCache first, so that the
+			 * Citizen CA can be verified against it.
+			 */
+			admitSharedCertificate(FileType.RootCertificate, sharedHeads,
+					certificates);
+			admitSharedCertificate(FileType.CACertificate, sharedHeads,
+					certificates);
+		} finally {
+			this.endExclusive();
+		}
+
+		return certificates;
+	}
+
+	/*
+	 * Read only the head of a Citizen CA or Root certificate file into
+	 * sharedHeads, and return the certificate from the CertificateCache if it
+	 * was seen before, on any card. It is still to be confirmed by this card.
+	 * Otherwise, read the rest of the file, add the certificate to
+	 * certificates and return null. To be called inside an exclusive
+	 * transaction.
+	 */
+	private X509Certificate getSharedCertificate(final FileType fileType,
+			final Map<FileType, byte[]> sharedHeads,
+			final Map<FileType, X509Certificate> certificates)
+			throws CertificateException, CardException, IOException,
+			InterruptedException {
+		this.selectFile(fileType.getFileId());
+		final BeIDFileInputStream inputStream = new BeIDFileInputStream(this,
+				this.logger, fileType, fileType.getEstimatedMaxSize(), false)
+				.limitBlockSize(CertificateCache.HEAD_SIZE);
+		byte[] block = inputStream.readBlock();
+		final byte[] head = (block != null) ? block : new byte[0];
+		sharedHeads.put(fileType, head);
+
+		final X509Certificate cachedCertificate = CertificateCache.get(head);
+		if (cachedCertificate != null) {
+			this.logger.debug(fileType + " found in shared certificate cache");
+			return cachedCertificate;
+		}
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+				fileType.getEstimatedMaxSize());
+		baos.write(head);
+		inputStream.limitBlockSize(CardTerminalProfile.EXTENDED_BLOCK_SIZE);
+		while ((block = inputStream.readBlock()) != null) {
+			baos.write(block);
+		}
+		addSharedCertificate(fileType, baos.toByteArray(), certificates);
+		return null;
+	}
+
+	/*
+	 * Use the cached certificate of the given type if a certificate from this
+	 * card, read in full or confirmed before, was issued by it, or if the tail
+	 * of the file on this card matches it. Otherwise, read the entire file. To
+	 * be called inside an exclusive transaction.
+	 */
+	private void confirmSharedCertificate(final FileType fileType,
+			final Map<FileType, X509Certificate> cachedCertificates,
+			final Map<FileType, byte[]> sharedHeads,
+			final Map<FileType, X509Certificate> certificates)
+			throws CertificateException, CardException, IOException,
+			InterruptedException {
+		final X509Certificate cachedCertificate = cachedCertificates
+				.get(fileType);
+		if (cachedCertificate == null) {
+			return;
+		}
+
+		final List<X509Certificate> cardCertificates = new LinkedList<X509Certificate>(
+				certificates.values());
+		synchronized (this.certificates) {
+			cardCertificates.addAll(this.certificates.values());
+		}
+		boolean confirmed = false;
+		for (X509Certificate cardCertificate : cardCertificates) {
+			if (cardCertificate != cachedCertificate
+					&& CertificateCache.isIssuedBy(cardCertificate,
+							cachedCertificate)) {
+				confirmed = true;
+				break;
+			}
+		}
+		if (!confirmed) {
+			confirmed = isTailOnCard(fileType, cachedCertificate);
+		}
+		if (confirmed) {
+			sharedHeads.remove(fileType);
+			certificates.put(fileType, cachedCertificate);
+			synchronized (this.certificates) {
+				this.certificates.put(fileType, cachedCertificate);
+			}
+			return;
+		}
+
+		this.logger.debug(fileType
+				+ " from shared certificate cache not confirmed by this card");
+		addSharedCertificate(fileType, readFileInTransaction(fileType),
+				certificates);
+	}
+
+	/*
+	 * Without a certificate from this card to verify against it, compare the
+	 * last HEAD_SIZE bytes of the cached certificate, which hold the end of its
+	 * signature, to the same bytes of the file on the card: a single READ
+	 * BINARY instead of the entire file. The head already matched, and with it
+	 * the length of the certificate. To be called inside an exclusive
+	 * transaction.
+	 */
+	private boolean isTailOnCard(final FileType fileType,
+			final X509Certificate cachedCertificate)
+			throws CertificateException, CardException, IOException {
+		final byte[] encoded = cachedCertificate.getEncoded();
+		final int tailOffset = Math.max(0, encoded.length
+				- CertificateCache.HEAD_SIZE);
+		this.selectFile(fileType.getFileId());
+		final ResponseAPDU responseApdu = transmitReadBinary(tailOffset,
+				encoded.length - tailOffset);
+		return 0x9000 == responseApdu.getSW()
+				&& Arrays.equals(responseApdu.getData(), Arrays.copyOfRange(
+						encoded, tailOffset, encoded.length));
+	}
+
+	private void addSharedCertificate(final FileType fileType,
+			final byte[] data, final Map<FileType, X509Certificate> certificates)
+			throws CertificateException {
+		keepFile(fileType, data);
+		final X509Certificate certificate = (X509Certificate) this.certificateFactory
+				.generateCertificate(new ByteArrayInputStream(data));
+		certificates.put(fileType, certificate);
+		synchronized (this.certificates) {
+			this.certificates.put(fileType, certificate);
+		}
+	}
+
+	/*
+	 * Offer a Citizen CA or Root certificate that was read in full to the
+	 * CertificateCache, which only admits it if it verifies.
+	 */
+	private void admitSharedCertificate(final FileType fileType,
+			final Map<FileType, byte[]> sharedHeads,
+			final Map<FileType, X509Certificate> certificates) {
+		final byte[] head = sharedHeads.get(fileType);
+		if (head == null) {
+			return;
+		}
+		if (!CertificateCache.put(head, certificates.get(fileType))) {
+			this.logger.debug(fileType
+					+ " does not verify, not added to shared certificate cache");
+		}
+	}
+
+	private byte[] readFileInTransaction(final FileType fileType)
+			throws CardException, IOException, InterruptedException {
+		this.selectFile(fileType.getFileId());
+		return this.readBinary(fileType, fileType.getEstimatedMaxSize());
+	}
+
+	private String getChipSerialNumber() throws CardException {
+		final byte[] data = getCardData();
+		final StringBuilder chipSerialNumber = new StringBuilder();
+		for (int idx = 0; idx < 16 && idx < data.length; idx++) {
+			chipSerialNumber.append(Character.forDigit((data[idx] >> 4) & 0xf,
+					16));
+			chipSerialNumber.append(Character.forDigit(data[idx] & 0xf, 16));
+		}
+		return chipSerialNumber.toString();
+	}
+
+	ResponseAPDU transmitReadBinary(final int offset, final int blockSize)
+			throws CardException {
+		return transmitCommand(BeIDCommandAPDU.READ_BINARY, offset >> 8,
+				offset & 0xFF, blockSize);
+	}
+
+	int getReadBinaryBlockSize() {
+		if (ReadBinaryMode.NEGOTIATED != this.readBinaryMode) {
+			return BLOCK_SIZE;
+		}
+		final int blockSize = getCardTerminalProfile().getBlockSize();
+		final CardProfile profile = getCardProfile();
+		if (profile != null) {
+			return Math.min(blockSize, profile.getMaxReadBinaryLength());
+		}
+		return blockSize;
+	}
+
+	int rejectReadBinaryBlockSize(final int blockSize,
+			final String reason) {
+		final int newBlockSize = getCardTerminalProfile().rejectBlockSize(
+				blockSize);
+		this.logger.debug("READ BINARY of " + blockSize + " bytes refused ("
+				+ reason + "), falling back to " + newBlockSize + " bytes");
+		return newBlockSize;
+	}
+
+	/**
+	 * Return what was learned about the CardTerminal this BeIDCard is in: the
+	 * READ BINARY block size that works, and which timing workarounds it needs.
+	 * It also counts the time those workarounds slept, the time saved by not
+	 * applying them where they weren't needed, and the commands resent after
+	 * 6Cxx and 61xx responses.
+	 * 
+	 * @return the profile shared by all BeIDCards in the same CardTerminal
+	 */
+	public CardTerminalProfile getCardTerminalProfile() {
+		if (this.cardTerminalProfile == null) {
+			if (this.cardTerminal != null) {
+				this.cardTerminalProfile = CardTerminalProfile
+						.forTerminal(this.cardTerminal.getName());
+			} else {
+				this.cardTerminalProfile = new CardTerminalProfile();
+			}
+		}
+		return this.cardTerminalProfile;
+	}
+
+	/**
+	 * Return the CardProfile of this card: which generation of eID card it is,
+	 * and what that generation is capable of. Unless set explicitly, this is
+	 * recognized from the ATR.
+	 * 
+	 * @return the CardProfile, or null if the generation is not known, in
+	 *         which case its capabilities are learned per CardTerminal
+	 */
+	public CardProfile getCardProfile() {
+		if (!this.cardProfileRecognized) {
+			this.cardProfile = CardProfile.recognize(getATR());
+			this.cardProfileRecognized = true;
+		}
+		return this.cardProfile;
+	}
+
+	/**
+	 * Set the CardProfile of this card, when it is already known.
+	 * 
+	 * @param newCardProfile
+	 *            the CardProfile of this card, or null to learn its
+	 *            capabilities per CardTerminal
+	 * @return this BeIDCard instance, to allow method chaining
+	 */
+	public BeIDCard setCardProfile(final CardProfile newCardProfile) {
+		this.cardProfile = newCardProfile;
+		this.cardProfileRecognized = true;
+		return this;
+	}
+
 	private CCID getCCID() {
 		if (this.ccid == null) {
 			this.ccid = new CCID(this.card, this.cardTerminal, this.logger);
@@ -1586,6 +2678,17 @@ public class BeIDCard {
 	 */
 	public void setCardTerminal(CardTerminal cardTerminal) {
 		this.cardTerminal = cardTerminal;
+		if (cardTerminal != null) {
+			this.cardTerminalProfile = null;
+		}
+	}
+
+	/*
+	 * Thrown inside a prefetch, to abandon the file being read when another
+	 * thread wants the card.
+	 */
+	private static class PrefetchPreemptedException extends IOException {
+		private static final long serialVersionUID = 1L;
 	}
 
 	/*
@@ -1623,6 +2726,8 @@ public class BeIDCard {
 
 		GET_CARD_DATA(0x80, 0xE4, 0x00, 0x00),
 
+		GET_RESPONSE(0x00, 0xC0, 0x00, 0x00),
+
 		PPDU(0xFF, 0xC2, 0x01);
 
 		private final int cla;
@@ -0,0 +1,258 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardTerminal;
+
+import be.fedict.commons.eid.client.event.BeIDCardEventsListener;
+import be.fedict.commons.eid.client.event.CardAndTerminalEvent;
+import be.fedict.commons.eid.client.event.CardEventsListener;
+import be.fedict.commons.eid.client.event.OverflowPolicy;
+import be.fedict.commons.eid.client.event.Publisher;
+import be.fedict.commons.eid.client.event.Subscriber;
+import be.fedict.commons.eid.client.impl.EventPublisher;
+import be.fedict.commons.eid.client.impl.VoidLogger;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * A BeIDCardEventPublisher publishes the events of a BeIDCardManager to any
+ * number of Subscribers, each with its own demand: EID_CARD_INSERTED and
+ * EID_CARD_REMOVED for eID cards, CARD_INSERTED and CARD_REMOVED for other
+ * cards. A new Subscriber first receives a snapshot of the cards inserted,
+ * followed by INITIALIZED if the BeIDCardManager was initialized already, and
+ * then every event since. The BeIDCardEventPublisher is a listener of the
+ * BeIDCardManager: create it before starting the BeIDCardManager.
+ * <p>
+ * Events are buffered and delivered as by a
+ * {@link CardAndTerminalEventPublisher}.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class BeIDCardEventPublisher
+		implements
+			Publisher<CardAndTerminalEvent> {
+	private final BeIDCardManager beIDCardManager;
+	private final EventPublisher<CardAndTerminalEvent> eventPublisher;
+	private final Map<CardTerminal, BeIDCard> beIDCards;
+	private final Map<CardTerminal, Card> otherCards;
+	private final BeIDCardEventsListener beIDCardEventsListener;
+	private final CardEventsListener otherCardEventsListener;
+	private boolean beIDCardEventsInitialized;
+	private boolean otherCardEventsInitialized;
+
+	/**
+	 * Publish the events of the BeIDCardManager given.
+	 * 
+	 * @param beIDCardManager
+	 *            the BeIDCardManager to publish the events of
+	 */
+	public BeIDCardEventPublisher(final BeIDCardManager beIDCardManager) {
+		this(new VoidLogger(), beIDCardManager);
+	}
+
+	/**
+	 * Publish the events of the BeIDCardManager given, logging to the Logger
+	 * given.
+	 * 
+	 * @param logger
+	 *            the Logger to log to
+	 * @param beIDCardManager
+	 *            the BeIDCardManager to publish the events of
+	 */
+	public BeIDCardEventPublisher(final Logger logger,
+			final BeIDCardManager beIDCardManager) {
+		this.beIDCardManager = beIDCardManager;
+		this.eventPublisher = new EventPublisher<CardAndTerminalEvent>(logger,
+				"BeIDCardEventPublisher");
+		this.beIDCards = new LinkedHashMap<CardTerminal, BeIDCard>();
+		this.otherCards = new LinkedHashMap<CardTerminal, Card>();
+
+		this.beIDCardEventsListener = new BeIDCardEventsListener() {
+			@Override
+			public void eIDCardInserted(final CardTerminal cardTerminal,
+					final BeIDCard card) {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.beIDCards.put(cardTerminal,
+							card);
+					publish(CardAndTerminalEvent.Type.EID_CARD_INSERTED,
+							cardTerminal, null, card);
+				}
+			}
+
+			@Override
+			public void eIDCardRemoved(final CardTerminal cardTerminal,
+					final BeIDCard card) {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.beIDCards.remove(cardTerminal);
+					publish(CardAndTerminalEvent.Type.EID_CARD_REMOVED,
+							cardTerminal, null, card);
+				}
+			}
+
+			@Override
+			public void eIDCardEventsInitialized() {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.beIDCardEventsInitialized = true;
+					publishInitialized();
+				}
+			}
+		};
+
+		this.otherCardEventsListener = new CardEventsListener() {
+			@Override
+			public void cardInserted(final CardTerminal cardTerminal,
+					final Card card) {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.otherCards.put(cardTerminal,
+							card);
+					publish(CardAndTerminalEvent.Type.CARD_INSERTED,
+							cardTerminal, card, null);
+				}
+			}
+
+			@Override
+			public void cardRemoved(final CardTerminal cardTerminal) {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.otherCards.remove(cardTerminal);
+					publish(CardAndTerminalEvent.Type.CARD_REMOVED,
+							cardTerminal, null, null);
+				}
+			}
+
+			@Override
+			public void cardEventsInitialized() {
+				synchronized (BeIDCardEventPublisher.this) {
+					BeIDCardEventPublisher.this.otherCardEventsInitialized = true;
+					publishInitialized();
+				}
+			}
+		};
+
+		beIDCardManager.addBeIDCardEventListener(this.beIDCardEventsListener);
+		beIDCardManager.addOtherCardEventListener(this.otherCardEventsListener);
+	}
+
+	/**
+	 * Set the Executor to deliver events to Subscribers on. By default, events
+	 * are delivered on daemon threads of this BeIDCardEventPublisher's own.
+	 * 
+	 * @param newExecutor
+	 *            the Executor to use, or null for the default
+	 * @return this BeIDCardEventPublisher to allow for method chaining.
+	 */
+	public BeIDCardEventPublisher setExecutor(final Executor newExecutor) {
+		this.eventPublisher.setExecutor(newExecutor);
+		return this;
+	}
+
+	/**
+	 * @return the number of events dropped because a Subscriber's buffer was
+	 *         full
+	 */
+	public long getDroppedEvents() {
+		return this.eventPublisher.getDroppedEvents();
+	}
+
+	/**
+	 * Add a Subscriber, with a buffer of
+	 * {@link EventPublisher#DEFAULT_BUFFER_SIZE} events and
+	 * {@link OverflowPolicy#FAIL}: it either sees every event, or is told it
+	 * fell behind.
+	 */
+	@Override
+	public void subscribe(
+			final Subscriber<? super CardAndTerminalEvent> subscriber) {
+		subscribe(subscriber, EventPublisher.DEFAULT_BUFFER_SIZE,
+				OverflowPolicy.FAIL);
+	}
+
+	/**
+	 * Add a Subscriber, with a buffer and OverflowPolicy of its own.
+	 * 
+	 * @param subscriber
+	 *            the Subscriber to deliver events to
+	 * @param bufferSize
+	 *            the number of events buffered for this Subscriber, not
+	 *            counting the snapshot, at least 1
+	 * @param overflowPolicy
+	 *            what to do when this Subscriber's buffer is full
+	 */
+	public synchronized void subscribe(
+			final Subscriber<? super CardAndTerminalEvent> subscriber,
+			final int bufferSize, final OverflowPolicy overflowPolicy) {
+		final List<CardAndTerminalEvent> snapshot = new ArrayList<CardAndTerminalEvent>();
+		for (Map.Entry<CardTerminal, BeIDCard> entry : this.beIDCards
+				.entrySet()) {
+			snapshot.add(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.EID_CARD_INSERTED,
+					entry.getKey(), null, entry.getValue(), true));
+		}
+		for (Map.Entry<CardTerminal, Card> entry : this.otherCards.entrySet()) {
+			snapshot.add(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.CARD_INSERTED, entry.getKey(),
+					entry.getValue(), null, true));
+		}
+		if (this.beIDCardEventsInitialized && this.otherCardEventsInitialized) {
+			snapshot.add(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.INITIALIZED, null, null, null,
+					true));
+		}
+		this.eventPublisher.subscribe(subscriber, snapshot, bufferSize,
+				overflowPolicy);
+	}
+
+	/**
+	 * Stop publishing, and unregister from the BeIDCardManager. Subscribers
+	 * receive onComplete() after the events already buffered for them.
+	 */
+	public void close() {
+		this.beIDCardManager
+				.removeBeIDCardListener(this.beIDCardEventsListener);
+		this.beIDCardManager
+				.removeOtherCardEventListener(this.otherCardEventsListener);
+		synchronized (this) {
+			this.eventPublisher.close();
+		}
+	}
+
+	private void publish(final CardAndTerminalEvent.Type type,
+			final CardTerminal cardTerminal, final Card card,
+			final BeIDCard beIDCard) {
+		this.eventPublisher.publish(new CardAndTerminalEvent(type,
+				cardTerminal, card, beIDCard, false));
+	}
+
+	// the BeIDCardManager calls both initialized methods in turn
+	private void publishInitialized() {
+		if (this.beIDCardEventsInitialized && this.otherCardEventsInitialized) {
+			this.eventPublisher.publish(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.INITIALIZED, null, null, null,
+					false));
+		}
+	}
+}
@@ -18,22 +18,28 @@
 
 package be.fedict.commons.eid.client;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
-import javax.smartcardio.ATR;
+import javax.management.ObjectName;
 import javax.smartcardio.Card;
 import javax.smartcardio.CardTerminal;
 
 import be.fedict.commons.eid.client.CardAndTerminalManager.PROTOCOL;
 import be.fedict.commons.eid.client.event.BeIDCardEventsListener;
 import be.fedict.commons.eid.client.event.CardEventsListener;
+import be.fedict.commons.eid.client.impl.BeIDCardManagerStatistics;
+import be.fedict.commons.eid.client.impl.CardProfile;
 import be.fedict.commons.eid.client.impl.LocaleManager;
+import be.fedict.commons.eid.client.impl.MBeans;
 import be.fedict.commons.eid.client.impl.VoidLogger;
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
 import be.fedict.commons.eid.client.spi.Logger;
 
 /**
@@ -46,6 +52,11 @@ import be.fedict.commons.eid.client.spi.Logger;
  * with Belgian eID cards in all card readers, meaning that if you wish to use
  * its "other card" facility you may have to supply your own
  * CardAndTerminalManager with a protocol setting of "ALL".
+ * <p>
+ * Optionally, a BeIDCardManager can start reading a set of files from each eID
+ * card in the background as soon as it is inserted, see
+ * setPrefetchFileTypes(). Any BeIDCard method called meanwhile pre-empts the
+ * prefetch, and files that were already prefetched are served from memory.
  * 
  * @author Frank Marien
  * @author Frank Cornelis
@@ -53,18 +64,16 @@ import be.fedict.commons.eid.client.spi.Logger;
 
 public class BeIDCardManager {
 
-	private static final byte[] ATR_PATTERN = new byte[]{0x3b, (byte) 0x98,
-			0x00, 0x40, 0x00, (byte) 0x00, 0x00, 0x00, 0x01, 0x01, (byte) 0xad,
-			0x13, 0x10,};
-	private static final byte[] ATR_MASK = new byte[]{(byte) 0xff, (byte) 0xff,
-			0x00, (byte) 0xff, 0x00, 0x00, 0x00, 0x00, (byte) 0xff,
-			(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xf0,};
-
 	private CardAndTerminalManager cardAndTerminalManager;
 	private boolean terminalManagerIsPrivate;
 	private Map<CardTerminal, BeIDCard> terminalsAndCards;
 	private Set<BeIDCardEventsListener> beIdListeners;
 	private Set<CardEventsListener> otherCardListeners;
+	private Set<APDUInterceptor> apduInterceptors;
+	private Map<CardTerminal, Thread> prefetchThreads;
+	private EnumSet<FileType> prefetchFileTypes;
+	private final BeIDCardManagerStatistics statistics;
+	private ObjectName objectName;
 	private final Logger logger;
 
 	/**
@@ -121,6 +130,9 @@ public class BeIDCardManager {
 		this.beIdListeners = new HashSet<BeIDCardEventsListener>();
 		this.otherCardListeners = new HashSet<CardEventsListener>();
 		this.terminalsAndCards = new HashMap<CardTerminal, BeIDCard>();
+		this.apduInterceptors = new HashSet<APDUInterceptor>();
+		this.prefetchThreads = new HashMap<CardTerminal, Thread>();
+		this.statistics = new BeIDCardManagerStatistics();
 
 		this.cardAndTerminalManager = cardAndTerminalManager;
 		if (this.terminalManagerIsPrivate) {
@@ -131,17 +143,30 @@ public class BeIDCardManager {
 			@Override
 			public void cardInserted(final CardTerminal cardTerminal,
 					final Card card) {
-				if (card != null && matchesEidAtr(card.getATR())) {
+				final CardProfile cardProfile = card != null ? CardProfile
+						.recognize(card.getATR()) : null;
+				if (cardProfile != null) {
+					BeIDCardManager.this.statistics
+							.beIDCardInserted(cardProfile);
 					final BeIDCard beIDCard = new BeIDCard(card,
 							BeIDCardManager.this.logger);
+					beIDCard.setCardProfile(cardProfile);
 					beIDCard.setCardTerminal(cardTerminal);
 					beIDCard.setLocale(LocaleManager.getLocale());
 
+					synchronized (BeIDCardManager.this.apduInterceptors) {
+						for (APDUInterceptor interceptor : BeIDCardManager.this.apduInterceptors) {
+							beIDCard.addAPDUInterceptor(interceptor);
+						}
+					}
+
 					synchronized (BeIDCardManager.this.terminalsAndCards) {
 						BeIDCardManager.this.terminalsAndCards.put(
 								cardTerminal, beIDCard);
 					}
 
+					startPrefetch(cardTerminal, beIDCard);
+
 					Set<BeIDCardEventsListener> copyOfListeners = null;
 
 					synchronized (BeIDCardManager.this.beIdListeners) {
@@ -159,6 +184,7 @@ public class BeIDCardManager {
 						}
 					}
 				} else {
+					BeIDCardManager.this.statistics.otherCardInserted();
 					Set<CardEventsListener> copyOfListeners = null;
 
 					synchronized (BeIDCardManager.this.otherCardListeners) {
@@ -180,14 +206,16 @@ public class BeIDCardManager {
 
 			@Override
 			public void cardRemoved(final CardTerminal cardTerminal) {
-				final BeIDCard beIDCard = BeIDCardManager.this.terminalsAndCards
-						.get(cardTerminal);
+				final BeIDCard beIDCard;
+				synchronized (BeIDCardManager.this.terminalsAndCards) {
+					beIDCard = BeIDCardManager.this.terminalsAndCards
+							.remove(cardTerminal);
+				}
 				if (beIDCard != null) {
+					BeIDCardManager.this.statistics.beIDCardRemoved();
+					stopPrefetch(cardTerminal);
+					beIDCard.invalidateCache();
 					beIDCard.close();
-					synchronized (BeIDCardManager.this.terminalsAndCards) {
-						BeIDCardManager.this.terminalsAndCards
-								.remove(cardTerminal);
-					}
 
 					Set<BeIDCardEventsListener> copyOfListeners = null;
 
@@ -207,6 +235,7 @@ public class BeIDCardManager {
 
 					}
 				} else {
+					BeIDCardManager.this.statistics.otherCardRemoved();
 					Set<CardEventsListener> copyOfListeners = null;
 
 					synchronized (BeIDCardManager.this.otherCardListeners) {
@@ -270,11 +299,15 @@ public class BeIDCardManager {
 	 * construction, this will start our private CardAndTerminalManager. After
 	 * this, any registered listeners will start receiving their designated
 	 * events, including the existing state. If a CardAndTerminalManager was
-	 * given at construction, this has no effect.
+	 * given at construction, this only registers the statistics MBean.
 	 * 
 	 * @return this BeIDCardManager to allow for method chaining
 	 */
 	public BeIDCardManager start() {
+		if (this.objectName == null) {
+			this.objectName = MBeans.register(this.statistics,
+					"BeIDCardManager", this.logger);
+		}
 		if (this.terminalManagerIsPrivate) {
 			this.cardAndTerminalManager.start();
 		}
@@ -351,18 +384,88 @@ public class BeIDCardManager {
 	 * @return this BeIDCardManager to allow for method chaining
 	 */
 	public BeIDCardManager removeOtherCardEventListener(
-			final BeIDCardEventsListener listener) {
+			final CardEventsListener listener) {
 		synchronized (this.otherCardListeners) {
 			this.otherCardListeners.remove(listener);
 		}
 		return this;
 	}
 
+	/**
+	 * add an APDUInterceptor to each eID card inserted from now on, see
+	 * {@link BeIDCard#addAPDUInterceptor(APDUInterceptor)}.
+	 * 
+	 * @param interceptor
+	 *            the APDUInterceptor to add
+	 * @return this BeIDCardManager to allow for method chaining
+	 */
+	public BeIDCardManager addAPDUInterceptor(
+			final APDUInterceptor interceptor) {
+		synchronized (this.apduInterceptors) {
+			this.apduInterceptors.add(interceptor);
+		}
+		return this;
+	}
+
+	/**
+	 * stop adding an APDUInterceptor to eID cards inserted from now on.
+	 * 
+	 * @param interceptor
+	 *            the APDUInterceptor to no longer add
+	 * @return this BeIDCardManager to allow for method chaining
+	 */
+	public BeIDCardManager removeAPDUInterceptor(
+			final APDUInterceptor interceptor) {
+		synchronized (this.apduInterceptors) {
+			this.apduInterceptors.remove(interceptor);
+		}
+		return this;
+	}
+
+	/**
+	 * Set the files to read from each eID card in the background, as soon as
+	 * it is inserted. Files are prefetched in the given order, before and
+	 * while BeIDCardEventsListeners are notified of the insertion. Any call
+	 * to the BeIDCard pre-empts the prefetch, and later requests for files
+	 * that were prefetched are served from memory. Prefetching is disabled by
+	 * default.
+	 * 
+	 * @param fileTypes
+	 *            the files to prefetch, or null to disable prefetching
+	 * @return this BeIDCardManager to allow for method chaining
+	 */
+	public BeIDCardManager setPrefetchFileTypes(
+			final EnumSet<FileType> fileTypes) {
+		synchronized (this.prefetchThreads) {
+			if (fileTypes == null || fileTypes.isEmpty()) {
+				this.prefetchFileTypes = null;
+			} else {
+				this.prefetchFileTypes = EnumSet.copyOf(fileTypes);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return the files prefetched on insertion, or null if prefetching is
+	 *         disabled
+	 */
+	public EnumSet<FileType> getPrefetchFileTypes() {
+		synchronized (this.prefetchThreads) {
+			if (this.prefetchFileTypes == null) {
+				return null;
+			}
+			return EnumSet.copyOf(this.prefetchFileTypes);
+		}
+	}
+
 	/**
 	 * Stops this BeIDCardManager. If no CardAndTerminalManager was given at
 	 * construction, this will stop our private CardAndTerminalManager. After
 	 * this, no registered listeners will receive any more events. If a
-	 * CardAndTerminalManager was given at construction, this has no effect.
+	 * CardAndTerminalManager was given at construction, this only unregisters
+	 * the statistics MBean. Either way, any prefetches still running are
+	 * interrupted, and have returned once this returns.
 	 * 
 	 * @return this BeIDCardManager to allow for method chaining
 	 */
@@ -370,25 +473,90 @@ public class BeIDCardManager {
 		if (this.terminalManagerIsPrivate) {
 			this.cardAndTerminalManager.stop();
 		}
+		stopAllPrefetches();
+		MBeans.unregister(this.objectName, this.logger);
+		this.objectName = null;
 		return this;
 	}
 
+	/**
+	 * Return the throughput statistics of this BeIDCardManager. While it runs,
+	 * these are also registered as an MBean named
+	 * be.fedict.commons.eid.client:type=BeIDCardManager.
+	 * 
+	 * @return the statistics
+	 */
+	public BeIDCardManagerStatistics getStatistics() {
+		return this.statistics;
+	}
+
 	/*
-	 * Private Support methods. Shamelessly copied from eid-applet-core
+	 * Private Support methods.
 	 */
 
-	private boolean matchesEidAtr(final ATR atr) {
-		final byte[] atrBytes = atr.getBytes();
-		if (atrBytes.length != ATR_PATTERN.length) {
-			return false;
+	private void startPrefetch(final CardTerminal cardTerminal,
+			final BeIDCard beIDCard) {
+		synchronized (this.prefetchThreads) {
+			if (this.prefetchFileTypes == null) {
+				return;
+			}
+
+			final EnumSet<FileType> fileTypes = EnumSet
+					.copyOf(this.prefetchFileTypes);
+			final Thread prefetchThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						beIDCard.prefetchFiles(fileTypes);
+						BeIDCardManager.this.logger.debug("prefetched "
+								+ fileTypes + " from " + cardTerminal.getName());
+					} catch (final InterruptedException iex) {
+						BeIDCardManager.this.logger
+								.debug("prefetch interrupted");
+					} catch (final Exception ex) {
+						BeIDCardManager.this.logger.debug("prefetch failed: "
+								+ ex.getMessage());
+					} finally {
+						synchronized (BeIDCardManager.this.prefetchThreads) {
+							if (BeIDCardManager.this.prefetchThreads
+									.get(cardTerminal) == Thread
+									.currentThread()) {
+								BeIDCardManager.this.prefetchThreads
+										.remove(cardTerminal);
+							}
+						}
+					}
+				}
+			}, "BeIDCardManager prefetch " + cardTerminal.getName());
+			prefetchThread.setDaemon(true);
+			this.prefetchThreads.put(cardTerminal, prefetchThread);
+			prefetchThread.start();
+		}
+	}
+
+	private void stopPrefetch(final CardTerminal cardTerminal) {
+		synchronized (this.prefetchThreads) {
+			final Thread prefetchThread = this.prefetchThreads
+					.remove(cardTerminal);
+			if (prefetchThread != null) {
+				prefetchThread.interrupt();
+			}
+		}
+	}
+
+	private void stopAllPrefetches() throws InterruptedException {
+		final List<Thread> prefetchThreads;
+		synchronized (this.prefetchThreads) {
+			prefetchThreads = new ArrayList<Thread>(
+					this.prefetchThreads.values());
+			this.prefetchThreads.clear();
 		}
-		for (int idx = 0; idx < atrBytes.length; idx++) {
-			atrBytes[idx] &= ATR_MASK[idx];
+		for (Thread prefetchThread : prefetchThreads) {
+			prefetchThread.interrupt();
 		}
-		if (Arrays.equals(atrBytes, ATR_PATTERN)) {
-			return true;
+		for (Thread prefetchThread : prefetchThreads) {
+			prefetchThread.join();
 		}
-		return false;
 	}
 
 	public BeIDCardManager setLocale(Locale newLocale) {
@@ -18,16 +18,29 @@
 
 package be.fedict.commons.eid.client;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
 
 import be.fedict.commons.eid.client.CardAndTerminalManager.PROTOCOL;
 import be.fedict.commons.eid.client.event.BeIDCardEventsListener;
+import be.fedict.commons.eid.client.event.CardReadListener;
 import be.fedict.commons.eid.client.event.CardTerminalEventsListener;
 import be.fedict.commons.eid.client.impl.LocaleManager;
 import be.fedict.commons.eid.client.impl.VoidLogger;
@@ -67,6 +80,7 @@ public class BeIDCards {
 	private Sleeper cardManagerInitSleeper, beIDSleeper;
 	private BeIDCardsUI ui;
 	private int cardTerminalsAttached;
+	private ExecutorService readExecutor;
 
 	/**
 	 * a BeIDCards without logging, using the default BeIDCardsUI
@@ -116,9 +130,30 @@ public class BeIDCards {
 	 *            instances.
 	 */
 	public BeIDCards(final Logger logger, final BeIDCardsUI ui) {
+		this(logger, ui, null);
+	}
+
+	/**
+	 * a BeIDCards logging to logger, using the supplied BeIDCardsUI, on the
+	 * CardTerminals given.
+	 * 
+	 * @param logger
+	 *            an instance of be.fedict.commons.eid.spi.Logger that will be
+	 *            send all the logs
+	 * @param ui
+	 *            an instance of be.fedict.commons.eid.client.spi.BeIDCardsUI
+	 *            that will be called upon for any user interaction required to
+	 *            handle other calls.
+	 * @param cardTerminals
+	 *            the CardTerminals to watch, or null for those of the default
+	 *            TerminalFactory
+	 */
+	public BeIDCards(final Logger logger, final BeIDCardsUI ui,
+			final CardTerminals cardTerminals) {
 
 		this.logger = logger;
-		this.cardAndTerminalManager = new CardAndTerminalManager(logger);
+		this.cardAndTerminalManager = new CardAndTerminalManager(logger,
+				cardTerminals);
 		this.cardAndTerminalManager.setProtocol(PROTOCOL.T0);
 		this.cardManager = new BeIDCardManager(logger,
 				this.cardAndTerminalManager);
@@ -209,6 +244,7 @@ public class BeIDCards {
 			}
 		});
 
+		this.cardManager.start();
 		this.cardAndTerminalManager.start();
 	}
 
@@ -261,6 +297,100 @@ public class BeIDCards {
 		}
 	}
 
+	/**
+	 * Read the same files from all BeID Cards present, in parallel: each card
+	 * is read by its own thread, since PC/SC allows I/O on different
+	 * CardTerminals at the same time. Blocks until all cards are read.
+	 * 
+	 * @param fileTypes
+	 *            the files to read from each card
+	 * @return a CardReadResult for each BeID Card present at time of call, in
+	 *         the order they finished
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the reads to finish, or
+	 *             while reading the only card present. Reads still in progress
+	 *             are interrupted as well.
+	 */
+	public List<CardReadResult> readAll(final EnumSet<FileType> fileTypes)
+			throws InterruptedException {
+		return this.readAll(fileTypes, null);
+	}
+
+	/**
+	 * Read the same files from all BeID Cards present, in parallel, and tell
+	 * cardReadListener about each card as soon as it is read. cardReadListener
+	 * is called on the thread calling readAll, so it need not be thread-safe.
+	 * Blocks until all cards are read.
+	 * 
+	 * @param fileTypes
+	 *            the files to read from each card
+	 * @param cardReadListener
+	 *            called with the CardReadResult of each card as it finishes,
+	 *            or null
+	 * @return a CardReadResult for each BeID Card present at time of call, in
+	 *         the order they finished
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the reads to finish, or
+	 *             while reading the only card present. Reads still in progress
+	 *             are interrupted as well.
+	 */
+	public List<CardReadResult> readAll(final EnumSet<FileType> fileTypes,
+			final CardReadListener cardReadListener)
+			throws InterruptedException {
+		waitUntilCardsInitialized();
+
+		final Map<CardTerminal, BeIDCard> currentBeIDCards;
+		synchronized (this.beIDTerminalsAndCards) {
+			currentBeIDCards = new HashMap<CardTerminal, BeIDCard>(
+					this.beIDTerminalsAndCards);
+		}
+
+		final List<CardReadResult> results = new ArrayList<CardReadResult>(
+				currentBeIDCards.size());
+		if (currentBeIDCards.size() == 1) {
+			final Map.Entry<CardTerminal, BeIDCard> entry = currentBeIDCards
+					.entrySet().iterator().next();
+			final CardReadResult result = new CardReadTask(entry.getKey(),
+					entry.getValue(), fileTypes).call();
+			if (result.getException() instanceof InterruptedException) {
+				// as when interrupted waiting for several cards
+				Thread.interrupted();
+				throw (InterruptedException) result.getException();
+			}
+			cardRead(results, result, cardReadListener);
+			return results;
+		}
+
+		final CompletionService<CardReadResult> readService = new ExecutorCompletionService<CardReadResult>(
+				getReadExecutor());
+		final List<Future<CardReadResult>> reads = new ArrayList<Future<CardReadResult>>(
+				currentBeIDCards.size());
+		for (Map.Entry<CardTerminal, BeIDCard> entry : currentBeIDCards
+				.entrySet()) {
+			reads.add(readService.submit(new CardReadTask(entry.getKey(),
+					entry.getValue(), fileTypes)));
+		}
+
+		try {
+			for (int i = 0; i < reads.size(); i++) {
+				try {
+					cardRead(results, readService.take().get(),
+							cardReadListener);
+				} catch (final ExecutionException eex) {
+					// CardReadTask doesn't throw
+					this.logger.error("Unexpected exception reading card: "
+							+ eex.getCause());
+				}
+			}
+		} finally {
+			for (Future<CardReadResult> read : reads) {
+				read.cancel(true);
+			}
+		}
+
+		return results;
+	}
+
 	/**
 	 * return exactly one BeID Card.
 	 * 
@@ -380,10 +510,19 @@ public class BeIDCards {
 	}
 
 	/**
-	 * call close() if you no longer need this BeIDCards instance.
+	 * call close() if you no longer need this BeIDCards instance. This stops
+	 * the BeIDCardManager and the CardAndTerminalManager this BeIDCards
+	 * started, unregistering the latter's statistics MBean.
 	 */
 	public BeIDCards close() throws InterruptedException {
 		this.cardManager.stop();
+		this.cardAndTerminalManager.stop();
+		synchronized (this) {
+			if (this.readExecutor != null) {
+				this.readExecutor.shutdownNow();
+				this.readExecutor = null;
+			}
+		}
 		return this;
 	}
 
@@ -449,6 +588,35 @@ public class BeIDCards {
 		return this.ui;
 	}
 
+	private void cardRead(final List<CardReadResult> results,
+			final CardReadResult result, final CardReadListener cardReadListener) {
+		results.add(result);
+		if (cardReadListener != null) {
+			try {
+				cardReadListener.cardRead(result);
+			} catch (final Exception ex) {
+				this.logger.error("Exception in CardReadListener: "
+						+ ex.getMessage());
+			}
+		}
+	}
+
+	private synchronized ExecutorService getReadExecutor() {
+		if (this.readExecutor == null) {
+			this.readExecutor = Executors
+					.newCachedThreadPool(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable,
+									"BeIDCards read");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return this.readExecutor;
+	}
+
 	private void waitUntilCardsInitialized() {
 		while (!this.cardsInitialized) {
 			this.logger
@@ -510,4 +678,39 @@ public class BeIDCards {
 			}
 		}
 	}
+
+	/*
+	 * reads the files from one card, timing how long that takes. Never throws:
+	 * any exception is part of the CardReadResult.
+	 */
+	private static final class CardReadTask implements Callable<CardReadResult> {
+		private final CardTerminal cardTerminal;
+		private final BeIDCard card;
+		private final EnumSet<FileType> fileTypes;
+
+		private CardReadTask(final CardTerminal cardTerminal,
+				final BeIDCard card, final EnumSet<FileType> fileTypes) {
+			this.cardTerminal = cardTerminal;
+			this.card = card;
+			this.fileTypes = fileTypes;
+		}
+
+		@Override
+		public CardReadResult call() {
+			final long start = System.nanoTime();
+			try {
+				final Map<FileType, byte[]> files = this.card
+						.readFiles(this.fileTypes);
+				return new CardReadResult(this.cardTerminal, this.card, files,
+						null, System.nanoTime() - start);
+			} catch (final InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				return new CardReadResult(this.cardTerminal, this.card, null,
+						iex, System.nanoTime() - start);
+			} catch (final Exception ex) {
+				return new CardReadResult(this.cardTerminal, this.card, null,
+						ex, System.nanoTime() - start);
+			}
+		}
+	}
 }
@@ -0,0 +1,350 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.ResponseAPDU;
+
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * A BeIDFileInputStream gives access to a file on a BeIDCard as it is being
+ * read, one READ BINARY block at a time. Blocks are read on demand, in the
+ * thread that reads from the stream: a parser such as CertificateFactory or
+ * ImageIO takes its input from the first block without waiting for the whole
+ * file, but the card transfer and the parsing take turns, they do not run
+ * concurrently. It is both an InputStream and a ReadableByteChannel.
+ * <p>
+ * Obtain one from {@link BeIDCard#openFile(FileType)}. The BeIDCard is held in
+ * an exclusive transaction until the BeIDFileInputStream is closed, so always
+ * close it, in a finally block.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class BeIDFileInputStream extends InputStream
+		implements
+			ReadableByteChannel {
+	private static final int BLOCK_SIZE = CardTerminalProfile.DEFAULT_BLOCK_SIZE;
+
+	private final BeIDCard card;
+	private final Logger logger;
+	private final FileType fileType;
+	private final int estimatedMaxSize;
+	private final boolean endExclusiveOnClose;
+	private int maxBlockSize;
+	private int refusedBlockSize;
+	private String refusalReason;
+	private int length;
+	private int offset;
+	private byte[] block;
+	private int blockPosition;
+	private boolean endOfFile;
+	private boolean closed;
+
+	BeIDFileInputStream(final BeIDCard card, final Logger logger,
+			final FileType fileType, final int estimatedMaxSize,
+			final boolean endExclusiveOnClose) {
+		this.card = card;
+		this.logger = logger;
+		this.fileType = fileType;
+		this.estimatedMaxSize = estimatedMaxSize;
+		this.endExclusiveOnClose = endExclusiveOnClose;
+		this.maxBlockSize = CardTerminalProfile.EXTENDED_BLOCK_SIZE;
+		this.length = -1;
+		this.offset = 0;
+		this.endOfFile = false;
+		this.closed = false;
+	}
+
+	BeIDFileInputStream(final FileType fileType, final byte[] data) {
+		this(null, null, fileType, data.length, false);
+		this.block = data;
+		this.offset = data.length;
+		this.endOfFile = true;
+	}
+
+	/**
+	 * @return the file being read
+	 */
+	public FileType getFileType() {
+		return this.fileType;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (this.closed) {
+			throw new IOException("stream closed");
+		}
+		if (!nextBlockIfRequired()) {
+			return -1;
+		}
+		return this.block[this.blockPosition++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] buffer, final int bufferOffset,
+			final int length) throws IOException {
+		if (this.closed) {
+			throw new IOException("stream closed");
+		}
+		if (length == 0) {
+			return 0;
+		}
+		if (!nextBlockIfRequired()) {
+			return -1;
+		}
+		final int count = Math.min(length, this.block.length
+				- this.blockPosition);
+		System.arraycopy(this.block, this.blockPosition, buffer, bufferOffset,
+				count);
+		this.blockPosition += count;
+		return count;
+	}
+
+	@Override
+	public int read(final ByteBuffer destination) throws IOException {
+		if (this.closed) {
+			throw new ClosedChannelException();
+		}
+		if (!destination.hasRemaining()) {
+			return 0;
+		}
+		if (!nextBlockIfRequired()) {
+			return -1;
+		}
+		final int count = Math.min(destination.remaining(), this.block.length
+				- this.blockPosition);
+		destination.put(this.block, this.blockPosition, count);
+		this.blockPosition += count;
+		return count;
+	}
+
+	@Override
+	public int available() throws IOException {
+		if (this.block == null) {
+			return 0;
+		}
+		return this.block.length - this.blockPosition;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !this.closed;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		if (this.endExclusiveOnClose) {
+			// on the wrong thread, this throws before closing, so that the
+			// thread that opened the stream can still close it
+			try {
+				this.card.endExclusive();
+			} catch (final CardException cex) {
+				this.closed = true;
+				final IOException ioEx = new IOException(
+						"cannot end exclusive transaction");
+				ioEx.initCause(cex);
+				throw ioEx;
+			}
+		}
+		this.closed = true;
+	}
+
+	/*
+	 * Request at most maxBlockSize bytes per READ BINARY, for when reading less
+	 * than the whole file is likely.
+	 */
+	BeIDFileInputStream limitBlockSize(final int maxBlockSize) {
+		this.maxBlockSize = maxBlockSize;
+		return this;
+	}
+
+	/*
+	 * Read the next block from the card. Returns null once the end of the file
+	 * was reached. Negotiates the block size with the card, see
+	 * ReadBinaryMode.
+	 */
+	byte[] readBlock() throws CardException, IOException,
+			InterruptedException {
+		if (this.endOfFile) {
+			return null;
+		}
+
+		while (true) {
+			if (Thread.currentThread().isInterrupted()) {
+				this.logger.debug("interrupted in readBinary");
+				throw new InterruptedException();
+			}
+
+			this.card.notifyReadProgress(this.fileType, this.offset,
+					this.estimatedMaxSize);
+			int blockSize = Math.min(this.card.getReadBinaryBlockSize(),
+					this.maxBlockSize);
+			if (this.refusedBlockSize > 0) {
+				blockSize = Math.min(blockSize, BLOCK_SIZE);
+			}
+			final ResponseAPDU responseApdu;
+			try {
+				responseApdu = this.card.transmitReadBinary(this.offset,
+						blockSize);
+			} catch (final CardException cex) {
+				if (blockSize <= BLOCK_SIZE) {
+					throw cex;
+				}
+				/*
+				 * Some readers refuse to transmit extended-length APDUs
+				 * altogether. But so does a reader whose card was just
+				 * removed: only hold it against the reader once a READ BINARY
+				 * of the default size does get through.
+				 */
+				this.refusedBlockSize = blockSize;
+				this.refusalReason = cex.getMessage();
+				continue;
+			}
+
+			if (this.refusedBlockSize > 0) {
+				this.card.rejectReadBinaryBlockSize(this.refusedBlockSize,
+						this.refusalReason);
+				this.refusedBlockSize = 0;
+			}
+
+			final int sw = responseApdu.getSW();
+			if (0x6B00 == sw) {
+				/*
+				 * Wrong parameters (offset outside the EF) End of file reached.
+				 * Can happen in case the file size is a multiple of the block
+				 * size.
+				 */
+				return endOfFile();
+			}
+
+			if (blockSize > BLOCK_SIZE && 0x6700 == sw) {
+				/*
+				 * Wrong length: the card (or the reader) won't give us this
+				 * many bytes at once.
+				 */
+				this.card.rejectReadBinaryBlockSize(blockSize,
+						Integer.toHexString(sw));
+				continue;
+			}
+
+			if (0x9000 != sw && 0x6282 != sw) {
+				final IOException ioEx = new IOException(
+						"BeIDCommandAPDU response error: "
+								+ responseApdu.getSW());
+				ioEx.initCause(new ResponseAPDUException(responseApdu));
+				throw ioEx;
+			}
+
+			if (blockSize > BLOCK_SIZE) {
+				this.card.getCardTerminalProfile().confirmBlockSize(blockSize);
+			}
+
+			final byte[] data = responseApdu.getData();
+			if (this.offset == 0) {
+				this.length = getDERLength(data);
+			}
+			this.offset += data.length;
+
+			/*
+			 * 0x6282: End of file reached before reading the requested number
+			 * of bytes. A shorter block of the default size also means we've
+			 * reached the end. But a card may answer a larger request with
+			 * less than it has left: then the end is only reached once past
+			 * the length in a DER header, or else a 6B00 on the next block
+			 * tells.
+			 */
+			if (0x6282 == sw || data.length == 0) {
+				endOfFile();
+			} else if (blockSize != data.length
+					&& (blockSize <= BLOCK_SIZE || isPastDERLength())) {
+				endOfFile();
+			}
+			return data;
+		}
+	}
+
+	private boolean isPastDERLength() {
+		return this.length >= 0 && this.offset >= this.length;
+	}
+
+	/*
+	 * The length of a file that starts with a DER SEQUENCE, such as a
+	 * certificate, including its header. -1 for any other file.
+	 */
+	private static int getDERLength(final byte[] data) {
+		if (data.length < 2 || 0x30 != data[0]) {
+			return -1;
+		}
+		final int lengthOctets = data[1] & 0xff;
+		if (lengthOctets < 0x80) {
+			return 2 + lengthOctets;
+		}
+		final int count = lengthOctets & 0x7f;
+		if (count == 0 || count > 3 || data.length < 2 + count) {
+			return -1;
+		}
+		int length = 0;
+		for (int idx = 0; idx < count; idx++) {
+			length = (length << 8) | (data[2 + idx] & 0xff);
+		}
+		return 2 + count + length;
+	}
+
+	private byte[] endOfFile() {
+		this.endOfFile = true;
+		this.card.notifyReadProgress(this.fileType, this.offset, this.offset);
+		return null;
+	}
+
+	private boolean nextBlockIfRequired() throws IOException {
+		while (this.block == null || this.blockPosition == this.block.length) {
+			try {
+				this.block = readBlock();
+			} catch (final CardException cex) {
+				final IOException ioEx = new IOException("cannot read "
+						+ this.fileType + ": " + cex.getMessage());
+				ioEx.initCause(cex);
+				throw ioEx;
+			} catch (final InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted reading "
+						+ this.fileType);
+			}
+			this.blockPosition = 0;
+			if (this.block == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardTerminal;
+
+import be.fedict.commons.eid.client.event.CardAndTerminalEvent;
+import be.fedict.commons.eid.client.event.CardEventsListener;
+import be.fedict.commons.eid.client.event.CardTerminalEventsListener;
+import be.fedict.commons.eid.client.event.OverflowPolicy;
+import be.fedict.commons.eid.client.event.Publisher;
+import be.fedict.commons.eid.client.event.Subscriber;
+import be.fedict.commons.eid.client.impl.EventPublisher;
+import be.fedict.commons.eid.client.impl.VoidLogger;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * A CardAndTerminalEventPublisher publishes the events of a
+ * CardAndTerminalManager to any number of Subscribers, each with its own
+ * demand. A new Subscriber first receives a snapshot of the CardTerminals
+ * attached and the cards inserted, as TERMINAL_ATTACHED and CARD_INSERTED
+ * events followed by INITIALIZED if the CardAndTerminalManager was
+ * initialized already, and then every event since, without gaps or
+ * duplicates. Subscribers may subscribe at any time, unlike listeners, which
+ * only see the initial situation when registered before start(). The
+ * CardAndTerminalEventPublisher itself is such a listener: create it before
+ * starting the CardAndTerminalManager.
+ * <p>
+ * Events are buffered for each Subscriber, up to the buffer size it
+ * subscribed with, and delivered on an Executor, so that a slow Subscriber
+ * never slows down detection. What happens when a Subscriber's buffer is full
+ * is decided by the OverflowPolicy it subscribed with. By default, its
+ * Subscription fails, so that it can subscribe again for a fresh snapshot.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class CardAndTerminalEventPublisher
+		implements
+			Publisher<CardAndTerminalEvent> {
+	private final CardAndTerminalManager cardAndTerminalManager;
+	private final EventPublisher<CardAndTerminalEvent> eventPublisher;
+	private final Map<CardTerminal, Card> cards;
+	private final CardTerminalEventsListener cardTerminalEventsListener;
+	private final CardEventsListener cardEventsListener;
+	private boolean terminalEventsInitialized;
+	private boolean cardEventsInitialized;
+
+	/**
+	 * Publish the events of the CardAndTerminalManager given.
+	 * 
+	 * @param cardAndTerminalManager
+	 *            the CardAndTerminalManager to publish the events of
+	 */
+	public CardAndTerminalEventPublisher(
+			final CardAndTerminalManager cardAndTerminalManager) {
+		this(new VoidLogger(), cardAndTerminalManager);
+	}
+
+	/**
+	 * Publish the events of the CardAndTerminalManager given, logging to the
+	 * Logger given.
+	 * 
+	 * @param logger
+	 *            the Logger to log to
+	 * @param cardAndTerminalManager
+	 *            the CardAndTerminalManager to publish the events of
+	 */
+	public CardAndTerminalEventPublisher(final Logger logger,
+			final CardAndTerminalManager cardAndTerminalManager) {
+		this.cardAndTerminalManager = cardAndTerminalManager;
+		this.eventPublisher = new EventPublisher<CardAndTerminalEvent>(logger,
+				"CardAndTerminalEventPublisher");
+		this.cards = new LinkedHashMap<CardTerminal, Card>();
+
+		this.cardTerminalEventsListener = new CardTerminalEventsListener() {
+			@Override
+			public void terminalAttached(final CardTerminal cardTerminal) {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					CardAndTerminalEventPublisher.this.cards.put(cardTerminal,
+							null);
+					publish(CardAndTerminalEvent.Type.TERMINAL_ATTACHED,
+							cardTerminal, null);
+				}
+			}
+
+			@Override
+			public void terminalDetached(final CardTerminal cardTerminal) {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					CardAndTerminalEventPublisher.this.cards
+							.remove(cardTerminal);
+					publish(CardAndTerminalEvent.Type.TERMINAL_DETACHED,
+							cardTerminal, null);
+				}
+			}
+
+			@Override
+			public void terminalEventsInitialized() {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					CardAndTerminalEventPublisher.this.terminalEventsInitialized = true;
+					publishInitialized();
+				}
+			}
+		};
+
+		this.cardEventsListener = new CardEventsListener() {
+			@Override
+			public void cardInserted(final CardTerminal cardTerminal,
+					final Card card) {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					CardAndTerminalEventPublisher.this.cards.put(cardTerminal,
+							card);
+					publish(CardAndTerminalEvent.Type.CARD_INSERTED,
+							cardTerminal, card);
+				}
+			}
+
+			@Override
+			public void cardRemoved(final CardTerminal cardTerminal) {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					if (CardAndTerminalEventPublisher.this.cards
+							.containsKey(cardTerminal)) {
+						CardAndTerminalEventPublisher.this.cards.put(
+								cardTerminal, null);
+					}
+					publish(CardAndTerminalEvent.Type.CARD_REMOVED,
+							cardTerminal, null);
+				}
+			}
+
+			@Override
+			public void cardEventsInitialized() {
+				synchronized (CardAndTerminalEventPublisher.this) {
+					CardAndTerminalEventPublisher.this.cardEventsInitialized = true;
+					publishInitialized();
+				}
+			}
+		};
+
+		cardAndTerminalManager
+				.addCardTerminalListener(this.cardTerminalEventsListener);
+		cardAndTerminalManager.addCardListener(this.cardEventsListener);
+	}
+
+	/**
+	 * Set the Executor to deliver events to Subscribers on. By default, events
+	 * are delivered on daemon threads of this
+	 * CardAndTerminalEventPublisher's own.
+	 * 
+	 * @param newExecutor
+	 *            the Executor to use, or null for the default
+	 * @return this CardAndTerminalEventPublisher to allow for method chaining.
+	 */
+	public CardAndTerminalEventPublisher setExecutor(final Executor newExecutor) {
+		this.eventPublisher.setExecutor(newExecutor);
+		return this;
+	}
+
+	/**
+	 * @return the number of events dropped because a Subscriber's buffer was
+	 *         full
+	 */
+	public long getDroppedEvents() {
+		return this.eventPublisher.getDroppedEvents();
+	}
+
+	/**
+	 * Add a Subscriber, with a buffer of
+	 * {@link EventPublisher#DEFAULT_BUFFER_SIZE} events and
+	 * {@link OverflowPolicy#FAIL}: it either sees every event, or is told it
+	 * fell behind.
+	 */
+	@Override
+	public void subscribe(
+			final Subscriber<? super CardAndTerminalEvent> subscriber) {
+		subscribe(subscriber, EventPublisher.DEFAULT_BUFFER_SIZE,
+				OverflowPolicy.FAIL);
+	}
+
+	/**
+	 * Add a Subscriber, with a buffer and OverflowPolicy of its own.
+	 * 
+	 * @param subscriber
+	 *            the Subscriber to deliver events to
+	 * @param bufferSize
+	 *            the number of events buffered for this Subscriber, not
+	 *            counting the snapshot, at least 1
+	 * @param overflowPolicy
+	 *            what to do when this Subscriber's buffer is full
+	 */
+	public synchronized void subscribe(
+			final Subscriber<? super CardAndTerminalEvent> subscriber,
+			final int bufferSize, final OverflowPolicy overflowPolicy) {
+		final List<CardAndTerminalEvent> snapshot = new ArrayList<CardAndTerminalEvent>();
+		for (CardTerminal cardTerminal : this.cards.keySet()) {
+			snapshot.add(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.TERMINAL_ATTACHED, cardTerminal,
+					null, null, true));
+		}
+		for (Map.Entry<CardTerminal, Card> entry : this.cards.entrySet()) {
+			if (entry.getValue() != null) {
+				snapshot.add(new CardAndTerminalEvent(
+						CardAndTerminalEvent.Type.CARD_INSERTED,
+						entry.getKey(), entry.getValue(), null, true));
+			}
+		}
+		if (this.terminalEventsInitialized && this.cardEventsInitialized) {
+			snapshot.add(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.INITIALIZED, null, null, null,
+					true));
+		}
+		this.eventPublisher.subscribe(subscriber, snapshot, bufferSize,
+				overflowPolicy);
+	}
+
+	/**
+	 * Stop publishing, and unregister from the CardAndTerminalManager.
+	 * Subscribers receive onComplete() after the events already buffered for
+	 * them.
+	 */
+	public void close() {
+		this.cardAndTerminalManager
+				.removeCardTerminalListener(this.cardTerminalEventsListener);
+		this.cardAndTerminalManager.removeCardListener(this.cardEventsListener);
+		synchronized (this) {
+			this.eventPublisher.close();
+		}
+	}
+
+	private void publish(final CardAndTerminalEvent.Type type,
+			final CardTerminal cardTerminal, final Card card) {
+		this.eventPublisher.publish(new CardAndTerminalEvent(type,
+				cardTerminal, card, null, false));
+	}
+
+	// the CardAndTerminalManager calls both initialized methods in turn
+	private void publishInitialized() {
+		if (this.terminalEventsInitialized && this.cardEventsInitialized) {
+			this.eventPublisher.publish(new CardAndTerminalEvent(
+					CardAndTerminalEvent.Type.INITIALIZED, null, null, null,
+					false));
+		}
+	}
+}
@@ -27,8 +27,23 @@
  */
 package be.fedict.commons.eid.client;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.management.ObjectName;
 import javax.smartcardio.Card;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
@@ -37,9 +52,16 @@ import javax.smartcardio.CardTerminals.State;
 import javax.smartcardio.TerminalFactory;
 import be.fedict.commons.eid.client.event.CardEventsListener;
 import be.fedict.commons.eid.client.event.CardTerminalEventsListener;
+import be.fedict.commons.eid.client.impl.AdaptivePollingPolicy;
+import be.fedict.commons.eid.client.impl.CardAndTerminalManagerStatistics;
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.client.impl.EventDispatcher;
+import be.fedict.commons.eid.client.impl.FixedPollingPolicy;
 import be.fedict.commons.eid.client.impl.LibJ2PCSCGNULinuxFix;
+import be.fedict.commons.eid.client.impl.MBeans;
 import be.fedict.commons.eid.client.impl.VoidLogger;
 import be.fedict.commons.eid.client.spi.Logger;
+import be.fedict.commons.eid.client.spi.PollingPolicy;
 
 /**
  * A CardAndTerminalManager maintains an active state overview of all
@@ -53,22 +75,39 @@ import be.fedict.commons.eid.client.spi.Logger;
  * Note that at the level of CardAndTerminalManager there is no distinction
  * between types of cards or terminals: They are merely reported using the
  * standard javax.smartcardio classes.
+ * <p>
+ * A CardAndTerminalManager watches the PCSC subsystem from a single thread,
+ * which polls it by default, or reports card events as they happen in
+ * {@link MODE#EVENT_DRIVEN} mode, see {@link #setMode(MODE)}. Listeners are
+ * called on the thread that detected the event, unless an Executor is set,
+ * see {@link #setExecutor(Executor)}.
  * 
  * @author Frank Marien
  * 
  */
 public class CardAndTerminalManager implements Runnable {
-	private static final int DEFAULT_DELAY = 250;
-	private boolean running, subSystemInitialized, autoconnect;
+	private static final String SCARD_E_NO_READERS_AVAILABLE = "SCARD_E_NO_READERS_AVAILABLE";
+	private volatile boolean running;
+	private boolean subSystemInitialized, autoconnect;
 	private Thread worker;
-	private Set<CardTerminal> terminalsPresent, terminalsWithCards;
 	private CardTerminals cardTerminals;
 	private Set<String> terminalsToIgnoreCardEventsFor;
 	private Set<CardTerminalEventsListener> cardTerminalEventsListeners;
 	private Set<CardEventsListener> cardEventsListeners;
-	private int delay;
+	private volatile PollingPolicy pollingPolicy;
 	private Logger logger;
 	private PROTOCOL protocol;
+	private MODE mode;
+	private final EventDispatcher eventDispatcher;
+	private final CardAndTerminalManagerStatistics statistics;
+	private ObjectName objectName;
+	private final Map<CardTerminal, TerminalState> terminalStates;
+	private final List<TerminalState> terminalStateList;
+	private int generation;
+	private volatile int ignoreGeneration;
+	private boolean cardPresenceScanRequired;
+	private final List<CardTerminal> terminalsToConnect;
+	private ExecutorService connectExecutor;
 
 	public enum PROTOCOL {
 		T0("T=0"), T1("T=1"), TCL("T=CL"), ANY("*");
@@ -84,6 +123,25 @@ public class CardAndTerminalManager implements Runnable {
 		}
 	}
 
+	/**
+	 * How a CardAndTerminalManager detects events:
+	 * <ul>
+	 * <li>POLLING: a single thread waits for a PCSC change for at most the
+	 * delay, and then checks all CardTerminals for cards. This is the default.
+	 * <li>EVENT_DRIVEN: a single thread waits for a PCSC change, reports the
+	 * cards inserted and removed as soon as it returns, and keeps waiting for
+	 * the rest of the delay. It only checks the list of CardTerminals once the
+	 * delay has passed. One call waits for all CardTerminals, so this scales
+	 * with the number of CardTerminals, also where the PCSC implementation
+	 * serializes all calls on the (single) PCSC context of the JVM: listing
+	 * the CardTerminals from another thread would wait for waitForChange to
+	 * return anyway.
+	 * </ul>
+	 */
+	public enum MODE {
+		POLLING, EVENT_DRIVEN;
+	}
+
 	// ----- various constructors ------
 
 	/**
@@ -139,15 +197,22 @@ public class CardAndTerminalManager implements Runnable {
 		// libpcsc not to be found.
 		LibJ2PCSCGNULinuxFix.fixNativeLibrary(logger);
 
-		this.cardTerminalEventsListeners = new HashSet<CardTerminalEventsListener>();
-		this.cardEventsListeners = new HashSet<CardEventsListener>();
+		this.cardTerminalEventsListeners = new CopyOnWriteArraySet<CardTerminalEventsListener>();
+		this.cardEventsListeners = new CopyOnWriteArraySet<CardEventsListener>();
 		this.terminalsToIgnoreCardEventsFor = new HashSet<String>();
-		this.delay = DEFAULT_DELAY;
+		this.pollingPolicy = new AdaptivePollingPolicy();
 		this.logger = logger;
 		this.running = false;
 		this.subSystemInitialized = false;
 		this.autoconnect = true;
 		this.protocol = PROTOCOL.ANY;
+		this.mode = MODE.POLLING;
+		this.eventDispatcher = new EventDispatcher(logger);
+		this.statistics = new CardAndTerminalManagerStatistics(
+				this.eventDispatcher);
+		this.terminalStates = new HashMap<CardTerminal, TerminalState>();
+		this.terminalStateList = new ArrayList<TerminalState>();
+		this.terminalsToConnect = new ArrayList<CardTerminal>();
 
 		if (cardTerminals == null) {
 			final TerminalFactory terminalFactory = TerminalFactory
@@ -172,9 +237,7 @@ public class CardAndTerminalManager implements Runnable {
 	 */
 	public CardAndTerminalManager addCardTerminalListener(
 			final CardTerminalEventsListener listener) {
-		synchronized (this.cardTerminalEventsListeners) {
-			this.cardTerminalEventsListeners.add(listener);
-		}
+		this.cardTerminalEventsListeners.add(listener);
 		return this;
 	}
 
@@ -189,9 +252,7 @@ public class CardAndTerminalManager implements Runnable {
 	 */
 	public CardAndTerminalManager addCardListener(
 			final CardEventsListener listener) {
-		synchronized (this.cardEventsListeners) {
-			this.cardEventsListeners.add(listener);
-		}
+		this.cardEventsListeners.add(listener);
 		return this;
 	}
 
@@ -209,6 +270,8 @@ public class CardAndTerminalManager implements Runnable {
 	public CardAndTerminalManager start() {
 		this.logger
 				.debug("CardAndTerminalManager worker thread start requested.");
+		this.objectName = MBeans.register(this.statistics,
+				"CardAndTerminalManager", this.logger);
 		this.worker = new Thread(this, "CardAndTerminalManager");
 		this.worker.setDaemon(true);
 		this.worker.start();
@@ -226,9 +289,7 @@ public class CardAndTerminalManager implements Runnable {
 	 */
 	public CardAndTerminalManager removeCardTerminalListener(
 			final CardTerminalEventsListener listener) {
-		synchronized (this.cardTerminalEventsListeners) {
-			this.cardTerminalEventsListeners.remove(listener);
-		}
+		this.cardTerminalEventsListeners.remove(listener);
 		return this;
 	}
 
@@ -241,9 +302,7 @@ public class CardAndTerminalManager implements Runnable {
 	 */
 	public CardAndTerminalManager removeCardListener(
 			final CardEventsListener listener) {
-		synchronized (this.cardEventsListeners) {
-			this.cardEventsListeners.remove(listener);
-		}
+		this.cardEventsListeners.remove(listener);
 		return this;
 	}
 
@@ -263,6 +322,7 @@ public class CardAndTerminalManager implements Runnable {
 	public CardAndTerminalManager ignoreCardEventsFor(final String terminalName) {
 		synchronized (this.terminalsToIgnoreCardEventsFor) {
 			this.terminalsToIgnoreCardEventsFor.add(terminalName);
+			this.ignoreGeneration++;
 		}
 		return this;
 	}
@@ -278,6 +338,7 @@ public class CardAndTerminalManager implements Runnable {
 	public CardAndTerminalManager acceptCardEventsFor(final String terminalName) {
 		synchronized (this.terminalsToIgnoreCardEventsFor) {
 			this.terminalsToIgnoreCardEventsFor.remove(terminalName);
+			this.ignoreGeneration++;
 		}
 		return this;
 	}
@@ -297,31 +358,67 @@ public class CardAndTerminalManager implements Runnable {
 		this.running = false;
 		this.worker.interrupt();
 		this.worker.join();
+		this.eventDispatcher.awaitDelivery();
+		this.statistics.stopped();
+		MBeans.unregister(this.objectName, this.logger);
+		this.objectName = null;
 		return this;
 	}
 
 	/**
-	 * Returns the PCSC polling delay currently in use
+	 * Returns the PCSC polling delay currently in use, as decided by the
+	 * PollingPolicy
 	 * 
 	 * @return the PCSC polling delay currently in use
 	 */
 	public int getDelay() {
-		return this.delay;
+		return this.pollingPolicy.getWaitMillis();
 	}
 
 	/**
-	 * Set the PCSC polling delay. A CardAndTerminalsManager will wait for a
-	 * maximum of newDelay milliseconds for new events to be received, before
-	 * issuing a new call to the PCSC subsystem. The higher this number, the
-	 * less CPU this CardAndTerminalsManager will take, but the greater the
-	 * chance that terminal attach/detach events will be noticed late.
+	 * Set a fixed PCSC polling delay, replacing the PollingPolicy by a
+	 * FixedPollingPolicy. A CardAndTerminalsManager will wait for a maximum of
+	 * newDelay milliseconds for new events to be received, before issuing a
+	 * new call to the PCSC subsystem. The higher this number, the less CPU
+	 * this CardAndTerminalsManager will take, but the greater the chance that
+	 * terminal attach/detach events will be noticed late.
 	 * 
 	 * @param newDelay
 	 *            the new delay to trust the PCSC subsystem for
 	 * @return this CardAndTerminalManager to allow for method chaining.
 	 */
 	public CardAndTerminalManager setDelay(final int newDelay) {
-		this.delay = newDelay;
+		this.pollingPolicy = new FixedPollingPolicy(newDelay);
+		return this;
+	}
+
+	/**
+	 * @return the PollingPolicy deciding how often to poll, and how long to
+	 *         back off when the PC/SC subsystem fails
+	 */
+	public PollingPolicy getPollingPolicy() {
+		return this.pollingPolicy;
+	}
+
+	/**
+	 * Set the PollingPolicy deciding how often to poll, and how long to back
+	 * off when the PC/SC subsystem fails. The default is an
+	 * AdaptivePollingPolicy, that polls fast after activity, slows down when
+	 * idle, and backs off exponentially while the PC/SC subsystem fails. No
+	 * CardTerminals being attached is not a failure: it is polled for like
+	 * any idle system.
+	 * 
+	 * @param newPollingPolicy
+	 *            the PollingPolicy to use, not shared with any other
+	 *            CardAndTerminalManager
+	 * @return this CardAndTerminalManager to allow for method chaining.
+	 */
+	public CardAndTerminalManager setPollingPolicy(
+			final PollingPolicy newPollingPolicy) {
+		if (newPollingPolicy == null) {
+			throw new IllegalArgumentException("pollingPolicy expected");
+		}
+		this.pollingPolicy = newPollingPolicy;
 		return this;
 	}
 
@@ -337,7 +434,10 @@ public class CardAndTerminalManager implements Runnable {
 
 	/**
 	 * Set whether this CardAndTerminalsManager will automatically connect() to
-	 * any cards inserted.
+	 * any cards inserted. Cards inserted at the same time are connected to in
+	 * parallel, and reported as soon as each connect() completes. The time
+	 * each connect() takes is recorded in the CardTerminal's
+	 * {@link CardTerminalProfile}.
 	 * 
 	 * @return this CardAndTerminalManager to allow for method chaining.
 	 */
@@ -373,6 +473,106 @@ public class CardAndTerminalManager implements Runnable {
 		return this;
 	}
 
+	/**
+	 * Return how this CardAndTerminalManager detects events.
+	 * 
+	 * @return the current MODE
+	 */
+	public MODE getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * Determine how this CardAndTerminalManager detects events, see
+	 * {@link MODE}. The default is MODE.POLLING. Only takes effect when set
+	 * before start().
+	 * 
+	 * @param newMode
+	 *            the MODE to use
+	 * @return this CardAndTerminalManager to allow for method chaining.
+	 */
+	public CardAndTerminalManager setMode(final MODE newMode) {
+		this.mode = newMode;
+		return this;
+	}
+
+	/**
+	 * Return the Executor that listeners are called on, or null if they are
+	 * called on the thread that detected the event.
+	 * 
+	 * @return the current Executor, or null
+	 */
+	public Executor getExecutor() {
+		return this.eventDispatcher.getExecutor();
+	}
+
+	/**
+	 * Call listeners on the given Executor, so that a slow listener does not
+	 * delay the detection of events in other CardTerminals. Cards inserted are
+	 * also connected to on the Executor, when autoconnect is enabled. The
+	 * events for each CardTerminal are still delivered one at a time and in
+	 * order. Events for different CardTerminals may be delivered
+	 * concurrently, so listeners must be thread-safe. The default is null, which calls listeners on the
+	 * thread that detected the event.
+	 * 
+	 * @param newExecutor
+	 *            the Executor to call listeners on, or null
+	 * @return this CardAndTerminalManager to allow for method chaining.
+	 */
+	public CardAndTerminalManager setExecutor(final Executor newExecutor) {
+		this.eventDispatcher.setExecutor(newExecutor);
+		return this;
+	}
+
+	/**
+	 * Set the maximum number of events waiting for an Executor to call the
+	 * listeners. When this many events are waiting, detection of new events
+	 * pauses until the listeners catch up. The default is
+	 * {@link EventDispatcher#DEFAULT_CAPACITY}.
+	 * 
+	 * @param newCapacity
+	 *            the new maximum number of waiting events
+	 * @return this CardAndTerminalManager to allow for method chaining.
+	 */
+	public CardAndTerminalManager setEventQueueCapacity(final int newCapacity) {
+		this.eventDispatcher.setCapacity(newCapacity);
+		return this;
+	}
+
+	/**
+	 * Return the EventDispatcher that calls the listeners, for its queue
+	 * depth and listener timing statistics.
+	 * 
+	 * @return the EventDispatcher
+	 */
+	public EventDispatcher getEventDispatcher() {
+		return this.eventDispatcher;
+	}
+
+	/**
+	 * Return the health and throughput statistics of this
+	 * CardAndTerminalManager. While it runs, these are also registered as an
+	 * MBean named be.fedict.commons.eid.client:type=CardAndTerminalManager.
+	 * 
+	 * @return the statistics
+	 */
+	public CardAndTerminalManagerStatistics getStatistics() {
+		return this.statistics;
+	}
+
+	/**
+	 * Return the name under which the statistics of this
+	 * CardAndTerminalManager are registered as an MBean. Several
+	 * CardAndTerminalManagers may run in the same JVM, each under its own
+	 * name.
+	 * 
+	 * @return the MBean name, or null if this CardAndTerminalManager is not
+	 *         running, or registration failed
+	 */
+	public ObjectName getObjectName() {
+		return this.objectName;
+	}
+
 	// ---------------------------
 	// Private Implementation..
 	// ---------------------------
@@ -390,7 +590,7 @@ public class CardAndTerminalManager implements Runnable {
 
 			// advise listeners that initial state was sent, and that any
 			// further events are relative to this
-			listenersInitialized();
+			dispatchInitialized();
 
 			// keep updating
 			while (this.running) {
@@ -402,33 +602,27 @@ public class CardAndTerminalManager implements Runnable {
 						.error("CardAndTerminalManager worker thread unexpectedly interrupted: "
 								+ iex.getLocalizedMessage());
 			}
+		} finally {
+			if (this.connectExecutor != null) {
+				this.connectExecutor.shutdown();
+				this.connectExecutor = null;
+			}
 		}
 
 		this.logger.debug("CardAndTerminalManager worker thread ended.");
 	}
 
+	/*
+	 * wait for a PCSC change for at most the delay, then update the
+	 * TerminalStates and advise the listeners of any differences. In
+	 * EVENT_DRIVEN mode, card insertions and removals are reported as soon as
+	 * waitForChange returns, and it is called again for the rest of the
+	 * delay: the list of CardTerminals is only polled once the delay has
+	 * passed.
+	 */
 	private void handlePCSCEvents() throws InterruptedException {
-		if (!this.subSystemInitialized) {
-			this.logger.debug("subsystem not initialized");
-			try {
-				if (this.terminalsPresent == null
-						|| this.terminalsWithCards == null) {
-					this.terminalsPresent = new HashSet<CardTerminal>(
-							this.cardTerminals.list(State.ALL));
-					this.terminalsWithCards = terminalsWithCardsIn(this.terminalsPresent);
-				}
-
-				listenersTerminalsAttachedCardsInserted(this.terminalsPresent,
-						this.terminalsWithCards);
-				this.subSystemInitialized = true;
-
-			} catch (final CardException cex) {
-				logCardException(cex,
-						"Cannot enumerate card terminals [1] (No Card Readers Connected?)");
-				clear();
-				sleepForDelay();
-				return;
-			}
+		if (!this.subSystemInitialized && !initializeSubSystem()) {
+			return;
 		}
 
 		try {
@@ -441,63 +635,55 @@ public class CardAndTerminalManager implements Runnable {
 			// gain where waitForChange *does* detect events (because it will
 			// return faster than delay)
 			// for most events this will make reaction instantaneous, and worst
-			// case = delay
-			this.cardTerminals.waitForChange(this.delay);
+			// case = delay, as decided by the PollingPolicy
+			final int waitMillis = this.pollingPolicy.getWaitMillis();
+			this.statistics.waitDecided(waitMillis);
+			final long deadline = System.nanoTime() + waitMillis * 1000000L;
+			long remainingMillis = waitMillis;
+			do {
+				final boolean changed = this.cardTerminals
+						.waitForChange(remainingMillis);
+				this.statistics.waitedForChange(changed);
+				if (!changed || MODE.EVENT_DRIVEN != this.mode) {
+					break;
+				}
+				updateCardStates();
+				// waitForChange(0) would wait forever
+				remainingMillis = (deadline - System.nanoTime()) / 1000000;
+			} while (this.running && remainingMillis > 0);
 		} catch (final CardException cex) {
 			// waitForChange fails (e.g. PCSC is there but no readers)
 			logCardException(cex,
 					"Cannot wait for card terminal events [2] (No Card Readers Connected?)");
+			if (noCardTerminals(cex)) {
+				idleWithoutCardTerminals();
+				return;
+			}
 			clear();
-			sleepForDelay();
+			backOff();
 			return;
 		} catch (final IllegalStateException ise) {
-			// waitForChange fails (e.g. PCSC is not there)
+			// waitForChange fails (e.g. no readers, or PCSC is not there)
 			this.logger
 					.debug("Cannot wait for card terminal changes (no PCSC subsystem?): "
 							+ ise.getLocalizedMessage());
+			if (noCardTerminals(ise)) {
+				idleWithoutCardTerminals();
+				return;
+			}
 			clear();
-			sleepForDelay();
+			backOff();
 			return;
 		}
 
 		// get here when event has occured or delay time has passed
 
+		final long start = System.nanoTime();
+		final long events = this.statistics.getEvents();
 		try {
-			// get fresh state
-			final Set<CardTerminal> currentTerminals = new HashSet<CardTerminal>(
-					this.cardTerminals.list(State.ALL));
-			final Set<CardTerminal> currentTerminalsWithCards = terminalsWithCardsIn(currentTerminals);
-
-			// determine terminals that were attached since previous state
-			final Set<CardTerminal> terminalsAttached = new HashSet<CardTerminal>(
-					currentTerminals);
-			terminalsAttached.removeAll(this.terminalsPresent);
-
-			// determine terminals that had cards inserted since previous state
-			final Set<CardTerminal> terminalsWithCardsInserted = new HashSet<CardTerminal>(
-					currentTerminalsWithCards);
-			terminalsWithCardsInserted.removeAll(this.terminalsWithCards);
-
-			// determine terminals that had cards removed since previous state
-			final Set<CardTerminal> terminalsWithCardsRemoved = new HashSet<CardTerminal>(
-					this.terminalsWithCards);
-			terminalsWithCardsRemoved.removeAll(currentTerminalsWithCards);
-
-			// determine terminals detached since previous state
-			final Set<CardTerminal> terminalsDetached = new HashSet<CardTerminal>(
-					this.terminalsPresent);
-			terminalsDetached.removeAll(currentTerminals);
-
-			// keep fresh state to compare to next time (and to return to
-			// synchronous callers)
-			this.terminalsPresent = currentTerminals;
-			this.terminalsWithCards = currentTerminalsWithCards;
-
-			// advise the listeners where appropriate, always in the order
-			// attach, insert, remove, detach
-			listenersUpdateInSequence(terminalsAttached,
-					terminalsWithCardsInserted, terminalsWithCardsRemoved,
-					terminalsDetached);
+			updateTerminalStates(this.cardTerminals.list(State.ALL));
+			this.statistics.polled(System.nanoTime() - start);
+			this.pollingPolicy.polled(this.statistics.getEvents() != events);
 		} catch (final CardException cex) {
 			// if a CardException occurs, assume we're out of readers (only
 			// CardTerminals.list throws that here)
@@ -505,17 +691,316 @@ public class CardAndTerminalManager implements Runnable {
 			// CardTerminals.
 			logCardException(cex,
 					"Cannot wait for card terminal changes (no PCSC subsystem?)");
+			if (isNoReadersAvailable(cex)) {
+				idleWithoutCardTerminals();
+				return;
+			}
 			clear();
-			sleepForDelay();
+			this.statistics.polled(System.nanoTime() - start);
+			backOff();
+		}
+	}
+
+	/*
+	 * No CardTerminals are attached, so waitForChange refuses to wait. That is
+	 * an idle system, not a PC/SC failure: detach the CardTerminals we knew
+	 * of, and wait no longer than for an idle poll, so that the first
+	 * CardTerminal attached is noticed as quickly as a card inserted.
+	 */
+	private void idleWithoutCardTerminals() throws InterruptedException {
+		final long start = System.nanoTime();
+		final long events = this.statistics.getEvents();
+		updateTerminalStates(Collections.<CardTerminal> emptyList());
+		this.statistics.subSystemAvailable();
+		this.statistics.polled(System.nanoTime() - start);
+		this.pollingPolicy.polled(this.statistics.getEvents() != events);
+		final int waitMillis = this.pollingPolicy.getWaitMillis();
+		this.statistics.waitDecided(waitMillis);
+		Thread.sleep(waitMillis);
+	}
+
+	/*
+	 * Whether PC/SC failed only because no CardTerminals are attached: the
+	 * PC/SC subsystem answers, but lists no CardTerminals, or fails listing
+	 * them with SCARD_E_NO_READERS_AVAILABLE, as it does on some platforms.
+	 * Without a PC/SC implementation at all, the default TerminalFactory lists
+	 * no CardTerminals either, and polling that is as cheap as sleeping.
+	 */
+	private boolean noCardTerminals(final Exception ex) {
+		if (ex instanceof CardException
+				&& isNoReadersAvailable((CardException) ex)) {
+			return true;
+		}
+		try {
+			return this.cardTerminals.list(State.ALL).isEmpty();
+		} catch (final CardException cex) {
+			return isNoReadersAvailable(cex);
+		} catch (final IllegalStateException ise) {
+			return false;
+		}
+	}
+
+	private static boolean isNoReadersAvailable(final CardException cex) {
+		final Throwable cause = cex.getCause();
+		return cause != null && cause.getMessage() != null
+				&& cause.getMessage().contains(SCARD_E_NO_READERS_AVAILABLE);
+	}
+
+	/*
+	 * Detect the CardTerminals and cards present, and advise the listeners.
+	 */
+	private boolean initializeSubSystem() throws InterruptedException {
+		this.logger.debug("subsystem not initialized");
+		try {
+			// scan all CardTerminals for cards now, and again after the
+			// first waitForChange: the PCSC reader states that
+			// CARD_INSERTION and CARD_REMOVAL are relative to may predate
+			// this scan.
+			this.cardPresenceScanRequired = true;
+			updateTerminalStates(this.cardTerminals.list(State.ALL));
+			this.cardPresenceScanRequired = true;
+			this.subSystemInitialized = true;
+			this.statistics.subSystemAvailable();
+			return true;
+		} catch (final CardException cex) {
+			logCardException(cex,
+					"Cannot enumerate card terminals [1] (No Card Readers Connected?)");
+			if (isNoReadersAvailable(cex)) {
+				updateTerminalStates(Collections.<CardTerminal> emptyList());
+				this.subSystemInitialized = true;
+				this.statistics.subSystemAvailable();
+				return true;
+			}
+			clear();
+			backOff();
+			return false;
+		}
+	}
+
+	/*
+	 * Bring the TerminalStates up to date with the CardTerminals given, and
+	 * advise the listeners where appropriate, always in the order attach,
+	 * insert, remove, detach. Card presence is only asked of each
+	 * CardTerminal when it is first seen: after that, it is taken from the
+	 * reader states that the PCSC subsystem returned to waitForChange.
+	 */
+	private void updateTerminalStates(final List<CardTerminal> terminals)
+			throws InterruptedException {
+		final int currentGeneration = markTerminalStates(terminals);
+
+		for (int i = 0; i < terminals.size(); i++) {
+			final CardTerminal terminal = terminals.get(i);
+			if (!this.terminalStates.containsKey(terminal)) {
+				final TerminalState terminalState = addTerminalState(terminal);
+				if (!this.cardPresenceScanRequired) {
+					terminalState.physicallyPresent = isCardPresent(terminal);
+				}
+			}
+		}
+
+		updateCardPresence();
+		insertCards(currentGeneration);
+		removeCards(currentGeneration);
+		detachTerminalStates(currentGeneration);
+	}
+
+	/*
+	 * EVENT_DRIVEN mode: update the TerminalStates with the cards inserted and
+	 * removed since the last waitForChange, and advise the listeners, without
+	 * polling the list of CardTerminals.
+	 */
+	private void updateCardStates() throws InterruptedException {
+		updateCardPresence();
+		insertCards(this.generation);
+		removeCards(this.generation);
+	}
+
+	private void updateCardPresence() {
+		if (this.cardPresenceScanRequired) {
+			scanCardPresence();
+		} else {
+			try {
+				updateCardPresence(
+						this.cardTerminals.list(State.CARD_INSERTION), true);
+				updateCardPresence(this.cardTerminals.list(State.CARD_REMOVAL),
+						false);
+			} catch (final CardException cex) {
+				// not all CardTerminals implementations keep reader states
+				this.logger.debug("Cannot list card insertions and removals: "
+						+ cex.getMessage());
+				scanCardPresence();
+			}
+		}
+	}
+
+	private void updateCardPresence(final List<CardTerminal> terminals,
+			final boolean cardPresent) {
+		for (int i = 0; i < terminals.size(); i++) {
+			final TerminalState terminalState = this.terminalStates
+					.get(terminals.get(i));
+			if (terminalState != null) {
+				terminalState.physicallyPresent = cardPresent;
+			}
+		}
+	}
+
+	private void scanCardPresence() {
+		for (int i = 0; i < this.terminalStateList.size(); i++) {
+			final TerminalState terminalState = this.terminalStateList.get(i);
+			terminalState.physicallyPresent = isCardPresent(terminalState.terminal);
+		}
+		this.cardPresenceScanRequired = false;
+	}
+
+	/*
+	 * mark the TerminalStates for all CardTerminals given as seen in a new
+	 * generation, and return that generation. The TerminalStates not marked
+	 * are those of CardTerminals that were detached.
+	 */
+	private int markTerminalStates(final List<CardTerminal> terminals) {
+		final int currentGeneration = ++this.generation;
+		for (int i = 0; i < terminals.size(); i++) {
+			final TerminalState terminalState = this.terminalStates
+					.get(terminals.get(i));
+			if (terminalState != null) {
+				terminalState.generation = currentGeneration;
+			}
+		}
+		return currentGeneration;
+	}
+
+	private TerminalState addTerminalState(final CardTerminal terminal)
+			throws InterruptedException {
+		final TerminalState terminalState = new TerminalState(terminal);
+		terminalState.generation = this.generation;
+		this.terminalStates.put(terminal, terminalState);
+		this.terminalStateList.add(terminalState);
+		dispatchTerminalAttached(terminal);
+		return terminalState;
+	}
+
+	// Tell listeners about cards inserted into CardTerminals marked in the
+	// current generation
+	private void insertCards(final int currentGeneration)
+			throws InterruptedException {
+		// without an Executor, connect() would run on this thread: collect
+		// the CardTerminals to connect to in parallel instead
+		final boolean connectHere = this.autoconnect
+				&& this.eventDispatcher.getExecutor() == null;
+
+		for (int i = 0; i < this.terminalStateList.size(); i++) {
+			final TerminalState terminalState = this.terminalStateList.get(i);
+			if (!terminalState.cardPresent
+					&& terminalState.generation == currentGeneration
+					&& isCardVisible(terminalState)) {
+				terminalState.cardPresent = true;
+				if (connectHere) {
+					this.terminalsToConnect.add(terminalState.terminal);
+				} else {
+					dispatchCardInserted(terminalState.terminal);
+				}
+			}
+		}
+
+		if (!this.terminalsToConnect.isEmpty()) {
+			try {
+				connectInParallel(this.terminalsToConnect);
+			} finally {
+				this.terminalsToConnect.clear();
+			}
+		}
+	}
+
+	/*
+	 * Connect to the cards in all CardTerminals given, one task per
+	 * CardTerminal, and tell listeners about each card as soon as its
+	 * connect() completes. This takes as long as the slowest connect(),
+	 * instead of as long as all of them together.
+	 */
+	private void connectInParallel(final List<CardTerminal> terminals)
+			throws InterruptedException {
+		if (terminals.size() == 1) {
+			dispatchCardInserted(terminals.get(0));
+			return;
+		}
+
+		final CompletionService<ConnectTask> connectService = new ExecutorCompletionService<ConnectTask>(
+				getConnectExecutor());
+		for (int i = 0; i < terminals.size(); i++) {
+			connectService.submit(new ConnectTask(terminals.get(i)));
+		}
+
+		for (int i = 0; i < terminals.size(); i++) {
+			try {
+				final ConnectTask connectTask = connectService.take().get();
+				dispatchCardInserted(connectTask.terminal, connectTask.card);
+			} catch (final ExecutionException eex) {
+				// ConnectTask doesn't throw
+				this.logger.error("Unexpected exception connecting: "
+						+ eex.getCause());
+			}
+		}
+	}
+
+	private ExecutorService getConnectExecutor() {
+		if (this.connectExecutor == null) {
+			this.connectExecutor = Executors
+					.newCachedThreadPool(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable,
+									"CardAndTerminalManager connect");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return this.connectExecutor;
+	}
+
+	// Tell listeners about cards removed, or in CardTerminals not marked in the
+	// current generation
+	private void removeCards(final int currentGeneration)
+			throws InterruptedException {
+		for (int i = 0; i < this.terminalStateList.size(); i++) {
+			final TerminalState terminalState = this.terminalStateList.get(i);
+			if (terminalState.cardPresent
+					&& (terminalState.generation != currentGeneration || !isCardVisible(terminalState))) {
+				terminalState.cardPresent = false;
+				dispatchCardRemoved(terminalState.terminal);
+			}
+		}
+	}
+
+	// Forget about CardTerminals not marked in the current generation, and
+	// tell listeners they were detached
+	private void detachTerminalStates(final int currentGeneration)
+			throws InterruptedException {
+		int i = 0;
+		while (i < this.terminalStateList.size()) {
+			final TerminalState terminalState = this.terminalStateList.get(i);
+			if (terminalState.generation == currentGeneration) {
+				i++;
+				continue;
+			}
+			this.terminalStateList.remove(i);
+			this.terminalStates.remove(terminalState.terminal);
+			if (terminalState.cardPresent) {
+				terminalState.cardPresent = false;
+				dispatchCardRemoved(terminalState.terminal);
+			}
+			dispatchTerminalDetached(terminalState.terminal);
 		}
 	}
 
 	// ---------------------------------------------------------------------------------------------------
 
 	private boolean areCardEventsIgnoredFor(final CardTerminal cardTerminal) {
+		final String terminalName = cardTerminal.getName();
+
 		synchronized (this.terminalsToIgnoreCardEventsFor) {
 			for (String prefixToMatch : this.terminalsToIgnoreCardEventsFor) {
-				if (cardTerminal.getName().startsWith(prefixToMatch)) {
+				if (terminalName.startsWith(prefixToMatch)) {
 					return true;
 				}
 			}
@@ -524,26 +1009,32 @@ public class CardAndTerminalManager implements Runnable {
 		return false;
 	}
 
-	private Set<CardTerminal> terminalsWithCardsIn(
-			final Set<CardTerminal> terminals) {
-		final Set<CardTerminal> terminalsWithCards = new HashSet<CardTerminal>();
+	/*
+	 * a card is visible if it is present and card events are not ignored for
+	 * its CardTerminal. The ignore decision is only made again after
+	 * ignoreCardEventsFor() or acceptCardEventsFor() was called.
+	 */
+	private boolean isCardVisible(final TerminalState terminalState) {
+		if (!terminalState.physicallyPresent) {
+			return false;
+		}
 
-		synchronized (this.terminalsToIgnoreCardEventsFor) {
-			for (CardTerminal terminal : terminals) {
-				try {
-					if (terminal.isCardPresent()
-							&& !this.areCardEventsIgnoredFor(terminal)) {
-						terminalsWithCards.add(terminal);
-					}
-				} catch (final CardException cex) {
-					this.logger
-							.error("Problem determining card presence in terminal ["
-									+ terminal.getName() + "]");
-				}
-			}
+		final int currentIgnoreGeneration = this.ignoreGeneration;
+		if (terminalState.ignoreGeneration != currentIgnoreGeneration) {
+			terminalState.ignored = areCardEventsIgnoredFor(terminalState.terminal);
+			terminalState.ignoreGeneration = currentIgnoreGeneration;
 		}
+		return !terminalState.ignored;
+	}
 
-		return terminalsWithCards;
+	private boolean isCardPresent(final CardTerminal terminal) {
+		try {
+			return terminal.isCardPresent();
+		} catch (final CardException cex) {
+			this.logger.error("Problem determining card presence in terminal ["
+					+ terminal.getName() + "]");
+			return false;
+		}
 	}
 
 	// -------------------------------------------------
@@ -551,40 +1042,90 @@ public class CardAndTerminalManager implements Runnable {
 	// -------------------------------------------------
 
 	// return to the uninitialized state
-	private void clear() {
+	private void clear()
+			throws InterruptedException {
 		// if we were already initialized, we may have sent attached and insert
 		// events we now pretend to remove and detach all that we know of, for
 		// consistency
 		if (this.subSystemInitialized) {
-			listenersCardsRemovedTerminalsDetached(this.terminalsWithCards,
-					this.terminalsPresent);
+			final int currentGeneration = ++this.generation;
+			removeCards(currentGeneration);
+			detachTerminalStates(currentGeneration);
 		}
-		this.terminalsPresent = null;
-		this.terminalsWithCards = null;
+		this.terminalStates.clear();
+		this.terminalStateList.clear();
 		this.subSystemInitialized = false;
+		this.statistics.subSystemUnavailable();
 		this.logger.debug("cleared");
 	}
 
-	private void listenersTerminalsAttachedCardsInserted(
-			final Set<CardTerminal> attached, final Set<CardTerminal> inserted)
-			throws CardException {
-		listenersTerminalsAttached(attached);
-		listenersTerminalsWithCardsInserted(inserted);
+	// Hand the events to the EventDispatcher. Events for the same CardTerminal
+	// are delivered in the order dispatched.
+	private void dispatchTerminalAttached(final CardTerminal terminal)
+			throws InterruptedException {
+		this.statistics.terminalAttached();
+		this.eventDispatcher.dispatch(terminal, new Runnable() {
+			@Override
+			public void run() {
+				listenersTerminalAttached(terminal);
+			}
+		});
 	}
 
-	private void listenersCardsRemovedTerminalsDetached(
-			final Set<CardTerminal> removed, final Set<CardTerminal> detached) {
-		listenersTerminalsWithCardsRemoved(removed);
-		listenersTerminalsDetached(detached);
+	private void dispatchTerminalDetached(final CardTerminal terminal)
+			throws InterruptedException {
+		this.statistics.terminalDetached();
+		this.eventDispatcher.dispatch(terminal, new Runnable() {
+			@Override
+			public void run() {
+				listenersTerminalDetached(terminal);
+			}
+		});
 	}
 
-	private void listenersUpdateInSequence(final Set<CardTerminal> attached,
-			final Set<CardTerminal> inserted, final Set<CardTerminal> removed,
-			final Set<CardTerminal> detached) throws CardException {
-		listenersTerminalsAttached(attached);
-		listenersTerminalsWithCardsInserted(inserted);
-		listenersTerminalsWithCardsRemoved(removed);
-		listenersTerminalsDetached(detached);
+	private void dispatchCardRemoved(final CardTerminal terminal)
+			throws InterruptedException {
+		this.statistics.cardRemoved();
+		this.eventDispatcher.dispatch(terminal, new Runnable() {
+			@Override
+			public void run() {
+				listenersCardRemoved(terminal);
+			}
+		});
+	}
+
+	// connect() as part of the event, so that this happens on the Executor
+	// too, if one is set
+	private void dispatchCardInserted(final CardTerminal terminal)
+			throws InterruptedException {
+		this.statistics.cardInserted();
+		this.eventDispatcher.dispatch(terminal, new Runnable() {
+			@Override
+			public void run() {
+				listenersCardInserted(terminal, connect(terminal));
+			}
+		});
+	}
+
+	private void dispatchCardInserted(final CardTerminal terminal,
+			final Card card) throws InterruptedException {
+		this.statistics.cardInserted();
+		this.eventDispatcher.dispatch(terminal, new Runnable() {
+			@Override
+			public void run() {
+				listenersCardInserted(terminal, card);
+			}
+		});
+	}
+
+	// once all events dispatched so far have been delivered
+	private void dispatchInitialized() {
+		this.eventDispatcher.dispatchAfterDelivery(new Runnable() {
+			@Override
+			public void run() {
+				listenersInitialized();
+			}
+		});
 	}
 
 	private void listenersInitialized() {
@@ -593,160 +1134,134 @@ public class CardAndTerminalManager implements Runnable {
 	}
 
 	private void listenersCardEventsInitialized() {
-		Set<CardEventsListener> copyOfListeners;
-
-		synchronized (this.cardEventsListeners) {
-			copyOfListeners = new HashSet<CardEventsListener>(
-					this.cardEventsListeners);
-		}
-
-		for (CardEventsListener listener : copyOfListeners) {
+		for (CardEventsListener listener : this.cardEventsListeners) {
+			final long start = System.nanoTime();
 			try {
 				listener.cardEventsInitialized();
 			} catch (final Exception thrownInListener) {
 				this.logger
 						.error("Exception thrown in CardEventsListener.cardRemoved:"
 								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
 		}
 	}
 
 	private void listenersTerminalEventsInitialized() {
-		Set<CardTerminalEventsListener> copyOfListeners;
-
-		synchronized (this.cardTerminalEventsListeners) {
-			copyOfListeners = new HashSet<CardTerminalEventsListener>(
-					this.cardTerminalEventsListeners);
-		}
-
-		for (CardTerminalEventsListener listener : copyOfListeners) {
+		for (CardTerminalEventsListener listener : this.cardTerminalEventsListeners) {
+			final long start = System.nanoTime();
 			try {
 				listener.terminalEventsInitialized();
 			} catch (final Exception thrownInListener) {
 				this.logger
 						.error("Exception thrown in CardTerminalEventsListener.terminalAttached:"
 								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
 		}
 	}
 
 	// Tell listeners about attached readers
-	private void listenersTerminalsAttached(final Set<CardTerminal> attached) {
-		if (!attached.isEmpty()) {
-			Set<CardTerminalEventsListener> copyOfListeners;
-
-			synchronized (this.cardTerminalEventsListeners) {
-				copyOfListeners = new HashSet<CardTerminalEventsListener>(
-						this.cardTerminalEventsListeners);
-			}
-
-			for (CardTerminal terminal : attached) {
-				for (CardTerminalEventsListener listener : copyOfListeners) {
-					try {
-						listener.terminalAttached(terminal);
-					} catch (final Exception thrownInListener) {
-						this.logger
-								.error("Exception thrown in CardTerminalEventsListener.terminalAttached:"
-										+ thrownInListener.getMessage());
-					}
-				}
+	private void listenersTerminalAttached(final CardTerminal terminal) {
+		for (CardTerminalEventsListener listener : this.cardTerminalEventsListeners) {
+			final long start = System.nanoTime();
+			try {
+				listener.terminalAttached(terminal);
+			} catch (final Exception thrownInListener) {
+				this.logger
+						.error("Exception thrown in CardTerminalEventsListener.terminalAttached:"
+								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
 		}
 	}
 
 	// Tell listeners about detached readers
-	private void listenersTerminalsDetached(final Set<CardTerminal> detached) {
-		if (!detached.isEmpty()) {
-			Set<CardTerminalEventsListener> copyOfListeners;
-
-			synchronized (this.cardTerminalEventsListeners) {
-				copyOfListeners = new HashSet<CardTerminalEventsListener>(
-						this.cardTerminalEventsListeners);
-			}
-
-			for (CardTerminal terminal : detached) {
-				for (CardTerminalEventsListener listener : copyOfListeners) {
-					try {
-						listener.terminalDetached(terminal);
-					} catch (final Exception thrownInListener) {
-						this.logger
-								.error("Exception thrown in CardTerminalEventsListener.terminalDetached:"
-										+ thrownInListener.getMessage());
-					}
-				}
+	private void listenersTerminalDetached(final CardTerminal terminal) {
+		for (CardTerminalEventsListener listener : this.cardTerminalEventsListeners) {
+			final long start = System.nanoTime();
+			try {
+				listener.terminalDetached(terminal);
+			} catch (final Exception thrownInListener) {
+				this.logger
+						.error("Exception thrown in CardTerminalEventsListener.terminalDetached:"
+								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
 		}
 	}
 
 	// Tell listeners about removed cards
-	private void listenersTerminalsWithCardsRemoved(
-			final Set<CardTerminal> removed) {
-		if (!removed.isEmpty()) {
-			Set<CardEventsListener> copyOfListeners;
-
-			synchronized (this.cardEventsListeners) {
-				copyOfListeners = new HashSet<CardEventsListener>(
-						this.cardEventsListeners);
-			}
-
-			for (CardTerminal terminal : removed) {
-				for (CardEventsListener listener : copyOfListeners) {
-					try {
-						listener.cardRemoved(terminal);
-					} catch (final Exception thrownInListener) {
-						this.logger
-								.error("Exception thrown in CardEventsListener.cardRemoved:"
-										+ thrownInListener.getMessage());
-					}
-				}
+	private void listenersCardRemoved(final CardTerminal terminal) {
+		for (CardEventsListener listener : this.cardEventsListeners) {
+			final long start = System.nanoTime();
+			try {
+				listener.cardRemoved(terminal);
+			} catch (final Exception thrownInListener) {
+				this.logger
+						.error("Exception thrown in CardEventsListener.cardRemoved:"
+								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
 		}
 	}
 
-	// Tell listeners about inserted cards. giving them the CardTerminal and a
-	// Card object
-	// if this.autoconnect is enabled (the default), the card argument may be
-	// automatically
-	// filled out, but it may still be null, if the connect failed.
-	private void listenersTerminalsWithCardsInserted(
-			final Set<CardTerminal> inserted) {
-		if (!inserted.isEmpty()) {
-			Set<CardEventsListener> copyOfListeners;
-
-			synchronized (this.cardEventsListeners) {
-				copyOfListeners = new HashSet<CardEventsListener>(
-						this.cardEventsListeners);
+	// Tell listeners about inserted cards. giving them the CardTerminal and
+	// the Card object obtained by connect(), which may be null.
+	private void listenersCardInserted(final CardTerminal terminal,
+			final Card card) {
+		for (CardEventsListener listener : this.cardEventsListeners) {
+			final long start = System.nanoTime();
+			try {
+				listener.cardInserted(terminal, card);
+			} catch (final Exception thrownInListener) {
+				this.logger
+						.error("Exception thrown in CardEventsListener.cardInserted:"
+								+ thrownInListener.getMessage());
+			} finally {
+				this.eventDispatcher.listenerCalled(System.nanoTime() - start);
 			}
+		}
+	}
 
-			for (CardTerminal terminal : inserted) {
-				Card card = null;
-
-				if (this.autoconnect) {
-					try {
-						card = terminal.connect(this.protocol.getProtocol());
-					} catch (final CardException cex) {
-						this.logger.debug("terminal.connect("
-								+ this.protocol.getProtocol() + ") failed. "
-								+ cex.getMessage());
-					}
-				}
-
-				for (CardEventsListener listener : copyOfListeners) {
-					try {
-						listener.cardInserted(terminal, card);
-					} catch (final Exception thrownInListener) {
-						this.logger
-								.error("Exception thrown in CardEventsListener.cardInserted:"
-										+ thrownInListener.getMessage());
-					}
+	// connect to the card in the terminal, if this.autoconnect is enabled.
+	// returns null if not, or if the connect failed.
+	// the time connect() takes is recorded in the CardTerminal's
+	// CardTerminalProfile.
+	private Card connect(final CardTerminal terminal) {
+		if (!this.autoconnect) {
+			return null;
+		}
 
-				}
-			}
+		try {
+			final long start = System.nanoTime();
+			final Card card = terminal.connect(this.protocol.getProtocol());
+			CardTerminalProfile.forTerminal(terminal.getName()).cardConnected(
+					System.nanoTime() - start);
+			return card;
+		} catch (final CardException cex) {
+			this.logger.debug("terminal.connect("
+					+ this.protocol.getProtocol() + ") failed. "
+					+ cex.getMessage());
+			this.statistics.connectFailed(terminal.getName());
+			return null;
 		}
 	}
 
-	private void sleepForDelay() throws InterruptedException {
-		Thread.sleep(this.delay);
+	// the PC/SC subsystem is absent or failed, other than for lack of
+	// CardTerminals: wait as long as the PollingPolicy decides before trying
+	// again
+	private void backOff() throws InterruptedException {
+		final PollingPolicy currentPollingPolicy = this.pollingPolicy;
+		currentPollingPolicy.failed();
+		final int backOffMillis = currentPollingPolicy.getBackOffMillis();
+		this.statistics.backedOff(backOffMillis);
+		Thread.sleep(backOffMillis);
 	}
 
 	private void logCardException(final CardException cex, final String where) {
@@ -759,4 +1274,49 @@ public class CardAndTerminalManager implements Runnable {
 		this.logger.debug("cause: " + cause.getMessage());
 		this.logger.debug("cause type: " + cause.getClass().getName());
 	}
+
+	/*
+	 * Connect to the card in one CardTerminal.
+	 */
+	private final class ConnectTask implements Callable<ConnectTask> {
+		private final CardTerminal terminal;
+		private Card card;
+
+		private ConnectTask(final CardTerminal terminal) {
+			this.terminal = terminal;
+		}
+
+		@Override
+		public ConnectTask call() {
+			try {
+				this.card = connect(this.terminal);
+			} catch (final RuntimeException rex) {
+				CardAndTerminalManager.this.logger
+						.error("Exception thrown connecting to card in ["
+								+ this.terminal.getName() + "]: "
+								+ rex.getMessage());
+			}
+			return this;
+		}
+	}
+
+	/*
+	 * The state of one CardTerminal: physicallyPresent is whether a card was
+	 * last seen in it, cardPresent is what was reported to the listeners,
+	 * generation is the last generation the CardTerminal was listed in, and
+	 * ignored caches the ignore decision made in ignoreGeneration.
+	 */
+	private final class TerminalState {
+		private final CardTerminal terminal;
+		private boolean cardPresent;
+		private boolean physicallyPresent;
+		private int generation;
+		private boolean ignored;
+		private int ignoreGeneration;
+
+		private TerminalState(final CardTerminal terminal) {
+			this.terminal = terminal;
+			this.ignoreGeneration = CardAndTerminalManager.this.ignoreGeneration - 1;
+		}
+	}
 }
@@ -0,0 +1,97 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.smartcardio.CardTerminal;
+
+/**
+ * A CardReadResult holds the outcome of reading files from one BeIDCard as
+ * part of {@link BeIDCards#readAll(java.util.EnumSet)}: either the files read,
+ * or the exception that stopped the read, and how long it took.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class CardReadResult {
+	private final CardTerminal cardTerminal;
+	private final BeIDCard card;
+	private final Map<FileType, byte[]> files;
+	private final Exception exception;
+	private final long readNanos;
+
+	CardReadResult(final CardTerminal cardTerminal, final BeIDCard card,
+			final Map<FileType, byte[]> files, final Exception exception,
+			final long readNanos) {
+		this.cardTerminal = cardTerminal;
+		this.card = card;
+		this.files = files;
+		this.exception = exception;
+		this.readNanos = readNanos;
+	}
+
+	/**
+	 * @return the CardTerminal the card was read in
+	 */
+	public CardTerminal getCardTerminal() {
+		return this.cardTerminal;
+	}
+
+	/**
+	 * @return the card that was read
+	 */
+	public BeIDCard getCard() {
+		return this.card;
+	}
+
+	/**
+	 * @return true if all files requested were read
+	 */
+	public boolean isSuccessful() {
+		return this.exception == null;
+	}
+
+	/**
+	 * @return the data from each of the files read, by FileType. Empty if the
+	 *         read failed.
+	 */
+	public Map<FileType, byte[]> getFiles() {
+		if (this.files == null) {
+			return Collections.emptyMap();
+		}
+		return this.files;
+	}
+
+	/**
+	 * @return the exception that stopped the read, or null if it succeeded
+	 */
+	public Exception getException() {
+		return this.exception;
+	}
+
+	/**
+	 * @return the time taken to read this card, in nanoseconds
+	 */
+	public long getReadNanos() {
+		return this.readNanos;
+	}
+}
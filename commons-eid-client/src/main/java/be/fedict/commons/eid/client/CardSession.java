@@ -0,0 +1,86 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.smartcardio.CardException;
+
+/**
+ * A CardSession is an exclusive transaction with a BeIDCard, obtained from
+ * BeIDCard.openSession(). While it is open, all operations on the BeIDCard by
+ * the same thread join it, instead of each starting and ending their own
+ * transaction with the card. Sessions nest: only closing the outermost one
+ * ends the transaction. A CardSession is Closeable, and may be used in a
+ * try-with-resources statement on Java 7 and later.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class CardSession implements Closeable {
+	private final BeIDCard beIDCard;
+	private boolean closed;
+
+	CardSession(final BeIDCard beIDCard) {
+		this.beIDCard = beIDCard;
+	}
+
+	/**
+	 * @return the BeIDCard this session is with
+	 */
+	public BeIDCard getBeIDCard() {
+		return this.beIDCard;
+	}
+
+	/**
+	 * @return true if this session was closed
+	 */
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * Close this session, ending the transaction with the card if this was the
+	 * outermost one. Closing a session more than once has no effect. Must be
+	 * called on the thread that opened the session.
+	 * 
+	 * @throws IOException
+	 *             when ending the transaction failed, with the CardException
+	 *             as cause
+	 * @throws IllegalMonitorStateException
+	 *             when called on another thread, leaving the session open
+	 */
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		try {
+			this.beIDCard.endExclusive();
+		} catch (final CardException cex) {
+			this.closed = true;
+			final IOException ioex = new IOException(
+					"could not end exclusive transaction: " + cex.getMessage());
+			ioex.initCause(cex);
+			throw ioex;
+		}
+		this.closed = true;
+	}
+}
@@ -73,7 +73,23 @@ public enum FileType {
 		return this.isCertificateUserCanSignWith();
 	}
 
+	/**
+	 * @return true for the certificates that are the same on many cards: the
+	 *         Citizen CA and Root certificates.
+	 */
+	public boolean isSharedCertificate() {
+		return this == CACertificate || this == RootCertificate;
+	}
+
 	public int getEstimatedMaxSize() {
 		return this.estimatedMaxSize;
 	}
+
+	/**
+	 * @return true for files that may change during the life of a card: the
+	 *         address (and its signature) are rewritten when the citizen moves.
+	 */
+	public boolean isMutable() {
+		return this == Address || this == AddressSignature;
+	}
 }
@@ -0,0 +1,38 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client;
+
+/**
+ * a ReadBinaryMode determines how many bytes a BeIDCard asks for in each READ
+ * BINARY command while reading a file.
+ * <ul>
+ * <li>FIXED always requests 0xff bytes, which works on all cards and readers
+ * <li>NEGOTIATED first attempts an extended-length READ BINARY, then a short
+ * one requesting 256 bytes (Le=0x00), and finally falls back to 0xff bytes. The
+ * largest length that works is remembered per CardTerminal, so that only the
+ * first card read in a given reader pays for the negotiation. Cards whose
+ * CardProfile is known are never asked for more than their generation
+ * answers.
+ * </ul>
+ *
+ * @author Frank Marien
+ */
+public enum ReadBinaryMode {
+	FIXED, NEGOTIATED;
+}
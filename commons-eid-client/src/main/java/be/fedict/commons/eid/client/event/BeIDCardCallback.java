@@ -0,0 +1,37 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.event;
+
+/**
+ * Callback interface for operations submitted to an AsyncBeIDCard. Exactly one
+ * of the methods is called once the operation completes, on the AsyncBeIDCard's
+ * executor thread: don't block in there, or all later operations on the same
+ * card will wait. An operation cancelled before it started fails with a
+ * CancellationException, on the thread that cancelled it.
+ * 
+ * @author Frank Marien
+ * 
+ * @param <T>
+ *            the type of the operation's result
+ */
+public interface BeIDCardCallback<T> {
+
+	void operationSucceeded(T result);
+	void operationFailed(Throwable cause);
+}
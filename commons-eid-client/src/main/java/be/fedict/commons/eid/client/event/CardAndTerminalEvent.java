@@ -0,0 +1,101 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardTerminal;
+
+import be.fedict.commons.eid.client.BeIDCard;
+
+/**
+ * An event published by a
+ * {@link be.fedict.commons.eid.client.CardAndTerminalEventPublisher} or a
+ * {@link be.fedict.commons.eid.client.BeIDCardEventPublisher}: the same
+ * events as those delivered to the corresponding listeners, as one type.
+ * Events that were part of the snapshot a new Subscriber receives first are
+ * marked as such.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class CardAndTerminalEvent {
+	public enum Type {
+		TERMINAL_ATTACHED, TERMINAL_DETACHED, CARD_INSERTED, CARD_REMOVED, EID_CARD_INSERTED, EID_CARD_REMOVED, INITIALIZED;
+	}
+
+	private final Type type;
+	private final CardTerminal cardTerminal;
+	private final Card card;
+	private final BeIDCard beIDCard;
+	private final boolean snapshot;
+
+	public CardAndTerminalEvent(final Type type,
+			final CardTerminal cardTerminal, final Card card,
+			final BeIDCard beIDCard, final boolean snapshot) {
+		this.type = type;
+		this.cardTerminal = cardTerminal;
+		this.card = card;
+		this.beIDCard = beIDCard;
+		this.snapshot = snapshot;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the CardTerminal concerned, or null for INITIALIZED
+	 */
+	public CardTerminal getCardTerminal() {
+		return this.cardTerminal;
+	}
+
+	/**
+	 * @return the Card inserted, for CARD_INSERTED, or null. May be null for
+	 *         CARD_INSERTED too, if the card could not be connected to.
+	 */
+	public Card getCard() {
+		return this.card;
+	}
+
+	/**
+	 * @return the BeIDCard inserted or removed, for EID_CARD_INSERTED and
+	 *         EID_CARD_REMOVED, or null
+	 */
+	public BeIDCard getBeIDCard() {
+		return this.beIDCard;
+	}
+
+	/**
+	 * @return true if this event was part of the snapshot of the situation
+	 *         at the time of subscribing, false if it happened since.
+	 */
+	public boolean isSnapshot() {
+		return this.snapshot;
+	}
+
+	@Override
+	public String toString() {
+		return this.type
+				+ (this.cardTerminal != null ? " ["
+						+ this.cardTerminal.getName() + "]" : "")
+				+ (this.snapshot ? " (snapshot)" : "");
+	}
+}
@@ -0,0 +1,34 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+import be.fedict.commons.eid.client.BeIDCards;
+import be.fedict.commons.eid.client.CardReadResult;
+
+/**
+ * A CardReadListener receives the result of reading each card, as soon as that
+ * card is read, from
+ * {@link BeIDCards#readAll(java.util.EnumSet, CardReadListener)}.
+ * 
+ * @author Frank Marien
+ */
+public interface CardReadListener {
+	void cardRead(CardReadResult result);
+}
@@ -0,0 +1,52 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+/**
+ * What a {@link Publisher} does with a new event for a Subscriber whose
+ * buffer is full, because it requested fewer events than were published. The
+ * Publisher never waits for a Subscriber, so that a slow Subscriber cannot
+ * slow down the detection of cards and CardTerminals.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public enum OverflowPolicy {
+	/**
+	 * Drop the oldest event buffered, to make room for the new one. The
+	 * events that remain no longer add up to the current state: only for
+	 * Subscribers that take events as hints to look for themselves.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Drop the new event. As with DROP_OLDEST, the events that remain no
+	 * longer add up to the current state.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Drop all events buffered, cancel the Subscription and call the
+	 * Subscriber's onError(). A Subscriber that must see every event should
+	 * use this, and subscribe again to receive a fresh snapshot. This is the
+	 * default.
+	 */
+	FAIL;
+}
@@ -0,0 +1,41 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+/**
+ * A Publisher of events to any number of Subscribers, each with its own
+ * demand, in the manner of java.util.concurrent.Flow.Publisher (which needs
+ * Java 9), so that an adapter to Flow or Reactive Streams is a few lines.
+ * 
+ * @author Frank Marien
+ * 
+ * @param <T>
+ *            the type of events published
+ */
+public interface Publisher<T> {
+	/**
+	 * Add a Subscriber. Its onSubscribe() is called first, and no events are
+	 * delivered until it requests them from the Subscription it receives.
+	 * 
+	 * @param subscriber
+	 *            the Subscriber to deliver events to
+	 */
+	void subscribe(Subscriber<? super T> subscriber);
+}
@@ -0,0 +1,64 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+/**
+ * A Subscriber to the events of a {@link Publisher}, in the manner of
+ * java.util.concurrent.Flow.Subscriber. The methods of one Subscriber are
+ * never called concurrently, but not necessarily always on the same thread.
+ * 
+ * @author Frank Marien
+ * 
+ * @param <T>
+ *            the type of events received
+ */
+public interface Subscriber<T> {
+	/**
+	 * Called before any other method, with the Subscription to request events
+	 * from, or to cancel.
+	 * 
+	 * @param subscription
+	 *            this Subscriber's Subscription
+	 */
+	void onSubscribe(Subscription subscription);
+
+	/**
+	 * Called for each event, never more often than requested.
+	 * 
+	 * @param event
+	 *            the next event
+	 */
+	void onNext(T event);
+
+	/**
+	 * Called when the Subscription failed, e.g. because this Subscriber fell
+	 * too far behind. No more methods are called after this.
+	 * 
+	 * @param throwable
+	 *            the reason
+	 */
+	void onError(Throwable throwable);
+
+	/**
+	 * Called when the Publisher was closed, after the events buffered before
+	 * that were delivered. No more methods are called after this.
+	 */
+	void onComplete();
+}
@@ -0,0 +1,44 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.event;
+
+/**
+ * The link between a {@link Publisher} and one {@link Subscriber}, in the
+ * manner of java.util.concurrent.Flow.Subscription.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface Subscription {
+	/**
+	 * Allow n more events to be delivered to the Subscriber. A demand of
+	 * Long.MAX_VALUE or more is unbounded.
+	 * 
+	 * @param n
+	 *            the number of events, at least 1
+	 */
+	void request(long n);
+
+	/**
+	 * Stop delivering events to the Subscriber, and drop any events buffered
+	 * for it.
+	 */
+	void cancel();
+}
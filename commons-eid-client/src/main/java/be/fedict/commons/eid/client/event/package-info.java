@@ -17,6 +17,6 @@
  */
 
 /**
- * Client listener interfaces.
+ * Client listener interfaces, and the Publisher interfaces for event streams.
  */
 package be.fedict.commons.eid.client.event;
@@ -0,0 +1,371 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
+
+/**
+ * An APDUInterceptor that collects metrics per CardTerminal: a latency
+ * histogram per instruction (INS byte, or control code for control commands),
+ * a count per status word, and the number of bytes sent and received. One
+ * collector may be shared between any number of BeIDCards; getTerminalMetrics()
+ * returns a consistent snapshot.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class APDUMetricsCollector implements APDUInterceptor {
+	/**
+	 * The name metrics are kept under when the CardTerminal is unknown.
+	 */
+	public static final String UNKNOWN_TERMINAL = "(unknown)";
+
+	private final Map<String, TerminalMetrics> terminals;
+
+	public APDUMetricsCollector() {
+		this.terminals = new TreeMap<String, TerminalMetrics>();
+	}
+
+	@Override
+	public void apduTransmitted(final String terminalName,
+			final CommandAPDU command, final ResponseAPDU response,
+			final long durationNanos) {
+		synchronized (this.terminals) {
+			final TerminalMetrics metrics = getOrCreate(terminalName);
+			metrics.getOrCreateInstruction(command.getINS()).add(
+					durationNanos, false);
+			final Integer sw = response.getSW();
+			final Long count = metrics.statusWords.get(sw);
+			metrics.statusWords.put(sw, count == null ? 1 : count + 1);
+			metrics.bytesSent += command.getBytes().length;
+			metrics.bytesReceived += response.getBytes().length;
+		}
+	}
+
+	@Override
+	public void apduFailed(final String terminalName,
+			final CommandAPDU command, final CardException cause,
+			final long durationNanos) {
+		synchronized (this.terminals) {
+			final TerminalMetrics metrics = getOrCreate(terminalName);
+			metrics.getOrCreateInstruction(command.getINS()).add(
+					durationNanos, true);
+			metrics.bytesSent += command.getBytes().length;
+		}
+	}
+
+	@Override
+	public void controlCommandTransmitted(final String terminalName,
+			final int controlCode, final byte[] command, final byte[] response,
+			final long durationNanos) {
+		synchronized (this.terminals) {
+			final TerminalMetrics metrics = getOrCreate(terminalName);
+			metrics.getOrCreateControlCode(controlCode).add(durationNanos,
+					response == null);
+			metrics.bytesSent += command.length;
+			if (response != null) {
+				metrics.bytesReceived += response.length;
+			}
+		}
+	}
+
+	/**
+	 * @return the names of the CardTerminals metrics were collected for
+	 */
+	public Set<String> getTerminalNames() {
+		synchronized (this.terminals) {
+			return new TreeSet<String>(this.terminals.keySet());
+		}
+	}
+
+	/**
+	 * @param terminalName
+	 *            the name of a CardTerminal, or null for unknown
+	 * @return a snapshot of the metrics for that CardTerminal, or null if none
+	 *         were collected
+	 */
+	public TerminalMetrics getTerminalMetrics(final String terminalName) {
+		synchronized (this.terminals) {
+			final TerminalMetrics metrics = this.terminals
+					.get(terminalName == null ? UNKNOWN_TERMINAL : terminalName);
+			return metrics == null ? null : new TerminalMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Discard all metrics collected so far.
+	 * 
+	 * @return this APDUMetricsCollector, to allow method chaining
+	 */
+	public APDUMetricsCollector reset() {
+		synchronized (this.terminals) {
+			this.terminals.clear();
+		}
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder report = new StringBuilder();
+		synchronized (this.terminals) {
+			for (TerminalMetrics metrics : this.terminals.values()) {
+				report.append(metrics);
+			}
+		}
+		return report.toString();
+	}
+
+	private TerminalMetrics getOrCreate(final String terminalName) {
+		final String name = terminalName == null
+				? UNKNOWN_TERMINAL
+				: terminalName;
+		TerminalMetrics metrics = this.terminals.get(name);
+		if (metrics == null) {
+			metrics = new TerminalMetrics(name);
+			this.terminals.put(name, metrics);
+		}
+		return metrics;
+	}
+
+	/**
+	 * The metrics collected for one CardTerminal.
+	 */
+	public static final class TerminalMetrics {
+		private final String terminalName;
+		private final Map<Integer, LatencyHistogram> instructions;
+		private final Map<Integer, LatencyHistogram> controlCodes;
+		private final Map<Integer, Long> statusWords;
+		private long bytesSent;
+		private long bytesReceived;
+
+		private TerminalMetrics(final String terminalName) {
+			this.terminalName = terminalName;
+			this.instructions = new TreeMap<Integer, LatencyHistogram>();
+			this.controlCodes = new TreeMap<Integer, LatencyHistogram>();
+			this.statusWords = new TreeMap<Integer, Long>();
+		}
+
+		private TerminalMetrics(final TerminalMetrics other) {
+			this(other.terminalName);
+			for (Map.Entry<Integer, LatencyHistogram> entry : other.instructions
+					.entrySet()) {
+				this.instructions.put(entry.getKey(), new LatencyHistogram(
+						entry.getValue()));
+			}
+			for (Map.Entry<Integer, LatencyHistogram> entry : other.controlCodes
+					.entrySet()) {
+				this.controlCodes.put(entry.getKey(), new LatencyHistogram(
+						entry.getValue()));
+			}
+			this.statusWords.putAll(other.statusWords);
+			this.bytesSent = other.bytesSent;
+			this.bytesReceived = other.bytesReceived;
+		}
+
+		public String getTerminalName() {
+			return this.terminalName;
+		}
+
+		/**
+		 * @return the latency histograms of the command APDUs sent, by INS
+		 */
+		public Map<Integer, LatencyHistogram> getInstructions() {
+			return this.instructions;
+		}
+
+		/**
+		 * @return the latency histograms of the control commands sent, by
+		 *         control code
+		 */
+		public Map<Integer, LatencyHistogram> getControlCodes() {
+			return this.controlCodes;
+		}
+
+		/**
+		 * @return the number of responses received, by status word
+		 */
+		public Map<Integer, Long> getStatusWords() {
+			return this.statusWords;
+		}
+
+		public long getBytesSent() {
+			return this.bytesSent;
+		}
+
+		public long getBytesReceived() {
+			return this.bytesReceived;
+		}
+
+		private LatencyHistogram getOrCreateInstruction(final int ins) {
+			return getOrCreate(this.instructions, ins);
+		}
+
+		private LatencyHistogram getOrCreateControlCode(final int controlCode) {
+			return getOrCreate(this.controlCodes, controlCode);
+		}
+
+		private static LatencyHistogram getOrCreate(
+				final Map<Integer, LatencyHistogram> histograms, final int key) {
+			LatencyHistogram histogram = histograms.get(key);
+			if (histogram == null) {
+				histogram = new LatencyHistogram();
+				histograms.put(key, histogram);
+			}
+			return histogram;
+		}
+
+		@Override
+		public String toString() {
+			final StringBuilder report = new StringBuilder();
+			report.append(this.terminalName).append(": sent ")
+					.append(this.bytesSent).append(" bytes, received ")
+					.append(this.bytesReceived).append(" bytes\n");
+			for (Map.Entry<Integer, LatencyHistogram> entry : this.instructions
+					.entrySet()) {
+				report.append("  INS ")
+						.append(Integer.toHexString(entry.getKey()))
+						.append(": ").append(entry.getValue()).append('\n');
+			}
+			for (Map.Entry<Integer, LatencyHistogram> entry : this.controlCodes
+					.entrySet()) {
+				report.append("  control ")
+						.append(Integer.toHexString(entry.getKey()))
+						.append(": ").append(entry.getValue()).append('\n');
+			}
+			for (Map.Entry<Integer, Long> entry : this.statusWords.entrySet()) {
+				report.append("  SW ")
+						.append(Integer.toHexString(entry.getKey()))
+						.append(": ").append(entry.getValue()).append('\n');
+			}
+			return report.toString();
+		}
+	}
+
+	/**
+	 * A latency histogram with power-of-two buckets: bucket 0 counts durations
+	 * below 1 microsecond, bucket n counts durations from 2^(n-1) up to 2^n
+	 * microseconds, and the last bucket counts everything longer.
+	 */
+	public static final class LatencyHistogram {
+		/**
+		 * The number of buckets. The last one starts at 2^30 microseconds,
+		 * some 18 minutes.
+		 */
+		public static final int BUCKETS = 32;
+
+		private final long[] buckets;
+		private long count;
+		private long failures;
+		private long totalNanos;
+		private long maxNanos;
+
+		private LatencyHistogram() {
+			this.buckets = new long[BUCKETS];
+		}
+
+		private LatencyHistogram(final LatencyHistogram other) {
+			this.buckets = other.buckets.clone();
+			this.count = other.count;
+			this.failures = other.failures;
+			this.totalNanos = other.totalNanos;
+			this.maxNanos = other.maxNanos;
+		}
+
+		private void add(final long durationNanos, final boolean failed) {
+			final long micros = durationNanos / 1000;
+			final int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros),
+					BUCKETS - 1);
+			this.buckets[bucket]++;
+			this.count++;
+			if (failed) {
+				this.failures++;
+			}
+			this.totalNanos += durationNanos;
+			if (durationNanos > this.maxNanos) {
+				this.maxNanos = durationNanos;
+			}
+		}
+
+		/**
+		 * @return the number of commands in each bucket
+		 */
+		public long[] getBuckets() {
+			return this.buckets.clone();
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public long getFailures() {
+			return this.failures;
+		}
+
+		public long getTotalNanos() {
+			return this.totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return this.maxNanos;
+		}
+
+		public long getMeanNanos() {
+			return this.count == 0 ? 0 : this.totalNanos / this.count;
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return the upper bound of the bucket holding the given percentile,
+		 *         in microseconds, or -1 if there are no commands
+		 */
+		public long getPercentileMicros(final double percentile) {
+			if (this.count == 0) {
+				return -1;
+			}
+			final long rank = (long) Math.ceil(this.count * percentile / 100);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += this.buckets[bucket];
+				if (seen >= rank && seen > 0) {
+					return 1L << bucket;
+				}
+			}
+			return 1L << (BUCKETS - 1);
+		}
+
+		@Override
+		public String toString() {
+			return this.count + " commands, " + this.failures + " failed, mean "
+					+ getMeanNanos() / 1000 + " us, p50 <"
+					+ getPercentileMicros(50) + " us, p99 <"
+					+ getPercentileMicros(99) + " us, max "
+					+ this.maxNanos / 1000 + " us";
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import be.fedict.commons.eid.client.spi.PollingPolicy;
+
+/**
+ * The default PollingPolicy. It polls fast for a while after any activity, so
+ * that the next insertion or attach is noticed quickly. After that, it doubles
+ * the wait with every poll without activity, up to a long idle interval, so
+ * that an idle system doesn't burn CPU. While the PC/SC subsystem is absent or
+ * failing, it backs off exponentially, up to a maximum, and polls fast again
+ * once it recovers. No CardTerminals being attached is not a failure, so the
+ * first one attached is noticed within the idle interval.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class AdaptivePollingPolicy implements PollingPolicy {
+	/**
+	 * The default wait after activity, in milliseconds.
+	 */
+	public static final int DEFAULT_ACTIVE_MILLIS = 250;
+
+	/**
+	 * The default longest wait when idle, in milliseconds.
+	 */
+	public static final int DEFAULT_IDLE_MILLIS = 2000;
+
+	/**
+	 * The default time to keep polling fast after activity, in milliseconds.
+	 */
+	public static final int DEFAULT_ACTIVE_PERIOD_MILLIS = 10000;
+
+	/**
+	 * The default longest back-off while the PC/SC subsystem fails, in
+	 * milliseconds.
+	 */
+	public static final int DEFAULT_MAX_BACK_OFF_MILLIS = 30000;
+
+	private int activeMillis;
+	private int idleMillis;
+	private int activePeriodMillis;
+	private int maxBackOffMillis;
+	private int waitMillis;
+	private int backOffMillis;
+	private long lastActivity;
+
+	public AdaptivePollingPolicy() {
+		this.activeMillis = DEFAULT_ACTIVE_MILLIS;
+		this.idleMillis = DEFAULT_IDLE_MILLIS;
+		this.activePeriodMillis = DEFAULT_ACTIVE_PERIOD_MILLIS;
+		this.maxBackOffMillis = DEFAULT_MAX_BACK_OFF_MILLIS;
+		this.waitMillis = this.activeMillis;
+		this.lastActivity = System.nanoTime();
+	}
+
+	/**
+	 * @param newActiveMillis
+	 *            the wait after activity, in milliseconds
+	 * @return this AdaptivePollingPolicy to allow for method chaining.
+	 */
+	public synchronized AdaptivePollingPolicy setActiveMillis(
+			final int newActiveMillis) {
+		this.activeMillis = newActiveMillis;
+		this.waitMillis = newActiveMillis;
+		return this;
+	}
+
+	/**
+	 * @param newIdleMillis
+	 *            the longest wait when idle, in milliseconds
+	 * @return this AdaptivePollingPolicy to allow for method chaining.
+	 */
+	public synchronized AdaptivePollingPolicy setIdleMillis(
+			final int newIdleMillis) {
+		this.idleMillis = newIdleMillis;
+		return this;
+	}
+
+	/**
+	 * @param newActivePeriodMillis
+	 *            how long to keep polling fast after activity, in milliseconds
+	 * @return this AdaptivePollingPolicy to allow for method chaining.
+	 */
+	public synchronized AdaptivePollingPolicy setActivePeriodMillis(
+			final int newActivePeriodMillis) {
+		this.activePeriodMillis = newActivePeriodMillis;
+		return this;
+	}
+
+	/**
+	 * @param newMaxBackOffMillis
+	 *            the longest back-off while the PC/SC subsystem fails, in
+	 *            milliseconds
+	 * @return this AdaptivePollingPolicy to allow for method chaining.
+	 */
+	public synchronized AdaptivePollingPolicy setMaxBackOffMillis(
+			final int newMaxBackOffMillis) {
+		this.maxBackOffMillis = newMaxBackOffMillis;
+		return this;
+	}
+
+	@Override
+	public synchronized int getWaitMillis() {
+		return this.waitMillis;
+	}
+
+	@Override
+	public synchronized int getBackOffMillis() {
+		return this.backOffMillis > 0 ? this.backOffMillis : this.activeMillis;
+	}
+
+	@Override
+	public synchronized void polled(final boolean activity) {
+		final long now = System.nanoTime();
+		this.backOffMillis = 0;
+		if (activity) {
+			this.lastActivity = now;
+			this.waitMillis = this.activeMillis;
+		} else if ((now - this.lastActivity) / 1000000 >= this.activePeriodMillis) {
+			this.waitMillis = Math.min(this.idleMillis, this.waitMillis * 2);
+		}
+	}
+
+	@Override
+	public synchronized void failed() {
+		this.backOffMillis = this.backOffMillis > 0 ? Math.min(
+				this.maxBackOffMillis, this.backOffMillis * 2)
+				: this.activeMillis;
+		// poll fast once the PC/SC subsystem comes back
+		this.lastActivity = System.nanoTime();
+		this.waitMillis = this.activeMillis;
+	}
+}
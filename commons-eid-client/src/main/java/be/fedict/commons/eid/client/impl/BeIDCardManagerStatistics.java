@@ -0,0 +1,121 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the statistics of one BeIDCardManager: the eID cards inserted and
+ * removed, by CardProfile, the other cards inserted and removed, and the
+ * current number of eID cards. A BeIDCardManager registers its statistics as
+ * an MBean while it runs.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class BeIDCardManagerStatistics
+		implements
+			BeIDCardManagerStatisticsMXBean {
+	private final EventRate beIDCardsInserted;
+	private final EventRate beIDCardsRemoved;
+	private final Map<String, Long> beIDCardsInsertedByProfile;
+	private long otherCardsInserted;
+	private long otherCardsRemoved;
+	private int beIDCardCount;
+
+	public BeIDCardManagerStatistics() {
+		this.beIDCardsInserted = new EventRate();
+		this.beIDCardsRemoved = new EventRate();
+		this.beIDCardsInsertedByProfile = new HashMap<String, Long>();
+	}
+
+	/**
+	 * Account for an eID card inserted.
+	 * 
+	 * @param cardProfile
+	 *            the CardProfile of the card
+	 */
+	public void beIDCardInserted(final CardProfile cardProfile) {
+		this.beIDCardsInserted.record();
+		synchronized (this) {
+			final Long inserted = this.beIDCardsInsertedByProfile
+					.get(cardProfile.name());
+			this.beIDCardsInsertedByProfile.put(cardProfile.name(),
+					inserted == null ? 1L : inserted + 1);
+			this.beIDCardCount++;
+		}
+	}
+
+	public void beIDCardRemoved() {
+		this.beIDCardsRemoved.record();
+		synchronized (this) {
+			this.beIDCardCount--;
+		}
+	}
+
+	public synchronized void otherCardInserted() {
+		this.otherCardsInserted++;
+	}
+
+	public synchronized void otherCardRemoved() {
+		this.otherCardsRemoved++;
+	}
+
+	@Override
+	public long getBeIDCardsInserted() {
+		return this.beIDCardsInserted.getTotal();
+	}
+
+	@Override
+	public long getBeIDCardsRemoved() {
+		return this.beIDCardsRemoved.getTotal();
+	}
+
+	@Override
+	public double getBeIDCardsInsertedPerSecond() {
+		return this.beIDCardsInserted.getPerSecond();
+	}
+
+	@Override
+	public double getBeIDCardsRemovedPerSecond() {
+		return this.beIDCardsRemoved.getPerSecond();
+	}
+
+	@Override
+	public synchronized Map<String, Long> getBeIDCardsInsertedByProfile() {
+		return new HashMap<String, Long>(this.beIDCardsInsertedByProfile);
+	}
+
+	@Override
+	public synchronized long getOtherCardsInserted() {
+		return this.otherCardsInserted;
+	}
+
+	@Override
+	public synchronized long getOtherCardsRemoved() {
+		return this.otherCardsRemoved;
+	}
+
+	@Override
+	public synchronized int getBeIDCardCount() {
+		return this.beIDCardCount;
+	}
+}
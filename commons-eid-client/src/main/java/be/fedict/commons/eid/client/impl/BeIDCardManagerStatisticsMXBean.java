@@ -0,0 +1,47 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.Map;
+
+/**
+ * The throughput of a BeIDCardManager, as exposed through JMX. Counters only
+ * ever increase; rates are averaged over the last minute.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface BeIDCardManagerStatisticsMXBean {
+	long getBeIDCardsInserted();
+
+	long getBeIDCardsRemoved();
+
+	double getBeIDCardsInsertedPerSecond();
+
+	double getBeIDCardsRemovedPerSecond();
+
+	Map<String, Long> getBeIDCardsInsertedByProfile();
+
+	long getOtherCardsInserted();
+
+	long getOtherCardsRemoved();
+
+	int getBeIDCardCount();
+}
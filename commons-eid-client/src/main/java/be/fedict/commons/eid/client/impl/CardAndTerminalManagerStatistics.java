@@ -0,0 +1,371 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the statistics of one CardAndTerminalManager: how long each poll
+ * iteration takes, how often waitForChange() woke up for a change rather than
+ * timing out, the events detected, connect() failures per CardTerminal, the
+ * periods the PC/SC subsystem was unavailable, the current number of
+ * CardTerminals and cards, and the decisions of its PollingPolicy. Listener
+ * timing comes from its EventDispatcher.
+ * <p>
+ * A CardAndTerminalManager registers its statistics as an MBean while it runs,
+ * so that monitoring can alarm on a stuck poll loop or readers.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class CardAndTerminalManagerStatistics
+		implements
+			CardAndTerminalManagerStatisticsMXBean {
+	private final EventDispatcher eventDispatcher;
+	private final EventRate terminalsAttached;
+	private final EventRate terminalsDetached;
+	private final EventRate cardsInserted;
+	private final EventRate cardsRemoved;
+	private final Map<String, Long> connectFailures;
+	private long pollIterations;
+	private long pollNanos;
+	private long lastPollNanos;
+	private long maxPollNanos;
+	private long lastPollMillis;
+	private long waitForChangeWakeups;
+	private long waitForChangeTimeouts;
+	private long totalConnectFailures;
+	private long unavailablePeriods;
+	private long unavailableMillis;
+	private long unavailableSince;
+	private int cardTerminalCount;
+	private int cardCount;
+	private int waitMillis;
+	private long backOffs;
+	private long backOffMillis;
+	private int lastBackOffMillis;
+
+	public CardAndTerminalManagerStatistics(
+			final EventDispatcher eventDispatcher) {
+		this.eventDispatcher = eventDispatcher;
+		this.terminalsAttached = new EventRate();
+		this.terminalsDetached = new EventRate();
+		this.cardsInserted = new EventRate();
+		this.cardsRemoved = new EventRate();
+		this.connectFailures = new HashMap<String, Long>();
+		this.lastPollMillis = System.currentTimeMillis();
+		this.unavailableSince = -1;
+	}
+
+	/**
+	 * Account for one iteration of the poll loop.
+	 * 
+	 * @param nanos
+	 *            the time the iteration took, not counting the time waiting
+	 *            for changes
+	 */
+	public synchronized void polled(final long nanos) {
+		this.pollIterations++;
+		this.pollNanos += nanos;
+		this.lastPollNanos = nanos;
+		if (nanos > this.maxPollNanos) {
+			this.maxPollNanos = nanos;
+		}
+		this.lastPollMillis = System.currentTimeMillis();
+	}
+
+	/**
+	 * Account for the outcome of one waitForChange() call.
+	 * 
+	 * @param changed
+	 *            what waitForChange() returned: true if it woke up for a
+	 *            change, false if it timed out
+	 */
+	public synchronized void waitedForChange(final boolean changed) {
+		if (changed) {
+			this.waitForChangeWakeups++;
+		} else {
+			this.waitForChangeTimeouts++;
+		}
+	}
+
+	public void terminalAttached() {
+		this.terminalsAttached.record();
+		synchronized (this) {
+			this.cardTerminalCount++;
+		}
+	}
+
+	public void terminalDetached() {
+		this.terminalsDetached.record();
+		synchronized (this) {
+			this.cardTerminalCount--;
+		}
+	}
+
+	public void cardInserted() {
+		this.cardsInserted.record();
+		synchronized (this) {
+			this.cardCount++;
+		}
+	}
+
+	public void cardRemoved() {
+		this.cardsRemoved.record();
+		synchronized (this) {
+			this.cardCount--;
+		}
+	}
+
+	/**
+	 * Account for the PollingPolicy deciding how long to wait for changes.
+	 * 
+	 * @param decidedWaitMillis
+	 *            the wait decided, in milliseconds
+	 */
+	public synchronized void waitDecided(final int decidedWaitMillis) {
+		this.waitMillis = decidedWaitMillis;
+	}
+
+	/**
+	 * Account for backing off after the PC/SC subsystem failed.
+	 * 
+	 * @param decidedBackOffMillis
+	 *            the back-off decided by the PollingPolicy, in milliseconds
+	 */
+	public synchronized void backedOff(final int decidedBackOffMillis) {
+		this.backOffs++;
+		this.backOffMillis += decidedBackOffMillis;
+		this.lastBackOffMillis = decidedBackOffMillis;
+	}
+
+	/**
+	 * @return the total number of events detected, of any type
+	 */
+	public long getEvents() {
+		return this.terminalsAttached.getTotal()
+				+ this.terminalsDetached.getTotal()
+				+ this.cardsInserted.getTotal() + this.cardsRemoved.getTotal();
+	}
+
+	/**
+	 * Account for a failed connect() to a card.
+	 * 
+	 * @param terminalName
+	 *            the name of the CardTerminal the card is in
+	 */
+	public synchronized void connectFailed(final String terminalName) {
+		final Long failures = this.connectFailures.get(terminalName);
+		this.connectFailures.put(terminalName, failures == null ? 1L
+				: failures + 1);
+		this.totalConnectFailures++;
+	}
+
+	/**
+	 * Record that the PC/SC subsystem became unavailable, if it wasn't already.
+	 */
+	public synchronized void subSystemUnavailable() {
+		if (this.unavailableSince < 0) {
+			this.unavailableSince = System.currentTimeMillis();
+			this.unavailablePeriods++;
+		}
+	}
+
+	/**
+	 * Record that the PC/SC subsystem is available, if it wasn't.
+	 */
+	public synchronized void subSystemAvailable() {
+		if (this.unavailableSince >= 0) {
+			this.unavailableMillis += System.currentTimeMillis()
+					- this.unavailableSince;
+			this.unavailableSince = -1;
+		}
+	}
+
+	/**
+	 * Forget the current CardTerminals and cards, once the
+	 * CardAndTerminalManager stopped.
+	 */
+	public synchronized void stopped() {
+		this.cardTerminalCount = 0;
+		this.cardCount = 0;
+		subSystemAvailable();
+	}
+
+	@Override
+	public synchronized long getPollIterations() {
+		return this.pollIterations;
+	}
+
+	@Override
+	public synchronized long getPollNanos() {
+		return this.pollNanos;
+	}
+
+	@Override
+	public synchronized long getLastPollNanos() {
+		return this.lastPollNanos;
+	}
+
+	@Override
+	public synchronized long getMaxPollNanos() {
+		return this.maxPollNanos;
+	}
+
+	@Override
+	public synchronized long getMillisSinceLastPoll() {
+		return System.currentTimeMillis() - this.lastPollMillis;
+	}
+
+	@Override
+	public synchronized long getWaitForChangeWakeups() {
+		return this.waitForChangeWakeups;
+	}
+
+	@Override
+	public synchronized long getWaitForChangeTimeouts() {
+		return this.waitForChangeTimeouts;
+	}
+
+	@Override
+	public long getTerminalsAttached() {
+		return this.terminalsAttached.getTotal();
+	}
+
+	@Override
+	public long getTerminalsDetached() {
+		return this.terminalsDetached.getTotal();
+	}
+
+	@Override
+	public long getCardsInserted() {
+		return this.cardsInserted.getTotal();
+	}
+
+	@Override
+	public long getCardsRemoved() {
+		return this.cardsRemoved.getTotal();
+	}
+
+	@Override
+	public double getTerminalsAttachedPerSecond() {
+		return this.terminalsAttached.getPerSecond();
+	}
+
+	@Override
+	public double getTerminalsDetachedPerSecond() {
+		return this.terminalsDetached.getPerSecond();
+	}
+
+	@Override
+	public double getCardsInsertedPerSecond() {
+		return this.cardsInserted.getPerSecond();
+	}
+
+	@Override
+	public double getCardsRemovedPerSecond() {
+		return this.cardsRemoved.getPerSecond();
+	}
+
+	@Override
+	public long getListenerCalls() {
+		return this.eventDispatcher.getListenerCalls();
+	}
+
+	@Override
+	public long getListenerNanos() {
+		return this.eventDispatcher.getListenerNanos();
+	}
+
+	@Override
+	public long getMaxListenerNanos() {
+		return this.eventDispatcher.getMaxListenerNanos();
+	}
+
+	@Override
+	public int getEventQueueDepth() {
+		return this.eventDispatcher.getQueueDepth();
+	}
+
+	@Override
+	public int getPeakEventQueueDepth() {
+		return this.eventDispatcher.getPeakQueueDepth();
+	}
+
+	@Override
+	public synchronized long getConnectFailures() {
+		return this.totalConnectFailures;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getConnectFailuresByTerminal() {
+		return new HashMap<String, Long>(this.connectFailures);
+	}
+
+	@Override
+	public synchronized boolean isSubSystemAvailable() {
+		return this.unavailableSince < 0;
+	}
+
+	@Override
+	public synchronized long getSubSystemUnavailablePeriods() {
+		return this.unavailablePeriods;
+	}
+
+	@Override
+	public synchronized long getSubSystemUnavailableMillis() {
+		if (this.unavailableSince >= 0) {
+			return this.unavailableMillis + System.currentTimeMillis()
+					- this.unavailableSince;
+		}
+		return this.unavailableMillis;
+	}
+
+	@Override
+	public synchronized int getCardTerminalCount() {
+		return this.cardTerminalCount;
+	}
+
+	@Override
+	public synchronized int getCardCount() {
+		return this.cardCount;
+	}
+
+	@Override
+	public synchronized int getWaitMillis() {
+		return this.waitMillis;
+	}
+
+	@Override
+	public synchronized long getBackOffs() {
+		return this.backOffs;
+	}
+
+	@Override
+	public synchronized long getBackOffMillis() {
+		return this.backOffMillis;
+	}
+
+	@Override
+	public synchronized int getLastBackOffMillis() {
+		return this.lastBackOffMillis;
+	}
+}
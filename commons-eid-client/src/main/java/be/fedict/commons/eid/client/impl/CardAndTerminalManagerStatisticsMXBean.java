@@ -0,0 +1,93 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.Map;
+
+/**
+ * The health and throughput of a CardAndTerminalManager, as exposed through
+ * JMX. Counters only ever increase; rates are averaged over the last minute.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface CardAndTerminalManagerStatisticsMXBean {
+	long getPollIterations();
+
+	long getPollNanos();
+
+	long getLastPollNanos();
+
+	long getMaxPollNanos();
+
+	long getMillisSinceLastPoll();
+
+	long getWaitForChangeWakeups();
+
+	long getWaitForChangeTimeouts();
+
+	long getTerminalsAttached();
+
+	long getTerminalsDetached();
+
+	long getCardsInserted();
+
+	long getCardsRemoved();
+
+	double getTerminalsAttachedPerSecond();
+
+	double getTerminalsDetachedPerSecond();
+
+	double getCardsInsertedPerSecond();
+
+	double getCardsRemovedPerSecond();
+
+	long getListenerCalls();
+
+	long getListenerNanos();
+
+	long getMaxListenerNanos();
+
+	int getEventQueueDepth();
+
+	int getPeakEventQueueDepth();
+
+	long getConnectFailures();
+
+	Map<String, Long> getConnectFailuresByTerminal();
+
+	boolean isSubSystemAvailable();
+
+	long getSubSystemUnavailablePeriods();
+
+	long getSubSystemUnavailableMillis();
+
+	int getCardTerminalCount();
+
+	int getWaitMillis();
+
+	long getBackOffs();
+
+	long getBackOffMillis();
+
+	int getLastBackOffMillis();
+
+	int getCardCount();
+}
@@ -0,0 +1,196 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import javax.smartcardio.ATR;
+
+/**
+ * A CardProfile describes what one generation of Belgian eID cards is capable
+ * of, so that a BeIDCard can use the fastest way to read from and sign with
+ * it, instead of finding out by trial and error. The generation is recognized
+ * from the card's ATR, see recognize().
+ * <p>
+ * Foreigner cards and test cards carry the same applets, and the same ATRs,
+ * as the citizens' cards of their generation, and share their CardProfile.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public enum CardProfile {
+	/**
+	 * eID v1.0 and v1.1 cards, with the applet 1.1. These require a delay after
+	 * a 6Cxx response, and only sign using PKCS#1 v1.5 padding.
+	 */
+	APPLET_1_1("applet 1.1", new int[]{0x3b, 0x98, 0x00, 0x40, 0x00, 0x00,
+			0x00, 0x00, 0x01, 0x01, 0xad, 0x13, 0x10}, new int[]{0xff, 0xff,
+			0x00, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0xff, 0xff, 0xff, 0xf0},
+			CardTerminalProfile.DEFAULT_BLOCK_SIZE, true, EnumSet.of(
+					BeIDDigest.PLAIN_TEXT, BeIDDigest.SHA_1,
+					BeIDDigest.SHA_224, BeIDDigest.SHA_256,
+					BeIDDigest.SHA_384, BeIDDigest.SHA_512,
+					BeIDDigest.RIPEMD_128, BeIDDigest.RIPEMD_160,
+					BeIDDigest.RIPEMD_256, BeIDDigest.NONE)),
+
+	/**
+	 * eID cards with the applet 1.7, which also sign using PSS padding, and
+	 * answer a short READ BINARY of 256 bytes.
+	 */
+	APPLET_1_7("applet 1.7", new int[]{0x3b, 0x98, 0x00, 0x40, 0x00, 0x00,
+			0x00, 0x00, 0x01, 0x01, 0xad, 0x13, 0x20}, new int[]{0xff, 0xff,
+			0x00, 0xff, 0x00, 0x00, 0x00, 0x00, 0xff, 0xff, 0xff, 0xff, 0xf0},
+			CardTerminalProfile.SHORT_BLOCK_SIZE, false, EnumSet.of(
+					BeIDDigest.PLAIN_TEXT, BeIDDigest.SHA_1,
+					BeIDDigest.SHA_224, BeIDDigest.SHA_256,
+					BeIDDigest.SHA_384, BeIDDigest.SHA_512,
+					BeIDDigest.RIPEMD_128, BeIDDigest.RIPEMD_160,
+					BeIDDigest.RIPEMD_256, BeIDDigest.NONE,
+					BeIDDigest.SHA_1_PSS, BeIDDigest.SHA_256_PSS)),
+
+	/**
+	 * eID cards with the applet 1.8, on a JavaCard chip that answers
+	 * extended-length READ BINARY commands. Only the historical bytes of the
+	 * Belgian card are matched, not those of other cards on the same chip.
+	 * Their keys are Elliptic Curve keys, and which BeIDDigests those sign with
+	 * is not known here, so the card itself decides.
+	 */
+	APPLET_1_8("applet 1.8", new int[]{0x3b, 0x7f, 0x00, 0x00, 0x00, 0x80,
+			0x31, 0x80, 0x65, 0xb0, 0x85, 0x04, 0x01, 0x20, 0x12, 0x0f, 0xff,
+			0x82, 0x90, 0x00}, new int[]{0xff, 0xff, 0x00, 0xff, 0xff, 0xff,
+			0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff,
+			0xff, 0xff, 0xff}, CardTerminalProfile.EXTENDED_BLOCK_SIZE, false,
+			null);
+
+	private final String description;
+	private final byte[] atrPattern;
+	private final byte[] atrMask;
+	private final int maxReadBinaryLength;
+	private final boolean wrongLengthDelayRequired;
+	private final Set<BeIDDigest> signatureAlgorithms;
+
+	private CardProfile(final String description, final int[] atrPattern,
+			final int[] atrMask, final int maxReadBinaryLength,
+			final boolean wrongLengthDelayRequired,
+			final EnumSet<BeIDDigest> signatureAlgorithms) {
+		this.description = description;
+		this.atrPattern = toBytes(atrPattern);
+		this.atrMask = toBytes(atrMask);
+		this.maxReadBinaryLength = maxReadBinaryLength;
+		this.wrongLengthDelayRequired = wrongLengthDelayRequired;
+		this.signatureAlgorithms = (signatureAlgorithms != null)
+				? Collections.unmodifiableSet(signatureAlgorithms)
+				: null;
+	}
+
+	/**
+	 * Recognize the generation of a Belgian eID card from its ATR.
+	 * 
+	 * @param atr
+	 *            the ATR of the card
+	 * @return the CardProfile of the card, or null if it is not a Belgian eID
+	 *         card, or one of a generation not known here.
+	 */
+	public static CardProfile recognize(final ATR atr) {
+		return recognize(atr.getBytes());
+	}
+
+	/**
+	 * Recognize the generation of a Belgian eID card from its ATR. The ATR
+	 * bytes are left untouched.
+	 * 
+	 * @param atrBytes
+	 *            the bytes of the ATR of the card
+	 * @return the CardProfile of the card, or null if it is not a Belgian eID
+	 *         card, or one of a generation not known here.
+	 */
+	public static CardProfile recognize(final byte[] atrBytes) {
+		for (CardProfile cardProfile : values()) {
+			if (cardProfile.matches(atrBytes)) {
+				return cardProfile;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a human-readable description of the generation
+	 */
+	public String getDescription() {
+		return this.description;
+	}
+
+	/**
+	 * @return the largest response length that this generation answers in a
+	 *         single READ BINARY
+	 */
+	public int getMaxReadBinaryLength() {
+		return this.maxReadBinaryLength;
+	}
+
+	/**
+	 * @return true if this generation requires a delay between a 6Cxx response
+	 *         and the next command
+	 */
+	public boolean isWrongLengthDelayRequired() {
+		return this.wrongLengthDelayRequired;
+	}
+
+	/**
+	 * @return the digest algorithms (and paddings) this generation can sign
+	 *         with, or null if they are not known
+	 */
+	public Set<BeIDDigest> getSignatureAlgorithms() {
+		return this.signatureAlgorithms;
+	}
+
+	/**
+	 * @param digestAlgo
+	 *            the digest algorithm to sign with
+	 * @return true if this generation can sign with digestAlgo, or if that is
+	 *         not known
+	 */
+	public boolean isSignatureAlgorithmSupported(final BeIDDigest digestAlgo) {
+		return this.signatureAlgorithms == null
+				|| this.signatureAlgorithms.contains(digestAlgo);
+	}
+
+	private boolean matches(final byte[] atrBytes) {
+		if (atrBytes.length != this.atrPattern.length) {
+			return false;
+		}
+		for (int idx = 0; idx < atrBytes.length; idx++) {
+			if ((byte) (atrBytes[idx] & this.atrMask[idx]) != this.atrPattern[idx]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] toBytes(final int[] values) {
+		final byte[] bytes = new byte[values.length];
+		for (int idx = 0; idx < values.length; idx++) {
+			bytes[idx] = (byte) values[idx];
+		}
+		return bytes;
+	}
+}
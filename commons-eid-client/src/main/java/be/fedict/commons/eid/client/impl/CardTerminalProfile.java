@@ -0,0 +1,354 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.smartcardio.ATR;
+
+/**
+ * A CardTerminalProfile remembers what was learned about the behaviour of one
+ * particular CardTerminal (and the cards inserted into it), so that subsequent
+ * BeIDCard instances in the same CardTerminal don't have to find out again.
+ * Profiles are kept for the lifetime of the JVM, keyed by CardTerminal name.
+ * What depends on the card rather than the CardTerminal is also keyed by ATR,
+ * so that it doesn't carry over to a different card.
+ *
+ * @author Frank Marien
+ *
+ */
+public final class CardTerminalProfile {
+	/**
+	 * Largest response length that can be requested in an extended-length
+	 * READ BINARY.
+	 */
+	public static final int EXTENDED_BLOCK_SIZE = 0x10000;
+
+	/**
+	 * Largest response length that can be requested in a short READ BINARY
+	 * (Le=0x00)
+	 */
+	public static final int SHORT_BLOCK_SIZE = 0x100;
+
+	/**
+	 * The block size that has always worked, on all cards and readers.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 0xff;
+
+	/**
+	 * The delay after SELECT FILE that used to be applied unconditionally, as
+	 * a SCARD_E_SHARING_VIOLATION workaround. This is also the first delay
+	 * tried once a sharing violation has been seen.
+	 */
+	public static final int LEGACY_SELECT_FILE_DELAY = 20;
+
+	/**
+	 * The delay between a 6Cxx response and the next command, mandatory for eID
+	 * v1.0 and v1.1 cards.
+	 */
+	public static final int LEGACY_WRONG_LENGTH_DELAY = 10;
+
+	private static final int MAX_SELECT_FILE_DELAY = 320;
+	private static final int MIN_SELECT_FILE_DELAY = 5;
+	private static final int CLEAN_SELECTS_BEFORE_DECAY = 64;
+
+	private static final Map<String, CardTerminalProfile> PROFILES = new HashMap<String, CardTerminalProfile>();
+
+	private final String name;
+	private int blockSize;
+	private boolean blockSizeConfirmed;
+	private int selectFileDelay;
+	private int cleanSelects;
+	private int sharingViolations;
+	private final Set<ATR> wrongLengthDelayATRs;
+	private int wrongLengthRetries;
+	private int getResponses;
+	private long sleptMillis;
+	private long savedSleepMillis;
+	private int cardConnects;
+	private long cardConnectNanos;
+	private long maxCardConnectNanos;
+
+	/**
+	 * Instantiate an anonymous profile, that is not shared with any other
+	 * BeIDCard instances. Used when the CardTerminal is unknown.
+	 */
+	public CardTerminalProfile() {
+		this(null);
+	}
+
+	private CardTerminalProfile(final String name) {
+		this.name = name;
+		this.blockSize = EXTENDED_BLOCK_SIZE;
+		this.blockSizeConfirmed = false;
+		this.selectFileDelay = 0;
+		this.wrongLengthDelayATRs = new HashSet<ATR>();
+	}
+
+	/**
+	 * Return the shared profile for the CardTerminal with the given name,
+	 * creating it on first use.
+	 *
+	 * @param terminalName
+	 *            the name of the CardTerminal, as returned by
+	 *            CardTerminal.getName()
+	 * @return the profile for that CardTerminal
+	 */
+	public static CardTerminalProfile forTerminal(final String terminalName) {
+		synchronized (PROFILES) {
+			CardTerminalProfile profile = PROFILES.get(terminalName);
+			if (profile == null) {
+				profile = new CardTerminalProfile(terminalName);
+				PROFILES.put(terminalName, profile);
+			}
+			return profile;
+		}
+	}
+
+	/**
+	 * @return the CardTerminal name, or null for an anonymous profile
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the largest READ BINARY response length to attempt. This is
+	 *         either confirmed to work, or the next candidate to try.
+	 */
+	public synchronized int getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * @return true if a READ BINARY using getBlockSize() was seen to succeed.
+	 */
+	public synchronized boolean isBlockSizeConfirmed() {
+		return this.blockSizeConfirmed;
+	}
+
+	/**
+	 * Record that a READ BINARY requesting blockSize bytes succeeded.
+	 *
+	 * @param succeededBlockSize
+	 *            the response length that was requested
+	 */
+	public synchronized void confirmBlockSize(final int succeededBlockSize) {
+		if (succeededBlockSize == this.blockSize) {
+			this.blockSizeConfirmed = true;
+		}
+	}
+
+	/**
+	 * Record that a READ BINARY requesting failedBlockSize bytes was refused,
+	 * and fall back to the next smaller candidate.
+	 *
+	 * @param failedBlockSize
+	 *            the response length that was refused
+	 * @return the block size to use from now on
+	 */
+	public synchronized int rejectBlockSize(final int failedBlockSize) {
+		if (failedBlockSize <= this.blockSize) {
+			if (failedBlockSize > SHORT_BLOCK_SIZE) {
+				this.blockSize = SHORT_BLOCK_SIZE;
+			} else {
+				this.blockSize = DEFAULT_BLOCK_SIZE;
+			}
+			this.blockSizeConfirmed = this.blockSize == DEFAULT_BLOCK_SIZE;
+		}
+		return this.blockSize;
+	}
+
+	/**
+	 * Return the delay to apply after a SELECT FILE command. This is zero until
+	 * a SCARD_E_SHARING_VIOLATION was seen on this CardTerminal. After a run of
+	 * SELECT FILE commands without sharing violations the delay is halved
+	 * again, until it drops to zero. Calling this accounts for the time slept
+	 * and saved compared to the legacy fixed delay.
+	 * 
+	 * @return the delay to apply, in milliseconds
+	 */
+	public synchronized int selectFileDelay() {
+		final int delay = this.selectFileDelay;
+		if (delay > 0 && ++this.cleanSelects >= CLEAN_SELECTS_BEFORE_DECAY) {
+			this.selectFileDelay /= 2;
+			if (this.selectFileDelay < MIN_SELECT_FILE_DELAY) {
+				this.selectFileDelay = 0;
+			}
+			this.cleanSelects = 0;
+		}
+		this.sleptMillis += delay;
+		this.savedSleepMillis += LEGACY_SELECT_FILE_DELAY - delay;
+		return delay;
+	}
+
+	/**
+	 * Record that a SCARD_E_SHARING_VIOLATION was seen on this CardTerminal.
+	 * The delay after SELECT FILE is set to the legacy value on the first
+	 * occurrence, and doubled (up to a limit) on each later one.
+	 * 
+	 * @return the delay to apply before retrying the failed command, in
+	 *         milliseconds
+	 */
+	public synchronized int sharingViolationSeen() {
+		this.sharingViolations++;
+		this.cleanSelects = 0;
+		if (this.selectFileDelay == 0) {
+			this.selectFileDelay = LEGACY_SELECT_FILE_DELAY;
+		} else if (this.selectFileDelay < MAX_SELECT_FILE_DELAY) {
+			this.selectFileDelay = Math.min(this.selectFileDelay * 2,
+					MAX_SELECT_FILE_DELAY);
+		}
+		this.sleptMillis += this.selectFileDelay;
+		return this.selectFileDelay;
+	}
+
+	/**
+	 * @return the number of SCARD_E_SHARING_VIOLATIONs seen on this
+	 *         CardTerminal
+	 */
+	public synchronized int getSharingViolations() {
+		return this.sharingViolations;
+	}
+
+	/**
+	 * @param atr
+	 *            the ATR of the card in this CardTerminal
+	 * @return true if a card with that ATR was seen, in this CardTerminal, to
+	 *         answer 6Cxx again when a command was resent immediately after a
+	 *         6Cxx response.
+	 */
+	public synchronized boolean isWrongLengthDelayRequired(final ATR atr) {
+		return this.wrongLengthDelayATRs.contains(atr);
+	}
+
+	/**
+	 * Record that an immediate resend after a 6Cxx response failed, and that
+	 * from now on the legacy delay should be applied for cards with the same
+	 * ATR. Other cards inserted later into this CardTerminal are not affected.
+	 * 
+	 * @param atr
+	 *            the ATR of the card that required the delay
+	 */
+	public synchronized void wrongLengthDelayRequired(final ATR atr) {
+		this.wrongLengthDelayATRs.add(atr);
+	}
+
+	/**
+	 * Record that a command was resent with a corrected length, after a 6Cxx
+	 * response.
+	 */
+	public synchronized void wrongLengthRetried() {
+		this.wrongLengthRetries++;
+	}
+
+	/**
+	 * @return the number of commands resent with a corrected length, after a
+	 *         6Cxx response, on this CardTerminal
+	 */
+	public synchronized int getWrongLengthRetries() {
+		return this.wrongLengthRetries;
+	}
+
+	/**
+	 * Record that a GET RESPONSE was sent, after a 61xx response.
+	 */
+	public synchronized void getResponseSent() {
+		this.getResponses++;
+	}
+
+	/**
+	 * @return the number of GET RESPONSE commands sent after a 61xx response,
+	 *         on this CardTerminal
+	 */
+	public synchronized int getGetResponses() {
+		return this.getResponses;
+	}
+
+	/**
+	 * Record that a card in this CardTerminal was connected to.
+	 * 
+	 * @param nanos
+	 *            the time CardTerminal.connect() took, in nanoseconds
+	 */
+	public synchronized void cardConnected(final long nanos) {
+		this.cardConnects++;
+		this.cardConnectNanos += nanos;
+		if (nanos > this.maxCardConnectNanos) {
+			this.maxCardConnectNanos = nanos;
+		}
+	}
+
+	/**
+	 * @return the number of times a card in this CardTerminal was connected to
+	 */
+	public synchronized int getCardConnects() {
+		return this.cardConnects;
+	}
+
+	/**
+	 * @return the total time taken connecting to cards in this CardTerminal,
+	 *         in nanoseconds
+	 */
+	public synchronized long getCardConnectNanos() {
+		return this.cardConnectNanos;
+	}
+
+	/**
+	 * @return the time taken by the slowest connect to a card in this
+	 *         CardTerminal, in nanoseconds
+	 */
+	public synchronized long getMaxCardConnectNanos() {
+		return this.maxCardConnectNanos;
+	}
+
+	/**
+	 * Account for a delay that was applied after a 6Cxx response.
+	 */
+	public synchronized void wrongLengthDelayApplied() {
+		this.sleptMillis += LEGACY_WRONG_LENGTH_DELAY;
+	}
+
+	/**
+	 * Account for a delay that could be skipped after a 6Cxx response.
+	 */
+	public synchronized void wrongLengthDelaySkipped() {
+		this.savedSleepMillis += LEGACY_WRONG_LENGTH_DELAY;
+	}
+
+	/**
+	 * @return the total time slept as a workaround for this CardTerminal, in
+	 *         milliseconds
+	 */
+	public synchronized long getSleptMillis() {
+		return this.sleptMillis;
+	}
+
+	/**
+	 * @return the total time that would have been slept using the legacy fixed
+	 *         delays, but wasn't, in milliseconds. May be negative when this
+	 *         CardTerminal needs more than the legacy delays.
+	 */
+	public synchronized long getSavedSleepMillis() {
+		return this.savedSleepMillis;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The CertificateCache holds the parsed Citizen CA and Root certificates for
+ * the lifetime of the JVM, shared by all BeIDCard instances: the same few CA
+ * certificates are on every card issued in the same period. Certificates are
+ * keyed by the head of their file, the first HEAD_SIZE bytes. This holds the
+ * DER length of the certificate, its serial number and the start of its
+ * issuer, so that a BeIDCard only needs to read the head of the file to
+ * recognize a certificate it has seen before, on any card.
+ * <p>
+ * Because the head does not cover the rest of the file, nothing in the cache
+ * is trusted on the strength of its head alone:
+ * <ul>
+ * <li>a certificate is only admitted after it verifies: a Root certificate
+ * must be self-signed, a Citizen CA certificate must be signed by a Root
+ * certificate already in the cache;</li>
+ * <li>a certificate found by its head is only a candidate: a BeIDCard only
+ * uses it once a certificate from that same card, its own leaf certificate
+ * for a Citizen CA or its own Citizen CA for a Root, verifies against it, or
+ * else once the last HEAD_SIZE bytes of the file on that card, the end of its
+ * signature, match. Otherwise, the BeIDCard reads the entire file;</li>
+ * <li>a certificate in the cache is never replaced: a file that shares its
+ * head but not its contents cannot push it out.</li>
+ * </ul>
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class CertificateCache {
+	/**
+	 * The number of bytes at the start of a certificate file that identify it.
+	 */
+	public static final int HEAD_SIZE = 0x80;
+
+	private static final int MAX_ENTRIES = 64;
+
+	private static final Map<Head, X509Certificate> CERTIFICATES = new LinkedHashMap<Head, X509Certificate>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				final Map.Entry<Head, X509Certificate> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static long hits;
+	private static long misses;
+
+	private CertificateCache() {
+		super();
+	}
+
+	/**
+	 * Return the certificate whose file starts with the given head, if it was
+	 * seen before. The caller must confirm it against a certificate from its
+	 * own card before using it, see isIssuedBy.
+	 * 
+	 * @param head
+	 *            the first HEAD_SIZE bytes of the certificate file, or the
+	 *            entire file if it is shorter
+	 * @return the certificate, or null if it is not in the cache
+	 */
+	public static X509Certificate get(final byte[] head) {
+		synchronized (CERTIFICATES) {
+			final X509Certificate certificate = CERTIFICATES.get(new Head(
+					head));
+			if (certificate != null) {
+				hits++;
+			} else {
+				misses++;
+			}
+			return certificate;
+		}
+	}
+
+	/**
+	 * Add a certificate to the cache, if it verifies: it must either be
+	 * self-signed, or be signed by a self-signed certificate already in the
+	 * cache. A certificate already cached under the same head is kept.
+	 * 
+	 * @param head
+	 *            the first HEAD_SIZE bytes of the certificate file, or the
+	 *            entire file if it is shorter
+	 * @param certificate
+	 *            the certificate parsed from the entire file
+	 * @return true if the certificate was added or was already cached under
+	 *         this head, false if it was refused
+	 */
+	public static boolean put(final byte[] head,
+			final X509Certificate certificate) {
+		final Head key = new Head(head.clone());
+		synchronized (CERTIFICATES) {
+			final X509Certificate cachedCertificate = CERTIFICATES.get(key);
+			if (cachedCertificate != null) {
+				return cachedCertificate.equals(certificate);
+			}
+			if (!isIssuedBy(certificate, certificate)
+					&& !isIssuedByCachedRoot(certificate)) {
+				return false;
+			}
+			CERTIFICATES.put(key, certificate);
+			return true;
+		}
+	}
+
+	/**
+	 * Check whether a certificate was issued by another: the issuer name of
+	 * the certificate must match the subject name of the issuer, and the
+	 * signature of the certificate must verify against the public key of the
+	 * issuer. Validity dates are not checked.
+	 * 
+	 * @param certificate
+	 *            the certificate to check
+	 * @param issuer
+	 *            the presumed issuer
+	 * @return true if issuer signed certificate
+	 */
+	public static boolean isIssuedBy(final X509Certificate certificate,
+			final X509Certificate issuer) {
+		if (!certificate.getIssuerX500Principal().equals(
+				issuer.getSubjectX500Principal())) {
+			return false;
+		}
+		try {
+			certificate.verify(issuer.getPublicKey());
+			return true;
+		} catch (final GeneralSecurityException gsex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove all certificates from the cache, and reset the hit and miss
+	 * counts.
+	 */
+	public static void clear() {
+		synchronized (CERTIFICATES) {
+			CERTIFICATES.clear();
+			hits = 0;
+			misses = 0;
+		}
+	}
+
+	/**
+	 * @return the number of certificates in the cache
+	 */
+	public static int size() {
+		synchronized (CERTIFICATES) {
+			return CERTIFICATES.size();
+		}
+	}
+
+	/**
+	 * @return the number of lookups that found a certificate
+	 */
+	public static long getHits() {
+		synchronized (CERTIFICATES) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of lookups that did not find a certificate
+	 */
+	public static long getMisses() {
+		synchronized (CERTIFICATES) {
+			return misses;
+		}
+	}
+
+	private static boolean isIssuedByCachedRoot(
+			final X509Certificate certificate) {
+		for (X509Certificate root : CERTIFICATES.values()) {
+			if (isIssuedBy(root, root) && isIssuedBy(certificate, root)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final class Head {
+		private final byte[] data;
+		private final int hashCode;
+
+		Head(final byte[] data) {
+			this.data = data;
+			this.hashCode = Arrays.hashCode(data);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (this == other) {
+				return true;
+			}
+			if (!(other instanceof Head)) {
+				return false;
+			}
+			return Arrays.equals(this.data, ((Head) other).data);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.spi.FileCache;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * A FileCache that keeps card files on disk, one subdirectory per chip serial
+ * number, one file per FileType. Note that this stores personal data of the
+ * card holders in the clear: the directory chosen should be protected
+ * accordingly.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class DiskFileCache implements FileCache {
+	private final File directory;
+	private final Logger logger;
+
+	/**
+	 * Instantiate a DiskFileCache storing files under directory, without any
+	 * logging.
+	 * 
+	 * @param directory
+	 *            the directory to keep cached files in. Created if it doesn't
+	 *            exist.
+	 */
+	public DiskFileCache(final File directory) {
+		this(directory, new VoidLogger());
+	}
+
+	/**
+	 * Instantiate a DiskFileCache storing files under directory, logging to
+	 * logger.
+	 * 
+	 * @param directory
+	 *            the directory to keep cached files in. Created if it doesn't
+	 *            exist.
+	 * @param logger
+	 *            an instance of be.fedict.commons.eid.spi.Logger
+	 */
+	public DiskFileCache(final File directory, final Logger logger) {
+		this.directory = directory;
+		this.logger = logger;
+	}
+
+	@Override
+	public synchronized byte[] get(final String chipSerialNumber,
+			final FileType fileType) {
+		final File file = getFile(chipSerialNumber, fileType);
+		if (!file.isFile()) {
+			return null;
+		}
+
+		InputStream inputStream = null;
+		try {
+			inputStream = new FileInputStream(file);
+			final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+					(int) file.length());
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		} catch (final IOException ioex) {
+			this.logger.error("cannot read cached file " + file + ": "
+					+ ioex.getMessage());
+			return null;
+		} finally {
+			close(inputStream);
+		}
+	}
+
+	@Override
+	public synchronized void put(final String chipSerialNumber,
+			final FileType fileType, final byte[] data) {
+		final File file = getFile(chipSerialNumber, fileType);
+		final File cardDirectory = file.getParentFile();
+		if (!cardDirectory.isDirectory() && !cardDirectory.mkdirs()) {
+			this.logger.error("cannot create cache directory " + cardDirectory);
+			return;
+		}
+
+		// write to a temporary file first, so that a concurrent or interrupted
+		// write never leaves a truncated file to be found by get()
+		final File temporaryFile = new File(cardDirectory, fileType.name()
+				+ ".tmp");
+		OutputStream outputStream = null;
+		try {
+			outputStream = new FileOutputStream(temporaryFile);
+			outputStream.write(data);
+			outputStream.close();
+			outputStream = null;
+			if (file.exists() && !file.delete()) {
+				throw new IOException("cannot replace " + file);
+			}
+			if (!temporaryFile.renameTo(file)) {
+				throw new IOException("cannot rename " + temporaryFile);
+			}
+		} catch (final IOException ioex) {
+			this.logger.error("cannot write cached file " + file + ": "
+					+ ioex.getMessage());
+			temporaryFile.delete();
+		} finally {
+			close(outputStream);
+		}
+	}
+
+	private File getFile(final String chipSerialNumber, final FileType fileType) {
+		return new File(new File(this.directory, chipSerialNumber),
+				fileType.name());
+	}
+
+	private void close(final Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (final IOException ioex) {
+			this.logger.debug("close failed: " + ioex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * An EventDispatcher delivers events to listeners, either inline on the
+ * thread that detected them, or on an Executor. Events dispatched with the
+ * same key (e.g. the same CardTerminal) are delivered one at a time, in the
+ * order they were dispatched. Events with different keys may be delivered
+ * concurrently.
+ * <p>
+ * The number of events waiting to be delivered is bounded: when the queue is
+ * full, dispatch() blocks until a slot frees up, so that a slow listener
+ * slows down detection instead of exhausting memory.
+ *
+ * @author Frank Marien
+ *
+ */
+public final class EventDispatcher {
+	/**
+	 * The default maximum number of events waiting to be delivered.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final Logger logger;
+	private final Map<Object, EventQueue> eventQueues;
+	private Executor executor;
+	private int capacity;
+	private int queueDepth;
+	private int peakQueueDepth;
+	private long dispatchedEvents;
+	private final AtomicLong listenerCalls;
+	private final AtomicLong listenerNanos;
+	private final AtomicLong maxListenerNanos;
+
+	public EventDispatcher(final Logger logger) {
+		this.logger = logger;
+		this.eventQueues = new HashMap<Object, EventQueue>();
+		this.capacity = DEFAULT_CAPACITY;
+		this.listenerCalls = new AtomicLong();
+		this.listenerNanos = new AtomicLong();
+		this.maxListenerNanos = new AtomicLong();
+	}
+
+	/**
+	 * @return the Executor events are delivered on, or null if they are
+	 *         delivered inline.
+	 */
+	public synchronized Executor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * Set the Executor to deliver events on. null (the default) delivers
+	 * events inline, on the thread calling dispatch(). Events already queued
+	 * are still delivered on the previous Executor.
+	 *
+	 * @param newExecutor
+	 *            the Executor to use, or null
+	 * @return this EventDispatcher to allow for method chaining.
+	 */
+	public synchronized EventDispatcher setExecutor(final Executor newExecutor) {
+		this.executor = newExecutor;
+		return this;
+	}
+
+	/**
+	 * @return the maximum number of events waiting to be delivered.
+	 */
+	public synchronized int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * Set the maximum number of events waiting to be delivered.
+	 *
+	 * @param newCapacity
+	 *            the new maximum, at least 1
+	 * @return this EventDispatcher to allow for method chaining.
+	 */
+	public synchronized EventDispatcher setCapacity(final int newCapacity) {
+		if (newCapacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.capacity = newCapacity;
+		notifyAll();
+		return this;
+	}
+
+	/**
+	 * Deliver an event, inline if no Executor is set, or else after all
+	 * events dispatched earlier with the same key.
+	 *
+	 * @param key
+	 *            the key to keep the order of events for
+	 * @param event
+	 *            the event to deliver
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for room in the queue
+	 */
+	public void dispatch(final Object key, final Runnable event)
+			throws InterruptedException {
+		final Executor currentExecutor;
+		final EventQueue eventQueue;
+
+		synchronized (this) {
+			currentExecutor = this.executor;
+			if (currentExecutor == null) {
+				this.dispatchedEvents++;
+				eventQueue = null;
+			} else {
+				while (this.queueDepth >= this.capacity) {
+					wait();
+				}
+				this.dispatchedEvents++;
+				if (++this.queueDepth > this.peakQueueDepth) {
+					this.peakQueueDepth = this.queueDepth;
+				}
+				EventQueue existingQueue = this.eventQueues.get(key);
+				if (existingQueue == null) {
+					existingQueue = new EventQueue(key);
+					this.eventQueues.put(key, existingQueue);
+				}
+				existingQueue.events.add(event);
+				if (existingQueue.scheduled) {
+					return;
+				}
+				existingQueue.scheduled = true;
+				eventQueue = existingQueue;
+			}
+		}
+
+		if (eventQueue == null) {
+			deliver(event);
+			return;
+		}
+
+		try {
+			currentExecutor.execute(eventQueue);
+		} catch (final RejectedExecutionException rex) {
+			this.logger
+					.error("Executor rejected event delivery, delivering inline: "
+							+ rex.getMessage());
+			eventQueue.run();
+		}
+	}
+
+	/**
+	 * Deliver an event once all events dispatched before it have been
+	 * delivered, whatever their key. Inline if no Executor is set, or if there
+	 * are no such events. Never blocks.
+	 *
+	 * @param event
+	 *            the event to deliver
+	 */
+	public void dispatchAfterDelivery(final Runnable event) {
+		synchronized (this) {
+			this.dispatchedEvents++;
+			if (!this.eventQueues.isEmpty()) {
+				// queue a marker behind the events for each key, and deliver
+				// when the last marker is reached
+				final AtomicInteger remaining = new AtomicInteger(
+						this.eventQueues.size());
+				final Runnable marker = new Runnable() {
+					@Override
+					public void run() {
+						if (remaining.decrementAndGet() == 0) {
+							event.run();
+						}
+					}
+				};
+				for (EventQueue eventQueue : this.eventQueues.values()) {
+					eventQueue.events.add(marker);
+					this.queueDepth++;
+				}
+				if (this.queueDepth > this.peakQueueDepth) {
+					this.peakQueueDepth = this.queueDepth;
+				}
+				return;
+			}
+		}
+
+		deliver(event);
+	}
+
+	/**
+	 * Wait until all events dispatched so far have been delivered.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public synchronized void awaitDelivery() throws InterruptedException {
+		while (this.queueDepth > 0) {
+			wait();
+		}
+	}
+
+	/**
+	 * Account for the time taken by one call to a listener.
+	 *
+	 * @param nanos
+	 *            the time the listener took, in nanoseconds
+	 */
+	public void listenerCalled(final long nanos) {
+		this.listenerCalls.incrementAndGet();
+		this.listenerNanos.addAndGet(nanos);
+		long max = this.maxListenerNanos.get();
+		while (nanos > max
+				&& !this.maxListenerNanos.compareAndSet(max, nanos)) {
+			max = this.maxListenerNanos.get();
+		}
+	}
+
+	/**
+	 * @return the number of events waiting to be delivered
+	 */
+	public synchronized int getQueueDepth() {
+		return this.queueDepth;
+	}
+
+	/**
+	 * @return the largest number of events that were ever waiting to be
+	 *         delivered at the same time
+	 */
+	public synchronized int getPeakQueueDepth() {
+		return this.peakQueueDepth;
+	}
+
+	/**
+	 * @return the number of events dispatched
+	 */
+	public synchronized long getDispatchedEvents() {
+		return this.dispatchedEvents;
+	}
+
+	/**
+	 * @return the number of calls made to listeners
+	 */
+	public long getListenerCalls() {
+		return this.listenerCalls.get();
+	}
+
+	/**
+	 * @return the total time spent in listeners, in nanoseconds
+	 */
+	public long getListenerNanos() {
+		return this.listenerNanos.get();
+	}
+
+	/**
+	 * @return the time taken by the slowest call to a listener, in
+	 *         nanoseconds
+	 */
+	public long getMaxListenerNanos() {
+		return this.maxListenerNanos.get();
+	}
+
+	private void deliver(final Runnable event) {
+		try {
+			event.run();
+		} catch (final RuntimeException rex) {
+			this.logger.error("Exception thrown delivering event: "
+					+ rex.getMessage());
+		}
+	}
+
+	/*
+	 * the events for one key. Runs on the Executor until it has delivered all
+	 * of them, so it is scheduled for as long as it is in eventQueues. The
+	 * queue is dropped when empty, so that keys that are no
+	 * longer used (e.g. detached CardTerminals) don't accumulate.
+	 */
+	private final class EventQueue implements Runnable {
+		private final Object key;
+		private final LinkedList<Runnable> events;
+		private boolean scheduled;
+
+		private EventQueue(final Object key) {
+			this.key = key;
+			this.events = new LinkedList<Runnable>();
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				final Runnable event;
+				synchronized (EventDispatcher.this) {
+					event = this.events.poll();
+					if (event == null) {
+						this.scheduled = false;
+						EventDispatcher.this.eventQueues.remove(this.key);
+						return;
+					}
+				}
+
+				try {
+					deliver(event);
+				} finally {
+					synchronized (EventDispatcher.this) {
+						EventDispatcher.this.queueDepth--;
+						EventDispatcher.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
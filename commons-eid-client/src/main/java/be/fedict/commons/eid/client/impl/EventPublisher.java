@@ -0,0 +1,373 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import be.fedict.commons.eid.client.event.OverflowPolicy;
+import be.fedict.commons.eid.client.event.Subscriber;
+import be.fedict.commons.eid.client.event.Subscription;
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * An EventPublisher buffers events for each of its Subscribers, and delivers
+ * them on an Executor, as far as each Subscriber requested them. publish()
+ * never blocks: when a Subscriber's buffer is full, the OverflowPolicy it
+ * subscribed with decides what to drop. A new Subscriber first receives the snapshot given
+ * when subscribing, which doesn't count against its buffer.
+ * <p>
+ * The owner of an EventPublisher calls subscribe() and publish() while
+ * holding whatever lock guards the state the snapshot is taken from, so that
+ * each Subscriber sees the snapshot followed by exactly the events after it.
+ * 
+ * @author Frank Marien
+ * 
+ * @param <T>
+ *            the type of events published
+ */
+public final class EventPublisher<T> {
+	/**
+	 * The default number of events buffered for each Subscriber.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256;
+
+	private final Logger logger;
+	private final String name;
+	private final List<EventSubscription> subscriptions;
+	private Executor executor;
+	private ExecutorService privateExecutor;
+	private boolean closed;
+	private long droppedEvents;
+
+	public EventPublisher(final Logger logger, final String name) {
+		this.logger = logger;
+		this.name = name;
+		this.subscriptions = new ArrayList<EventSubscription>();
+	}
+
+	/**
+	 * Set the Executor to deliver events on. By default, events are delivered
+	 * on daemon threads of this EventPublisher's own.
+	 * 
+	 * @param newExecutor
+	 *            the Executor to use, or null for the default
+	 * @return this EventPublisher to allow for method chaining.
+	 */
+	public synchronized EventPublisher<T> setExecutor(
+			final Executor newExecutor) {
+		this.executor = newExecutor;
+		return this;
+	}
+
+	/**
+	 * @return the number of Subscribers currently subscribed
+	 */
+	public synchronized int getSubscriberCount() {
+		return this.subscriptions.size();
+	}
+
+	/**
+	 * @return the number of events dropped because a Subscriber's buffer was
+	 *         full, for all Subscribers
+	 */
+	public synchronized long getDroppedEvents() {
+		return this.droppedEvents;
+	}
+
+	/**
+	 * Add a Subscriber, that will receive the snapshot given, and then all
+	 * events published from now on. If this EventPublisher was closed, the
+	 * Subscriber only receives onSubscribe() and onComplete().
+	 * 
+	 * @param subscriber
+	 *            the Subscriber to add
+	 * @param snapshot
+	 *            the events describing the current state
+	 * @param bufferSize
+	 *            the number of events buffered for this Subscriber, not
+	 *            counting the snapshot, at least 1
+	 * @param overflowPolicy
+	 *            what to do when this Subscriber's buffer is full
+	 */
+	public synchronized void subscribe(final Subscriber<? super T> subscriber,
+			final List<T> snapshot, final int bufferSize,
+			final OverflowPolicy overflowPolicy) {
+		if (subscriber == null) {
+			throw new IllegalArgumentException("subscriber expected");
+		}
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("bufferSize must be at least 1");
+		}
+		if (overflowPolicy == null) {
+			throw new IllegalArgumentException("overflowPolicy expected");
+		}
+		final EventSubscription subscription = new EventSubscription(
+				subscriber, bufferSize, overflowPolicy);
+		subscription.buffer.addAll(snapshot);
+		subscription.snapshotRemaining = snapshot.size();
+		if (this.closed) {
+			subscription.buffer.clear();
+			subscription.snapshotRemaining = 0;
+			subscription.completed = true;
+		} else {
+			this.subscriptions.add(subscription);
+		}
+		schedule(subscription);
+	}
+
+	/**
+	 * Buffer an event for all Subscribers, and deliver it to those that
+	 * requested it. Never blocks.
+	 * 
+	 * @param event
+	 *            the event to publish
+	 */
+	public synchronized void publish(final T event) {
+		if (this.closed) {
+			return;
+		}
+		// iterate over a copy, since an overflow may cancel a subscription
+		final List<EventSubscription> currentSubscriptions = new ArrayList<EventSubscription>(
+				this.subscriptions);
+		for (EventSubscription subscription : currentSubscriptions) {
+			subscription.add(event);
+		}
+	}
+
+	/**
+	 * Stop publishing: Subscribers receive onComplete() after the events
+	 * already buffered for them.
+	 */
+	public synchronized void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		for (EventSubscription subscription : this.subscriptions) {
+			subscription.completed = true;
+			schedule(subscription);
+		}
+		this.subscriptions.clear();
+		if (this.privateExecutor != null) {
+			// lets the deliveries already scheduled finish
+			this.privateExecutor.shutdown();
+		}
+	}
+
+	// schedule delivery, unless it is scheduled already. Must hold our lock.
+	private void schedule(final EventSubscription subscription) {
+		if (subscription.scheduled) {
+			return;
+		}
+		subscription.scheduled = true;
+		try {
+			getExecutor().execute(subscription);
+		} catch (final RejectedExecutionException rex) {
+			// e.g. after close(): deliver what remains on a thread of its own
+			final Thread thread = new Thread(subscription, this.name
+					+ " delivery");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private Executor getExecutor() {
+		if (this.executor != null) {
+			return this.executor;
+		}
+		if (this.privateExecutor == null) {
+			this.privateExecutor = Executors
+					.newCachedThreadPool(new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							final Thread thread = new Thread(runnable,
+									EventPublisher.this.name + " delivery");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return this.privateExecutor;
+	}
+
+	/*
+	 * the buffer and demand of one Subscriber. Runs on the Executor while
+	 * there are events it may deliver, so that the Subscriber is never called
+	 * concurrently. Its fields are guarded by the EventPublisher's lock, which
+	 * is never held while calling the Subscriber.
+	 */
+	private final class EventSubscription implements Subscription, Runnable {
+		private final Subscriber<? super T> subscriber;
+		private final int bufferSize;
+		private final OverflowPolicy overflowPolicy;
+		private final LinkedList<T> buffer;
+		private int snapshotRemaining;
+		private long demand;
+		private boolean subscribed;
+		private boolean scheduled;
+		private boolean cancelled;
+		private boolean completed;
+		private Throwable error;
+
+		private EventSubscription(final Subscriber<? super T> subscriber,
+				final int bufferSize, final OverflowPolicy overflowPolicy) {
+			this.subscriber = subscriber;
+			this.bufferSize = bufferSize;
+			this.overflowPolicy = overflowPolicy;
+			this.buffer = new LinkedList<T>();
+		}
+
+		// must hold the EventPublisher's lock
+		private void add(final T event) {
+			if (this.cancelled || this.error != null) {
+				return;
+			}
+			if (this.buffer.size() - this.snapshotRemaining >= this.bufferSize) {
+				EventPublisher.this.droppedEvents++;
+				switch (this.overflowPolicy) {
+					case DROP_OLDEST :
+						this.buffer.remove(this.snapshotRemaining);
+						break;
+					case DROP_NEWEST :
+						return;
+					case FAIL :
+						fail(new IllegalStateException(
+								"Subscriber fell more than " + this.bufferSize
+										+ " events behind"));
+						return;
+				}
+			}
+			this.buffer.add(event);
+			if (this.demand > 0) {
+				schedule(this);
+			}
+		}
+
+		// must hold the EventPublisher's lock
+		private void fail(final Throwable throwable) {
+			this.error = throwable;
+			this.buffer.clear();
+			this.snapshotRemaining = 0;
+			EventPublisher.this.subscriptions.remove(this);
+			schedule(this);
+		}
+
+		@Override
+		public void request(final long n) {
+			synchronized (EventPublisher.this) {
+				if (this.cancelled || this.error != null) {
+					return;
+				}
+				if (n < 1) {
+					fail(new IllegalArgumentException(
+							"request must be at least 1, got " + n));
+					return;
+				}
+				this.demand += n;
+				if (this.demand < 0) {
+					this.demand = Long.MAX_VALUE;
+				}
+				if (!this.buffer.isEmpty() || this.completed) {
+					schedule(this);
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (EventPublisher.this) {
+				this.cancelled = true;
+				this.buffer.clear();
+				this.snapshotRemaining = 0;
+				EventPublisher.this.subscriptions.remove(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			final boolean firstRun;
+			synchronized (EventPublisher.this) {
+				firstRun = !this.subscribed;
+				this.subscribed = true;
+			}
+			if (firstRun) {
+				try {
+					this.subscriber.onSubscribe(this);
+				} catch (final RuntimeException rex) {
+					EventPublisher.this.logger
+							.error("Exception thrown in Subscriber.onSubscribe: "
+									+ rex.getMessage());
+					cancel();
+				}
+			}
+
+			while (true) {
+				final T event;
+				final Throwable currentError;
+				synchronized (EventPublisher.this) {
+					if (this.cancelled) {
+						this.scheduled = false;
+						return;
+					}
+					currentError = this.error;
+					if (currentError != null) {
+						this.cancelled = true;
+						event = null;
+					} else if (this.demand > 0 && !this.buffer.isEmpty()) {
+						event = this.buffer.removeFirst();
+						if (this.snapshotRemaining > 0) {
+							this.snapshotRemaining--;
+						}
+						if (this.demand != Long.MAX_VALUE) {
+							this.demand--;
+						}
+					} else if (this.completed && this.buffer.isEmpty()) {
+						this.cancelled = true;
+						event = null;
+					} else {
+						this.scheduled = false;
+						return;
+					}
+				}
+
+				try {
+					if (currentError != null) {
+						this.subscriber.onError(currentError);
+					} else if (event == null) {
+						this.subscriber.onComplete();
+					} else {
+						this.subscriber.onNext(event);
+					}
+				} catch (final RuntimeException rex) {
+					EventPublisher.this.logger
+							.error("Exception thrown in Subscriber: "
+									+ rex.getMessage());
+					cancel();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+/**
+ * Counts events, and their rate over the last minute, in one-second buckets.
+ * 
+ * @author Frank Marien
+ * 
+ */
+final class EventRate {
+	private static final int SECONDS = 60;
+
+	private final long[] counts;
+	private final long[] seconds;
+	private long total;
+
+	EventRate() {
+		this.counts = new long[SECONDS];
+		this.seconds = new long[SECONDS];
+	}
+
+	synchronized void record() {
+		final long second = currentSecond();
+		final int bucket = (int) (second % SECONDS);
+		if (this.seconds[bucket] != second) {
+			this.seconds[bucket] = second;
+			this.counts[bucket] = 0;
+		}
+		this.counts[bucket]++;
+		this.total++;
+	}
+
+	synchronized long getTotal() {
+		return this.total;
+	}
+
+	/*
+	 * the average number of events per second, over the last minute
+	 */
+	synchronized double getPerSecond() {
+		final long second = currentSecond();
+		long count = 0;
+		for (int bucket = 0; bucket < SECONDS; bucket++) {
+			if (second - this.seconds[bucket] < SECONDS) {
+				count += this.counts[bucket];
+			}
+		}
+		return (double) count / SECONDS;
+	}
+
+	private static long currentSecond() {
+		return System.nanoTime() / 1000000000L;
+	}
+}
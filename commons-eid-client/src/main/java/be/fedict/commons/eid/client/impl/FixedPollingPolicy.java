@@ -0,0 +1,61 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import be.fedict.commons.eid.client.spi.PollingPolicy;
+
+/**
+ * A PollingPolicy that always waits the same delay, whether polling or backing
+ * off after a failure.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class FixedPollingPolicy implements PollingPolicy {
+	private final int delay;
+
+	/**
+	 * @param delay
+	 *            the delay to wait, in milliseconds
+	 */
+	public FixedPollingPolicy(final int delay) {
+		this.delay = delay;
+	}
+
+	@Override
+	public int getWaitMillis() {
+		return this.delay;
+	}
+
+	@Override
+	public int getBackOffMillis() {
+		return this.delay;
+	}
+
+	@Override
+	public void polled(final boolean activity) {
+		// always the same delay
+	}
+
+	@Override
+	public void failed() {
+		// always the same delay
+	}
+}
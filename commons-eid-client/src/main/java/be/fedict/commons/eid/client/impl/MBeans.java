@@ -0,0 +1,98 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import be.fedict.commons.eid.client.spi.Logger;
+
+/**
+ * Registers MBeans with the platform MBeanServer, under
+ * be.fedict.commons.eid.client:type=[type],id=[n]. Failing to register, e.g.
+ * for lack of permissions, is logged and otherwise ignored: monitoring should
+ * never prevent the eID code from working.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class MBeans {
+	/**
+	 * The domain all MBeans are registered in.
+	 */
+	public static final String DOMAIN = "be.fedict.commons.eid.client";
+
+	private static final AtomicInteger ID = new AtomicInteger();
+
+	private MBeans() {
+		super();
+	}
+
+	/**
+	 * Register an MBean.
+	 * 
+	 * @param mbean
+	 *            the MBean to register
+	 * @param type
+	 *            the type key of its ObjectName
+	 * @param logger
+	 *            where to log failures
+	 * @return the ObjectName it was registered under, or null if it was not
+	 *         registered
+	 */
+	public static ObjectName register(final Object mbean, final String type,
+			final Logger logger) {
+		try {
+			final ObjectName objectName = new ObjectName(DOMAIN + ":type="
+					+ type + ",id=" + ID.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mbean,
+					objectName);
+			return objectName;
+		} catch (final Exception ex) {
+			logger.error("Cannot register " + type + " MBean: "
+					+ ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Unregister an MBean registered by register().
+	 * 
+	 * @param objectName
+	 *            the ObjectName register() returned, or null
+	 * @param logger
+	 *            where to log failures
+	 */
+	public static void unregister(final ObjectName objectName,
+			final Logger logger) {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+					objectName);
+		} catch (final Exception ex) {
+			logger.error("Cannot unregister MBean " + objectName + ": "
+					+ ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import javax.smartcardio.ATR;
+
+/**
+ * One exchange with a card, as recorded by a RecordingCard: an APDU and its
+ * response, an APDU that failed, a control command and its response, or a
+ * control command that failed, with the time it was sent (relative to the
+ * start of the recording) and the time it took. Also defines the recording
+ * file format:
+ * <ul>
+ * <li>a header: magic number "BeID", a version byte, and the card's ATR
+ * <li>any number of exchanges: type byte, start and duration in microseconds,
+ * control code (control commands only), command, and then either the
+ * response, or the failure message. Version 1 recordings have no
+ * CONTROL_FAILED exchanges.
+ * </ul>
+ * All byte arrays are preceded by their length. Integers are big-endian, as
+ * written by DataOutputStream.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public final class RecordedExchange {
+	public static final int MAGIC = 0x42654944;
+	public static final int VERSION = 2;
+
+	/*
+	 * an extended-length command APDU with 65535 bytes of data
+	 */
+	private static final int MAX_LENGTH = 0x10008;
+
+	public enum Type {
+		APDU, APDU_FAILED, CONTROL, CONTROL_FAILED;
+	}
+
+	private final Type type;
+	private final int controlCode;
+	private final long startMicros;
+	private final long durationMicros;
+	private final byte[] command;
+	private final byte[] response;
+	private final String failure;
+
+	public RecordedExchange(final Type type, final int controlCode,
+			final long startMicros, final long durationMicros,
+			final byte[] command, final byte[] response, final String failure) {
+		this.type = type;
+		this.controlCode = controlCode;
+		this.startMicros = startMicros;
+		this.durationMicros = durationMicros;
+		this.command = command;
+		this.response = response;
+		this.failure = failure;
+	}
+
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * @return the control code, for CONTROL and CONTROL_FAILED exchanges
+	 */
+	public int getControlCode() {
+		return this.controlCode;
+	}
+
+	/**
+	 * @return the time the command was sent, since the start of the
+	 *         recording, in microseconds
+	 */
+	public long getStartMicros() {
+		return this.startMicros;
+	}
+
+	/**
+	 * @return the time the exchange took, in microseconds
+	 */
+	public long getDurationMicros() {
+		return this.durationMicros;
+	}
+
+	public byte[] getCommand() {
+		return this.command.clone();
+	}
+
+	/**
+	 * @return the response, or null for APDU_FAILED and CONTROL_FAILED
+	 *         exchanges
+	 */
+	public byte[] getResponse() {
+		return this.response == null ? null : this.response.clone();
+	}
+
+	/**
+	 * @return the failure message, for APDU_FAILED and CONTROL_FAILED
+	 *         exchanges
+	 */
+	public String getFailure() {
+		return this.failure;
+	}
+
+	/**
+	 * @return true for CONTROL and CONTROL_FAILED exchanges
+	 */
+	public boolean isControl() {
+		return Type.CONTROL == this.type || Type.CONTROL_FAILED == this.type;
+	}
+
+	/**
+	 * @return true for APDU_FAILED and CONTROL_FAILED exchanges
+	 */
+	public boolean isFailed() {
+		return Type.APDU_FAILED == this.type
+				|| Type.CONTROL_FAILED == this.type;
+	}
+
+	/**
+	 * Write a recording header.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @param atr
+	 *            the ATR of the card being recorded
+	 * @throws IOException
+	 */
+	public static void writeHeader(final DataOutputStream out, final ATR atr)
+			throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		writeBytes(out, atr.getBytes());
+	}
+
+	/**
+	 * Read a recording header.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the ATR of the card that was recorded
+	 * @throws IOException
+	 *             when the stream doesn't hold a recording in this format
+	 */
+	public static ATR readHeader(final DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not an APDU recording");
+		}
+		final int version = in.readUnsignedByte();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("unsupported APDU recording version: "
+					+ version);
+		}
+		return new ATR(readBytes(in));
+	}
+
+	/**
+	 * Write this exchange.
+	 * 
+	 * @param out
+	 *            the stream to write to
+	 * @throws IOException
+	 */
+	public void writeTo(final DataOutputStream out) throws IOException {
+		out.writeByte(this.type.ordinal());
+		out.writeLong(this.startMicros);
+		out.writeInt((int) this.durationMicros);
+		if (isControl()) {
+			out.writeInt(this.controlCode);
+		}
+		writeBytes(out, this.command);
+		if (isFailed()) {
+			out.writeUTF(this.failure == null ? "" : this.failure);
+		} else {
+			writeBytes(out, this.response);
+		}
+	}
+
+	/**
+	 * Read the next exchange.
+	 * 
+	 * @param in
+	 *            the stream to read from
+	 * @return the exchange, or null at the end of the recording
+	 * @throws IOException
+	 */
+	public static RecordedExchange readFrom(final DataInputStream in)
+			throws IOException {
+		final int typeOrdinal = in.read();
+		if (typeOrdinal == -1) {
+			return null;
+		}
+		if (typeOrdinal >= Type.values().length) {
+			throw new IOException("unknown exchange type: " + typeOrdinal);
+		}
+		try {
+			final Type type = Type.values()[typeOrdinal];
+			final long startMicros = in.readLong();
+			final long durationMicros = in.readInt() & 0xffffffffL;
+			final int controlCode = Type.CONTROL == type
+					|| Type.CONTROL_FAILED == type ? in.readInt() : 0;
+			final byte[] command = readBytes(in);
+			if (Type.APDU_FAILED == type || Type.CONTROL_FAILED == type) {
+				return new RecordedExchange(type, controlCode, startMicros,
+						durationMicros, command, null, in.readUTF());
+			}
+			return new RecordedExchange(type, controlCode, startMicros,
+					durationMicros, command, readBytes(in), null);
+		} catch (final EOFException eofex) {
+			throw new IOException("truncated APDU recording");
+		}
+	}
+
+	private static void writeBytes(final DataOutputStream out,
+			final byte[] bytes) throws IOException {
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(final DataInputStream in)
+			throws IOException {
+		final int length = in.readInt();
+		if (length < 0 || length > MAX_LENGTH) {
+			throw new IOException("invalid length in APDU recording: "
+					+ length);
+		}
+		final byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
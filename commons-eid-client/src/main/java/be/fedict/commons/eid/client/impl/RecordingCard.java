@@ -0,0 +1,193 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * A RecordingCard wraps a connected javax.smartcardio.Card, and records every
+ * exchange on its basic channel, and every control command, with its timing,
+ * to an OutputStream (see RecordedExchange for the format). Construct a
+ * BeIDCard on a RecordingCard to capture a session with a real card, for
+ * replay without a card reader. Recordings hold everything sent to the card,
+ * including any PIN codes: only record sessions with test cards.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class RecordingCard extends Card {
+	private final Card card;
+	private final DataOutputStream out;
+	private final long startNanos;
+	private IOException recordingException;
+
+	/**
+	 * Start recording.
+	 * 
+	 * @param card
+	 *            the card to record exchanges with
+	 * @param out
+	 *            the stream to write the recording to. Closed by close() or
+	 *            disconnect().
+	 * @throws IOException
+	 *             when the header can't be written
+	 */
+	public RecordingCard(final Card card, final OutputStream out)
+			throws IOException {
+		this.card = card;
+		this.out = new DataOutputStream(new BufferedOutputStream(out));
+		this.startNanos = System.nanoTime();
+		RecordedExchange.writeHeader(this.out, card.getATR());
+	}
+
+	@Override
+	public ATR getATR() {
+		return this.card.getATR();
+	}
+
+	@Override
+	public String getProtocol() {
+		return this.card.getProtocol();
+	}
+
+	@Override
+	public CardChannel getBasicChannel() {
+		return new RecordingCardChannel(this, this.card.getBasicChannel());
+	}
+
+	@Override
+	public CardChannel openLogicalChannel() throws CardException {
+		return new RecordingCardChannel(this, this.card.openLogicalChannel());
+	}
+
+	@Override
+	public void beginExclusive() throws CardException {
+		this.card.beginExclusive();
+	}
+
+	@Override
+	public void endExclusive() throws CardException {
+		this.card.endExclusive();
+	}
+
+	@Override
+	public byte[] transmitControlCommand(final int controlCode,
+			final byte[] command) throws CardException {
+		final long start = System.nanoTime();
+		final byte[] response;
+		try {
+			response = this.card.transmitControlCommand(controlCode, command);
+		} catch (final CardException cex) {
+			record(new RecordedExchange(
+					RecordedExchange.Type.CONTROL_FAILED, controlCode,
+					micros(start - this.startNanos), micros(System.nanoTime()
+							- start), command, null, cex.getMessage()));
+			throw cex;
+		}
+		record(new RecordedExchange(RecordedExchange.Type.CONTROL,
+				controlCode, micros(start - this.startNanos),
+				micros(System.nanoTime() - start), command, response, null));
+		return response;
+	}
+
+	@Override
+	public void disconnect(final boolean reset) throws CardException {
+		try {
+			this.card.disconnect(reset);
+		} finally {
+			try {
+				close();
+			} catch (final IOException ioex) {
+				throw new CardException("could not close recording", ioex);
+			}
+		}
+	}
+
+	/**
+	 * Stop recording, and close the stream. The card stays connected.
+	 * 
+	 * @throws IOException
+	 *             when writing any part of the recording failed
+	 */
+	public void close() throws IOException {
+		synchronized (this.out) {
+			try {
+				this.out.close();
+			} catch (final IOException ioex) {
+				if (this.recordingException == null) {
+					this.recordingException = ioex;
+				}
+			}
+			if (this.recordingException != null) {
+				throw this.recordingException;
+			}
+		}
+	}
+
+	ResponseAPDU transmit(final CardChannel channel,
+			final CommandAPDU commandApdu) throws CardException {
+		final long start = System.nanoTime();
+		final ResponseAPDU responseApdu;
+		try {
+			responseApdu = channel.transmit(commandApdu);
+		} catch (final CardException cex) {
+			record(new RecordedExchange(RecordedExchange.Type.APDU_FAILED, 0,
+					micros(start - this.startNanos), micros(System.nanoTime()
+							- start), commandApdu.getBytes(), null,
+					cex.getMessage()));
+			throw cex;
+		}
+		record(new RecordedExchange(RecordedExchange.Type.APDU, 0,
+				micros(start - this.startNanos), micros(System.nanoTime()
+						- start), commandApdu.getBytes(),
+				responseApdu.getBytes(), null));
+		return responseApdu;
+	}
+
+	/*
+	 * A failure to record must not break the session being recorded: keep the
+	 * first exception, to be thrown by close().
+	 */
+	private void record(final RecordedExchange exchange) {
+		synchronized (this.out) {
+			if (this.recordingException != null) {
+				return;
+			}
+			try {
+				exchange.writeTo(this.out);
+			} catch (final IOException ioex) {
+				this.recordingException = ioex;
+			}
+		}
+	}
+
+	private static long micros(final long nanos) {
+		return nanos / 1000;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.impl;
+
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * A CardChannel that records every exchange through its RecordingCard. Obtain
+ * one from {@link RecordingCard#getBasicChannel()}.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class RecordingCardChannel extends CardChannel {
+	private final RecordingCard card;
+	private final CardChannel channel;
+
+	RecordingCardChannel(final RecordingCard card, final CardChannel channel) {
+		this.card = card;
+		this.channel = channel;
+	}
+
+	@Override
+	public Card getCard() {
+		return this.card;
+	}
+
+	@Override
+	public int getChannelNumber() {
+		return this.channel.getChannelNumber();
+	}
+
+	@Override
+	public ResponseAPDU transmit(final CommandAPDU commandApdu)
+			throws CardException {
+		return this.card.transmit(this.channel, commandApdu);
+	}
+
+	@Override
+	public int transmit(final ByteBuffer command, final ByteBuffer response)
+			throws CardException {
+		final byte[] commandBytes = new byte[command.remaining()];
+		command.get(commandBytes);
+		final byte[] responseBytes = transmit(new CommandAPDU(commandBytes))
+				.getBytes();
+		response.put(responseBytes);
+		return responseBytes.length;
+	}
+
+	@Override
+	public void close() throws CardException {
+		this.channel.close();
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.spi;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * implement an APDUInterceptor and add it to a
+ * {@link be.fedict.commons.eid.client.BeIDCard} to see every command it sends
+ * to the card, including retries, and every control command it sends to the
+ * CardTerminal, with the response and the time it took. Interceptors are
+ * called on the thread that talks to the card, while it holds the card: they
+ * should return quickly and must not throw. Note that commands may hold PIN
+ * codes: don't log them.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface APDUInterceptor {
+	/**
+	 * Called after a command APDU was answered by the card.
+	 * 
+	 * @param terminalName
+	 *            the name of the CardTerminal, or null if unknown
+	 * @param command
+	 *            the command sent
+	 * @param response
+	 *            the card's response
+	 * @param durationNanos
+	 *            the time the transmit took, in nanoseconds
+	 */
+	void apduTransmitted(String terminalName, CommandAPDU command,
+			ResponseAPDU response, long durationNanos);
+
+	/**
+	 * Called after a command APDU could not be transmitted.
+	 * 
+	 * @param terminalName
+	 *            the name of the CardTerminal, or null if unknown
+	 * @param command
+	 *            the command that failed
+	 * @param cause
+	 *            the exception thrown by the CardChannel
+	 * @param durationNanos
+	 *            the time until the transmit failed, in nanoseconds
+	 */
+	void apduFailed(String terminalName, CommandAPDU command,
+			CardException cause, long durationNanos);
+
+	/**
+	 * Called after a control command was sent to the CardTerminal, whether it
+	 * succeeded or not.
+	 * 
+	 * @param terminalName
+	 *            the name of the CardTerminal, or null if unknown
+	 * @param controlCode
+	 *            the control code used
+	 * @param command
+	 *            the command sent
+	 * @param response
+	 *            the response, or null if it failed
+	 * @param durationNanos
+	 *            the time the control command took, in nanoseconds
+	 */
+	void controlCommandTransmitted(String terminalName, int controlCode,
+			byte[] command, byte[] response, long durationNanos);
+}
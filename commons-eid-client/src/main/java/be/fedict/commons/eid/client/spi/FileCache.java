@@ -0,0 +1,57 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.client.spi;
+
+import be.fedict.commons.eid.client.FileType;
+
+/**
+ * implement a FileCache to allow a {@link be.fedict.commons.eid.client.BeIDCard}
+ * to keep the contents of files read from the card, and reuse them the next
+ * time the same card is presented. Entries are keyed by the card's chip serial
+ * number (as a hexadecimal String). BeIDCard takes care of validating cached
+ * files that may change during a card's life (the address) against the card
+ * before using them, implementations need only store and retrieve.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface FileCache {
+	/**
+	 * Retrieve a previously cached file.
+	 * 
+	 * @param chipSerialNumber
+	 *            the chip serial number of the card, in hexadecimal
+	 * @param fileType
+	 *            the file requested
+	 * @return the cached file contents, or null if not cached
+	 */
+	byte[] get(String chipSerialNumber, FileType fileType);
+
+	/**
+	 * Store a file just read from the card.
+	 * 
+	 * @param chipSerialNumber
+	 *            the chip serial number of the card, in hexadecimal
+	 * @param fileType
+	 *            the file read
+	 * @param data
+	 *            the file contents
+	 */
+	void put(String chipSerialNumber, FileType fileType, byte[] data);
+}
@@ -0,0 +1,60 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package be.fedict.commons.eid.client.spi;
+
+/**
+ * implement a PollingPolicy to decide how often a
+ * {@link be.fedict.commons.eid.client.CardAndTerminalManager} asks the PC/SC
+ * subsystem for changes, and how long it waits before trying again when the
+ * PC/SC subsystem is absent or fails. A PollingPolicy is only ever used by one
+ * CardAndTerminalManager, and is told about the outcome of each poll, so that
+ * it can adapt.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public interface PollingPolicy {
+	/**
+	 * @return how long the next poll should wait for changes, in milliseconds
+	 */
+	int getWaitMillis();
+
+	/**
+	 * @return how long to wait before trying again, after the PC/SC subsystem
+	 *         failed, in milliseconds
+	 */
+	int getBackOffMillis();
+
+	/**
+	 * Account for a successful poll.
+	 * 
+	 * @param activity
+	 *            true if CardTerminals were attached or detached, or cards
+	 *            inserted or removed
+	 */
+	void polled(boolean activity);
+
+	/**
+	 * Account for the PC/SC subsystem being absent, or failing. Not called
+	 * when the PC/SC subsystem merely has no CardTerminals attached: that is a
+	 * successful poll without activity.
+	 */
+	void failed();
+}
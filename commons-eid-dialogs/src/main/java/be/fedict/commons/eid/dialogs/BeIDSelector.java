@@ -31,7 +31,6 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.text.DateFormat;
 import java.util.Collection;
@@ -51,6 +50,7 @@ import javax.swing.JProgressBar;
 import javax.swing.ListCellRenderer;
 import javax.swing.SwingUtilities;
 import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.BeIDFileInputStream;
 import be.fedict.commons.eid.client.FileType;
 import be.fedict.commons.eid.client.OutOfCardsException;
 import be.fedict.commons.eid.client.CancelledException;
@@ -543,10 +543,15 @@ public class BeIDSelector {
 					}
 				});
 
-				final byte[] photoFile = this.listData.getCard().readFile(
-						FileType.Photo);
-				final BufferedImage photoImage = ImageIO
-						.read(new ByteArrayInputStream(photoFile));
+				// decode the photo while it is being read from the card
+				final BeIDFileInputStream photoInputStream = this.listData
+						.getCard().openFile(FileType.Photo);
+				final BufferedImage photoImage;
+				try {
+					photoImage = ImageIO.read(photoInputStream);
+				} finally {
+					photoInputStream.close();
+				}
 				this.listData.setPhoto(new ImageIcon(photoImage));
 				this.selectionDialog.updateListData(this, this.listData);
 				setWorkerName(identity, "All Done");
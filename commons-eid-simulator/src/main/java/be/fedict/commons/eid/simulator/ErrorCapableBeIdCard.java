@@ -16,7 +16,7 @@
  * http://www.gnu.org/licenses/.
  */
 
-package test.integ.be.fedict.commons.eid.client.simulation;
+package be.fedict.commons.eid.simulator;
 
 import java.util.Random;
 import javax.smartcardio.CardException;
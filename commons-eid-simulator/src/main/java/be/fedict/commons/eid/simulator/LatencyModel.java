@@ -0,0 +1,227 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.simulator;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A LatencyModel determines how long a SimulatedCard takes to answer each
+ * command, and whether it shows the T=0 behaviour of real eID cards:
+ * <ul>
+ * <li>a fixed cost to connect to the card (power up, ATR, protocol selection)
+ * <li>a fixed cost per APDU (reader and PC/SC overhead, card processing)
+ * <li>a cost per byte sent and received (the transmission speed)
+ * <li>a random jitter, up to a maximum
+ * <li>optionally, answering 6Cxx to a READ BINARY that asks for more bytes
+ * than are left, like a T=0 card does, instead of returning fewer bytes
+ * <li>optionally, answering 6Cxx again to any command sent too soon after a
+ * 6Cxx, like eID v1.0 and v1.1 cards do
+ * </ul>
+ * The default is to answer instantly, without T=0 behaviour. A LatencyModel
+ * may be shared by several SimulatedCards, to see how many of their delays
+ * overlapped.
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class LatencyModel {
+	private long connectMicros;
+	private long microsPerAPDU;
+	private long microsPerByte;
+	private long jitterMicros;
+	private boolean wrongLengthResponses;
+	private long wrongLengthDelayMicros;
+	private final Random random;
+	private final AtomicInteger delaysInProgress;
+	private final AtomicInteger peakDelaysInProgress;
+
+	/**
+	 * A LatencyModel that answers instantly, with jitter seeded from the
+	 * current time.
+	 */
+	public LatencyModel() {
+		this(System.nanoTime());
+	}
+
+	/**
+	 * A LatencyModel that answers instantly, with reproducible jitter.
+	 * 
+	 * @param seed
+	 *            the seed for the jitter
+	 */
+	public LatencyModel(final long seed) {
+		this.random = new Random(seed);
+		this.delaysInProgress = new AtomicInteger();
+		this.peakDelaysInProgress = new AtomicInteger();
+	}
+
+	/**
+	 * @return a LatencyModel close to a v1.1 eID card in a typical USB reader,
+	 *         at T=0: 3 ms per APDU, 90 us per byte (115200 baud), 1 ms
+	 *         jitter, 6Cxx responses, and a 10 ms delay required after 6Cxx
+	 */
+	public static LatencyModel typicalT0Reader() {
+		return new LatencyModel().setMicrosPerAPDU(3000).setMicrosPerByte(90)
+				.setJitterMicros(1000).setWrongLengthResponses(true)
+				.setWrongLengthDelayMicros(10000);
+	}
+
+	public long getConnectMicros() {
+		return this.connectMicros;
+	}
+
+	/**
+	 * @param connectMicros
+	 *            the time connecting to the card takes
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setConnectMicros(final long connectMicros) {
+		this.connectMicros = connectMicros;
+		return this;
+	}
+
+	public long getMicrosPerAPDU() {
+		return this.microsPerAPDU;
+	}
+
+	/**
+	 * @param microsPerAPDU
+	 *            the fixed time each exchange takes
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setMicrosPerAPDU(final long microsPerAPDU) {
+		this.microsPerAPDU = microsPerAPDU;
+		return this;
+	}
+
+	public long getMicrosPerByte() {
+		return this.microsPerByte;
+	}
+
+	/**
+	 * @param microsPerByte
+	 *            the time each byte of command and response adds
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setMicrosPerByte(final long microsPerByte) {
+		this.microsPerByte = microsPerByte;
+		return this;
+	}
+
+	public long getJitterMicros() {
+		return this.jitterMicros;
+	}
+
+	/**
+	 * @param jitterMicros
+	 *            the maximum random time added to each exchange
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setJitterMicros(final long jitterMicros) {
+		this.jitterMicros = jitterMicros;
+		return this;
+	}
+
+	public boolean isWrongLengthResponses() {
+		return this.wrongLengthResponses;
+	}
+
+	/**
+	 * @param wrongLengthResponses
+	 *            true to answer 6Cxx to a READ BINARY asking for more bytes
+	 *            than are left in the file, xx being the number of bytes left
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setWrongLengthResponses(
+			final boolean wrongLengthResponses) {
+		this.wrongLengthResponses = wrongLengthResponses;
+		return this;
+	}
+
+	public long getWrongLengthDelayMicros() {
+		return this.wrongLengthDelayMicros;
+	}
+
+	/**
+	 * @param wrongLengthDelayMicros
+	 *            the time a command must wait after a 6Cxx response; any
+	 *            command sent sooner gets the same 6Cxx response again. 0 to
+	 *            accept commands immediately.
+	 * @return this LatencyModel, to allow method chaining
+	 */
+	public LatencyModel setWrongLengthDelayMicros(
+			final long wrongLengthDelayMicros) {
+		this.wrongLengthDelayMicros = wrongLengthDelayMicros;
+		return this;
+	}
+
+	/**
+	 * @param commandLength
+	 *            the number of bytes in the command
+	 * @param responseLength
+	 *            the number of bytes in the response
+	 * @return the time the exchange should take, in microseconds
+	 */
+	public long getExchangeMicros(final int commandLength,
+			final int responseLength) {
+		long micros = this.microsPerAPDU + this.microsPerByte
+				* (commandLength + responseLength);
+		if (this.jitterMicros > 0) {
+			synchronized (this.random) {
+				micros += (long) (this.random.nextDouble() * this.jitterMicros);
+			}
+		}
+		return micros;
+	}
+
+	/**
+	 * Sleep for the given time, on behalf of a SimulatedCard or
+	 * SimulatedCardTerminal, counting how many such delays are in progress at
+	 * the same time.
+	 * 
+	 * @param micros
+	 *            the time to sleep, in microseconds
+	 * @throws InterruptedException
+	 */
+	public void delay(final long micros) throws InterruptedException {
+		if (micros <= 0) {
+			return;
+		}
+		final int inProgress = this.delaysInProgress.incrementAndGet();
+		int peak = this.peakDelaysInProgress.get();
+		while (inProgress > peak
+				&& !this.peakDelaysInProgress.compareAndSet(peak, inProgress)) {
+			peak = this.peakDelaysInProgress.get();
+		}
+		try {
+			Thread.sleep(micros / 1000, (int) (micros % 1000) * 1000);
+		} finally {
+			this.delaysInProgress.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the largest number of delays that were in progress at the same
+	 *         time, across all SimulatedCards using this LatencyModel
+	 */
+	public int getPeakDelaysInProgress() {
+		return this.peakDelaysInProgress.get();
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.simulator;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import be.fedict.commons.eid.client.impl.RecordedExchange;
+
+/**
+ * A SimulatedCard that plays back a session recorded by a RecordingCard. Each
+ * command must be the one recorded at that point, and gets the recorded
+ * response (or failure), and nothing else: the LatencyModel and T=0
+ * behaviour of a SimulatedCard don't apply. Optionally, each exchange starts
+ * no sooner after the first than it did when recorded, and takes the time it
+ * took then, so that BeIDCard paths can be benchmarked against real cards and
+ * readers. Its basic channel is a SimulatedCardChannel, delegating to
+ * transmit().
+ * 
+ * @author Frank Marien
+ * 
+ */
+public class ReplayCard extends SimulatedCard {
+	private final List<RecordedExchange> exchanges;
+	private final boolean originalTiming;
+	private int position;
+	private long replayStartNanos;
+
+	/**
+	 * Load a recording.
+	 * 
+	 * @param recording
+	 *            the recording, as written by a RecordingCard. Read entirely,
+	 *            but not closed.
+	 * @param originalTiming
+	 *            true to make each exchange take the time it took when
+	 *            recorded, false to replay without delay
+	 * @throws IOException
+	 */
+	public ReplayCard(final InputStream recording, final boolean originalTiming)
+			throws IOException {
+		super(null);
+		final DataInputStream in = new DataInputStream(recording);
+		setATR(RecordedExchange.readHeader(in));
+		this.exchanges = new ArrayList<RecordedExchange>();
+		RecordedExchange exchange;
+		while ((exchange = RecordedExchange.readFrom(in)) != null) {
+			this.exchanges.add(exchange);
+		}
+		this.originalTiming = originalTiming;
+	}
+
+	/**
+	 * Start replaying from the first exchange again.
+	 * 
+	 * @return this ReplayCard
+	 */
+	public ReplayCard rewind() {
+		synchronized (this.exchanges) {
+			this.position = 0;
+		}
+		return this;
+	}
+
+	/**
+	 * @return true if all recorded exchanges were replayed
+	 */
+	public boolean isFinished() {
+		synchronized (this.exchanges) {
+			return this.position == this.exchanges.size();
+		}
+	}
+
+	/*
+	 * Serve only what was recorded: no LatencyModel delays, and no 6Cxx served
+	 * again.
+	 */
+	@Override
+	synchronized ResponseAPDU exchange(final CommandAPDU apdu)
+			throws CardException {
+		return transmit(apdu);
+	}
+
+	@Override
+	protected ResponseAPDU transmit(final CommandAPDU apdu)
+			throws CardException {
+		final RecordedExchange exchange = next(apdu.getBytes(), false);
+		if (exchange.isFailed()) {
+			throw new CardException(exchange.getFailure());
+		}
+		return new ResponseAPDU(exchange.getResponse());
+	}
+
+	@Override
+	public byte[] transmitControlCommand(final int controlCode,
+			final byte[] command) throws CardException {
+		final RecordedExchange exchange = next(command, true);
+		if (exchange.getControlCode() != controlCode) {
+			throw new CardException("replay diverged: expected control code "
+					+ exchange.getControlCode() + ", got " + controlCode);
+		}
+		if (exchange.isFailed()) {
+			throw new CardException(exchange.getFailure());
+		}
+		return exchange.getResponse();
+	}
+
+	private RecordedExchange next(final byte[] command, final boolean control)
+			throws CardException {
+		final RecordedExchange exchange;
+		synchronized (this.exchanges) {
+			if (this.position == this.exchanges.size()) {
+				throw new CardException("replay finished after "
+						+ this.position + " exchanges");
+			}
+			exchange = this.exchanges.get(this.position);
+			if (control != exchange.isControl()
+					|| !Arrays.equals(command, exchange.getCommand())) {
+				throw new CardException("replay diverged at exchange "
+						+ this.position);
+			}
+			if (this.position == 0) {
+				this.replayStartNanos = System.nanoTime()
+						- exchange.getStartMicros() * 1000;
+			}
+			this.position++;
+		}
+
+		if (this.originalTiming) {
+			replayTiming(exchange);
+		}
+		return exchange;
+	}
+
+	/*
+	 * Wait out the gap before the exchange, as far as the caller didn't spend
+	 * it already, and then the time the exchange took.
+	 */
+	private void replayTiming(final RecordedExchange exchange)
+			throws CardException {
+		final long startNanos = Math.max(System.nanoTime(),
+				this.replayStartNanos + exchange.getStartMicros() * 1000);
+		final long endNanos = startNanos + exchange.getDurationMicros() * 1000;
+		long remainingNanos;
+		while ((remainingNanos = endNanos - System.nanoTime()) > 0) {
+			try {
+				Thread.sleep(remainingNanos / 1000000,
+						(int) (remainingNanos % 1000000));
+			} catch (final InterruptedException iex) {
+				Thread.currentThread().interrupt();
+				throw new CardException("interrupted during replay", iex);
+			}
+		}
+	}
+}
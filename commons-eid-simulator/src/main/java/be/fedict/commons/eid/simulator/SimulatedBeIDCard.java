@@ -16,15 +16,21 @@
  * http://www.gnu.org/licenses/.
  */
 
-package test.integ.be.fedict.commons.eid.client.simulation;
+package be.fedict.commons.eid.simulator;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
 import org.apache.commons.io.IOUtils;
 import be.fedict.commons.eid.client.FileType;
 
 public class SimulatedBeIDCard extends SimulatedCard {
+	private byte[] cardData;
+
 	public SimulatedBeIDCard(final String profile) {
 		super(null);
 
@@ -63,7 +69,39 @@ public class SimulatedBeIDCard extends SimulatedCard {
 			final String profile) throws IOException {
 		final InputStream idInputStream = SimulatedBeIDCard.class
 				.getResourceAsStream("/" + profile + "_" + type + ".tlv");
+		if (idInputStream == null) {
+			throw new FileNotFoundException(profile + "_" + type + ".tlv");
+		}
 		setFile(type.getFileId(), IOUtils.toByteArray(idInputStream));
 		return this;
 	}
+
+	/**
+	 * Set the data returned by GET CARD DATA, starting with the chip serial
+	 * number. Without card data, GET CARD DATA is not available.
+	 * 
+	 * @param newCardData
+	 *            the card data, or null
+	 * @return this SimulatedBeIDCard to allow for method chaining.
+	 */
+	public SimulatedBeIDCard setCardData(final byte[] newCardData) {
+		this.cardData = newCardData;
+		return this;
+	}
+
+	@Override
+	protected ResponseAPDU transmit(final CommandAPDU apdu)
+			throws CardException {
+		// "GET CARD DATA"
+		if (apdu.getCLA() == 0x80 && apdu.getINS() == 0xE4
+				&& this.cardData != null) {
+			final byte[] response = new byte[this.cardData.length + 2];
+			System.arraycopy(this.cardData, 0, response, 0,
+					this.cardData.length);
+			response[this.cardData.length] = (byte) 0x90;
+			response[this.cardData.length + 1] = 0x00;
+			return new ResponseAPDU(response);
+		}
+		return super.transmit(apdu);
+	}
 }
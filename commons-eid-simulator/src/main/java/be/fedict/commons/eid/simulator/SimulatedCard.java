@@ -16,7 +16,7 @@
  * http://www.gnu.org/licenses/.
  */
 
-package test.integ.be.fedict.commons.eid.client.simulation;
+package be.fedict.commons.eid.simulator;
 
 import java.math.BigInteger;
 import java.util.HashMap;
@@ -28,6 +28,17 @@ import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
 
+import be.fedict.commons.eid.client.impl.CCID;
+
+/**
+ * A SimulatedCard is a javax.smartcardio.Card holding files, that answers
+ * SELECT FILE and READ BINARY commands like a BeID card would. By default, it
+ * answers instantly: set a LatencyModel to have it take the time a real card
+ * in a real reader would.
+ * 
+ * @author Frank Marien
+ * 
+ */
 public class SimulatedCard extends Card {
 	protected static final ResponseAPDU OK = new ResponseAPDU(new byte[]{
 			(byte) 0x90, 0x00});
@@ -42,11 +53,24 @@ public class SimulatedCard extends Card {
 	protected String protocol;
 	protected Map<BigInteger, byte[]> files;
 	protected byte[] selectedFile;
+	protected LatencyModel latencyModel;
+	private ResponseAPDU lastWrongLengthResponse;
+	private long lastWrongLengthNanos;
 
 	public SimulatedCard(final ATR atr) {
 		super();
 		this.atr = atr;
 		this.files = new HashMap<BigInteger, byte[]>();
+		this.latencyModel = new LatencyModel();
+	}
+
+	public LatencyModel getLatencyModel() {
+		return this.latencyModel;
+	}
+
+	public SimulatedCard setLatencyModel(final LatencyModel latencyModel) {
+		this.latencyModel = latencyModel;
+		return this;
 	}
 
 	public void setATR(final ATR atr) {
@@ -55,17 +79,17 @@ public class SimulatedCard extends Card {
 
 	@Override
 	public void beginExclusive() throws CardException {
-		throw new RuntimeException("Not Implemented In SimulatedCard");
+		// a simulated card is never shared
 	}
 
 	@Override
 	public void disconnect(final boolean arg0) throws CardException {
-		throw new RuntimeException("Not Implemented In SimulatedCard");
+		// nothing to release
 	}
 
 	@Override
 	public void endExclusive() throws CardException {
-		throw new RuntimeException("Not Implemented In SimulatedCard");
+		// a simulated card is never shared
 	}
 
 	@Override
@@ -88,10 +112,56 @@ public class SimulatedCard extends Card {
 		throw new RuntimeException("Not Implemented In SimulatedCard");
 	}
 
+	/*
+	 * Answers like a plain reader, without PIN pad: no CCID features, and any
+	 * other control command refused.
+	 */
 	@Override
-	public byte[] transmitControlCommand(final int arg0, final byte[] arg1)
+	public byte[] transmitControlCommand(final int controlCode,
+			final byte[] command) throws CardException {
+		if (CCID.GET_FEATURES == controlCode
+				|| CCID.GET_FEATURES_MICROSOFT == controlCode) {
+			return new byte[0];
+		}
+		throw new CardException("control command not supported: "
+				+ Integer.toHexString(controlCode));
+	}
+
+	/*
+	 * Called by SimulatedCardChannel: transmit(), with the timing and T=0
+	 * behaviour of the LatencyModel.
+	 */
+	synchronized ResponseAPDU exchange(final CommandAPDU apdu)
 			throws CardException {
-		throw new RuntimeException("Not Implemented In SimulatedCard");
+		final LatencyModel model = this.latencyModel;
+		ResponseAPDU response = null;
+
+		if (this.lastWrongLengthResponse != null) {
+			if (System.nanoTime() - this.lastWrongLengthNanos < model
+					.getWrongLengthDelayMicros() * 1000) {
+				// too soon after 6Cxx
+				response = this.lastWrongLengthResponse;
+			}
+			this.lastWrongLengthResponse = null;
+		}
+
+		if (response == null) {
+			response = transmit(apdu);
+		}
+
+		final long micros = model.getExchangeMicros(apdu.getBytes().length,
+				response.getBytes().length);
+		try {
+			model.delay(micros);
+		} catch (final InterruptedException iex) {
+			throw new CardException("interrupted", iex);
+		}
+
+		if (0x6c == response.getSW1()) {
+			this.lastWrongLengthResponse = response;
+			this.lastWrongLengthNanos = System.nanoTime();
+		}
+		return response;
 	}
 
 	protected ResponseAPDU transmit(final CommandAPDU apdu)
@@ -123,6 +193,12 @@ public class SimulatedCard extends Card {
 			return OFFSET_OUTSIDE_EF;
 		}
 
+		// a T=0 card tells how many bytes are left, instead of returning them
+		if (lengthToReturn < length
+				&& this.latencyModel.isWrongLengthResponses()) {
+			return new ResponseAPDU(new byte[]{0x6c, (byte) lengthToReturn});
+		}
+
 		// reserve number of bytes + 2 for trailer
 		final byte[] response = new byte[lengthToReturn + 2];
 
@@ -151,7 +227,7 @@ public class SimulatedCard extends Card {
 	}
 
 	public SimulatedCard removeFile(final byte[] fileId) {
-		this.files.remove(fileId);
+		this.files.remove(new BigInteger(fileId));
 		return this;
 	}
 }
\ No newline at end of file
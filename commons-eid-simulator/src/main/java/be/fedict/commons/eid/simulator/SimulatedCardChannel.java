@@ -16,7 +16,7 @@
  * http://www.gnu.org/licenses/.
  */
 
-package test.integ.be.fedict.commons.eid.client.simulation;
+package be.fedict.commons.eid.simulator;
 
 import java.nio.ByteBuffer;
 import javax.smartcardio.Card;
@@ -49,7 +49,7 @@ public class SimulatedCardChannel extends CardChannel {
 
 	@Override
 	public ResponseAPDU transmit(final CommandAPDU apdu) throws CardException {
-		return this.card.transmit(apdu);
+		return this.card.exchange(apdu);
 	}
 
 	@Override
@@ -16,7 +16,7 @@
  * http://www.gnu.org/licenses/.
  */
 
-package test.integ.be.fedict.commons.eid.client.simulation;
+package be.fedict.commons.eid.simulator;
 
 import javax.smartcardio.Card;
 import javax.smartcardio.CardException;
@@ -61,10 +61,18 @@ public class SimulatedCardTerminal extends CardTerminal {
 
 	@Override
 	public Card connect(final String protocol) throws CardException {
-		if (!isCardPresent()) {
+		final SimulatedCard connectedCard = this.card;
+		if (connectedCard == null) {
 			throw new CardException("No Card Present");
 		}
-		return this.card;
+
+		final LatencyModel model = connectedCard.getLatencyModel();
+		try {
+			model.delay(model.getConnectMicros());
+		} catch (final InterruptedException iex) {
+			throw new CardException("interrupted", iex);
+		}
+		return connectedCard;
 	}
 
 	@Override
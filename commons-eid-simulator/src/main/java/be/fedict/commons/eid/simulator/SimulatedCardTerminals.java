@@ -0,0 +1,207 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package be.fedict.commons.eid.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+public class SimulatedCardTerminals extends CardTerminals {
+	private Set<SimulatedCardTerminal> terminals;
+	// card presence per terminal, as seen by the last two calls to
+	// waitForChange, like the PCSC reader states
+	private Map<CardTerminal, Boolean> previousStates, currentStates;
+	// guards the above, so that attaching, detaching and card events don't
+	// need the monitor of this SimulatedCardTerminals
+	private final Object stateLock;
+	private volatile boolean holdMonitorWhileWaiting;
+
+	public SimulatedCardTerminals() {
+		this.terminals = new HashSet<SimulatedCardTerminal>();
+		this.stateLock = new Object();
+	}
+
+	/**
+	 * Hold the monitor of this SimulatedCardTerminals for as long as
+	 * waitForChange waits, and take it in list, as the PCSC implementation of
+	 * the JRE does: its list and waitForChange are synchronized, so that one
+	 * waits for the other to return. Like there, attaching a CardTerminal
+	 * does not end a waitForChange already waiting.
+	 * 
+	 * @param newHoldMonitorWhileWaiting
+	 *            true to behave like the PCSC implementation
+	 * @return this SimulatedCardTerminals to allow for method chaining.
+	 */
+	public SimulatedCardTerminals setHoldMonitorWhileWaiting(
+			final boolean newHoldMonitorWhileWaiting) {
+		this.holdMonitorWhileWaiting = newHoldMonitorWhileWaiting;
+		return this;
+	}
+
+	public SimulatedCardTerminals attachCardTerminal(
+			final SimulatedCardTerminal terminal) {
+		synchronized (this.stateLock) {
+			terminal.setTerminals(this);
+			this.terminals.add(terminal);
+			if (!this.holdMonitorWhileWaiting) {
+				this.stateLock.notifyAll();
+			}
+		}
+		return this;
+	}
+
+	public SimulatedCardTerminals detachCardTerminal(
+			final SimulatedCardTerminal terminal) {
+		synchronized (this.stateLock) {
+			terminal.setTerminals(null);
+			this.terminals.remove(terminal);
+			this.stateLock.notifyAll();
+		}
+		return this;
+	}
+
+	public SimulatedCardTerminals propagateCardEvent() {
+		synchronized (this.stateLock) {
+			this.stateLock.notifyAll();
+		}
+		return this;
+	}
+
+	@Override
+	public List<CardTerminal> list(final State state) throws CardException {
+		if (this.holdMonitorWhileWaiting) {
+			synchronized (this) {
+				return listTerminals(state);
+			}
+		}
+		return listTerminals(state);
+	}
+
+	@Override
+	public boolean waitForChange(final long timeout) throws CardException {
+		if (this.holdMonitorWhileWaiting) {
+			synchronized (this) {
+				return waitForStateChange(timeout);
+			}
+		}
+		return waitForStateChange(timeout);
+	}
+
+	private List<CardTerminal> listTerminals(final State state)
+			throws CardException {
+		synchronized (this.stateLock) {
+			switch (state) {
+				case ALL :
+					return Collections
+							.unmodifiableList(new ArrayList<CardTerminal>(
+									this.terminals));
+
+				case CARD_PRESENT : {
+					final ArrayList<CardTerminal> presentList = new ArrayList<CardTerminal>();
+					for (CardTerminal terminal : this.terminals) {
+						if (terminal.isCardPresent()) {
+							presentList.add(terminal);
+						}
+					}
+					return Collections.unmodifiableList(presentList);
+				}
+
+				case CARD_ABSENT : {
+					final ArrayList<CardTerminal> absentList = new ArrayList<CardTerminal>();
+					for (CardTerminal terminal : this.terminals) {
+						if (!terminal.isCardPresent()) {
+							absentList.add(terminal);
+						}
+					}
+					return Collections.unmodifiableList(absentList);
+				}
+
+				case CARD_INSERTION :
+				case CARD_REMOVAL : {
+					if (this.currentStates == null) {
+						// like the PCSC implementation: before waitForChange
+						// was called, these are simply CARD_PRESENT and
+						// CARD_ABSENT
+						return listTerminals(state == State.CARD_INSERTION
+								? State.CARD_PRESENT
+								: State.CARD_ABSENT);
+					}
+					final boolean inserted = state == State.CARD_INSERTION;
+					final ArrayList<CardTerminal> changedList = new ArrayList<CardTerminal>();
+					for (CardTerminal terminal : this.terminals) {
+						final Boolean previous = this.previousStates
+								.get(terminal);
+						final Boolean current = this.currentStates
+								.get(terminal);
+						final boolean wasPresent = previous != null
+								&& previous.booleanValue();
+						if (current != null
+								&& current.booleanValue() == inserted
+								&& wasPresent != inserted) {
+							changedList.add(terminal);
+						}
+					}
+					return Collections.unmodifiableList(changedList);
+				}
+
+				default :
+					throw new CardException("list with " + state
+							+ " not supported in SimulatedCardTerminals");
+
+			}
+		}
+	}
+
+	private boolean waitForStateChange(final long timeout)
+			throws CardException {
+		synchronized (this.stateLock) {
+			if (this.terminals.isEmpty()) {
+				// like the PCSC implementation, that won't wait without
+				// readers
+				throw new IllegalStateException("No terminals available");
+			}
+			if (this.currentStates == null) {
+				this.currentStates = cardStates();
+			}
+			try {
+				this.stateLock.wait(timeout);
+			} catch (final InterruptedException iex) {
+				return false;
+			}
+			this.previousStates = this.currentStates;
+			this.currentStates = cardStates();
+			return true;
+		}
+	}
+
+	private Map<CardTerminal, Boolean> cardStates() throws CardException {
+		final Map<CardTerminal, Boolean> cardStates = new HashMap<CardTerminal, Boolean>();
+		for (CardTerminal terminal : this.terminals) {
+			cardStates.put(terminal, terminal.isCardPresent());
+		}
+		return cardStates;
+	}
+}
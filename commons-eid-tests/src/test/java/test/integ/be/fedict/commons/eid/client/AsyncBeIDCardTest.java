@@ -0,0 +1,158 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.AsyncBeIDCard;
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.event.BeIDCardCallback;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class AsyncBeIDCardTest {
+	private class RecordingCallback<T> implements BeIDCardCallback<T> {
+		private final BlockingQueue<Object> outcomes = new LinkedBlockingQueue<Object>();
+
+		@Override
+		public void operationSucceeded(final T result) {
+			this.outcomes.add(result);
+		}
+
+		@Override
+		public void operationFailed(final Throwable cause) {
+			this.outcomes.add(cause);
+		}
+
+		public Object outcome() throws InterruptedException {
+			final Object outcome = this.outcomes.poll(5, TimeUnit.SECONDS);
+			assertNotNull("callback not called", outcome);
+			return outcome;
+		}
+	}
+
+	@Test
+	public void testReadFileAsync() throws Exception {
+		final AsyncBeIDCard asyncBeIDCard = new AsyncBeIDCard(new BeIDCard(
+				new SimulatedBeIDCard("Alice")));
+		final RecordingCallback<byte[]> callback = new RecordingCallback<byte[]>();
+
+		try {
+			final Future<byte[]> identity = asyncBeIDCard.readFileAsync(
+					FileType.Identity, callback);
+			final byte[] expected = IOUtils.toByteArray(AsyncBeIDCardTest.class
+					.getResourceAsStream("/Alice_Identity.tlv"));
+			assertArrayEquals(expected, identity.get());
+			assertArrayEquals(expected, (byte[]) callback.outcome());
+		} finally {
+			asyncBeIDCard.close();
+		}
+	}
+
+	@Test
+	public void testOperationFailed() throws Exception {
+		final SimulatedBeIDCard card = new SimulatedBeIDCard("Alice");
+		card.removeFile(FileType.Photo.getFileId());
+		final AsyncBeIDCard asyncBeIDCard = new AsyncBeIDCard(new BeIDCard(
+				card));
+		final RecordingCallback<byte[]> callback = new RecordingCallback<byte[]>();
+
+		try {
+			asyncBeIDCard.readFileAsync(FileType.Photo, callback);
+			assertTrue(callback.outcome() instanceof Exception);
+		} finally {
+			asyncBeIDCard.close();
+		}
+	}
+
+	@Test
+	public void testAbortCallsBackForEveryOperation() throws Exception {
+		final AsyncBeIDCard asyncBeIDCard = new AsyncBeIDCard(new BeIDCard(
+				new SimulatedBeIDCard("Alice")));
+		final CountDownLatch started = new CountDownLatch(1);
+		final RecordingCallback<Object> blockingCallback = new RecordingCallback<Object>();
+
+		// occupies the executor thread until interrupted
+		asyncBeIDCard.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				started.countDown();
+				Thread.sleep(60000);
+				return null;
+			}
+		}, blockingCallback);
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		final List<RecordingCallback<byte[]>> queuedCallbacks = new ArrayList<RecordingCallback<byte[]>>();
+		final List<Future<byte[]>> queued = new ArrayList<Future<byte[]>>();
+		for (int i = 0; i < 3; i++) {
+			final RecordingCallback<byte[]> callback = new RecordingCallback<byte[]>();
+			queuedCallbacks.add(callback);
+			queued.add(asyncBeIDCard.readFileAsync(FileType.Identity, callback));
+		}
+
+		asyncBeIDCard.abort();
+
+		assertTrue(blockingCallback.outcome() instanceof InterruptedException);
+		for (int i = 0; i < queued.size(); i++) {
+			assertTrue(queued.get(i).isCancelled());
+			assertEquals(CancellationException.class, queuedCallbacks.get(i)
+					.outcome().getClass());
+		}
+	}
+
+	@Test
+	public void testSubmitAfterCloseFails() throws Exception {
+		final AsyncBeIDCard asyncBeIDCard = new AsyncBeIDCard(new BeIDCard(
+				new SimulatedBeIDCard("Alice")));
+		asyncBeIDCard.close();
+
+		final RecordingCallback<byte[]> callback = new RecordingCallback<byte[]>();
+		final Future<byte[]> identity = asyncBeIDCard.readFileAsync(
+				FileType.Identity, callback);
+		assertTrue(identity.isDone());
+		assertTrue(callback.outcome() instanceof RejectedExecutionException);
+		try {
+			identity.get();
+			fail("operation executed after close");
+		} catch (final ExecutionException eex) {
+			assertTrue(eex.getCause() instanceof RejectedExecutionException);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardTerminal;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.BeIDCardManager;
+import be.fedict.commons.eid.client.CardAndTerminalManager;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.event.BeIDCardEventsListener;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminal;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminals;
+
+public class BeIDCardPrefetchTest {
+	private static final EnumSet<FileType> PREFETCHED = EnumSet.of(
+			FileType.Photo, FileType.AuthentificationCertificate,
+			FileType.NonRepudiationCertificate, FileType.CACertificate,
+			FileType.RootCertificate);
+
+	@Test
+	public void testForegroundPreemptsPrefetch() throws Exception {
+		final SimulatedBeIDCard simulatedBeIDCard = new SimulatedBeIDCard(
+				"Alice");
+		simulatedBeIDCard.setLatencyModel(new LatencyModel()
+				.setMicrosPerAPDU(2000));
+		final BeIDCard beIDCard = new BeIDCard(simulatedBeIDCard);
+		final Thread prefetchThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					beIDCard.prefetchFiles(PREFETCHED);
+				} catch (final Exception ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		};
+		prefetchThread.start();
+
+		for (int i = 0; i < 5; i++) {
+			assertArrayEquals(getFile("Alice_Identity"),
+					beIDCard.readFile(FileType.Identity));
+		}
+		prefetchThread.join(10000);
+		assertFalse(prefetchThread.isAlive());
+		assertArrayEquals(getFile("Alice_Photo"),
+				beIDCard.readFile(FileType.Photo));
+	}
+
+	@Test
+	public void testStopEndsPrefetch() throws Exception {
+		final SimulatedCardTerminals simulatedCardTerminals = new SimulatedCardTerminals();
+		final SimulatedCardTerminal simulatedCardTerminal = new SimulatedCardTerminal(
+				"Fedix SCR 0");
+		final SimulatedBeIDCard simulatedBeIDCard = new SimulatedBeIDCard(
+				"Alice");
+		simulatedBeIDCard.setLatencyModel(new LatencyModel()
+				.setMicrosPerAPDU(20000));
+		simulatedCardTerminals.attachCardTerminal(simulatedCardTerminal);
+		simulatedCardTerminal.insertCard(simulatedBeIDCard);
+
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), simulatedCardTerminals);
+		final BeIDCardManager beIDCardManager = new BeIDCardManager(
+				new TestLogger(), cardAndTerminalManager);
+		beIDCardManager.setPrefetchFileTypes(PREFETCHED);
+		final CountDownLatch inserted = new CountDownLatch(1);
+		beIDCardManager.addBeIDCardEventListener(new BeIDCardEventsListener() {
+			@Override
+			public void eIDCardInserted(final CardTerminal cardTerminal,
+					final BeIDCard card) {
+				inserted.countDown();
+			}
+
+			@Override
+			public void eIDCardRemoved(final CardTerminal cardTerminal,
+					final BeIDCard card) {
+			}
+
+			@Override
+			public void eIDCardEventsInitialized() {
+			}
+		});
+		cardAndTerminalManager.start();
+		beIDCardManager.start();
+		assertTrue(inserted.await(5, TimeUnit.SECONDS));
+		assertTrue(isPrefetching());
+
+		beIDCardManager.stop();
+		assertFalse(isPrefetching());
+		cardAndTerminalManager.stop();
+	}
+
+	private static boolean isPrefetching() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("BeIDCardManager prefetch")
+					&& thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static byte[] getFile(final String name) throws Exception {
+		return IOUtils.toByteArray(BeIDCardPrefetchTest.class
+				.getResourceAsStream("/" + name + ".tlv"));
+	}
+}
@@ -28,6 +28,8 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.EnumSet;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,6 +45,7 @@ import be.fedict.commons.eid.client.impl.BeIDDigest;
 import be.fedict.commons.eid.consumer.Address;
 import be.fedict.commons.eid.consumer.BeIDIntegrity;
 import be.fedict.commons.eid.consumer.Identity;
+import be.fedict.commons.eid.consumer.tlv.TlvParser;
 
 public class BeIDCardTest {
 	protected static final Log LOG = LogFactory.getLog(BeIDCardTest.class);
@@ -80,6 +83,52 @@ public class BeIDCardTest {
 		assertNotNull(identity.getNationalNumber());
 	}
 
+	@Test
+	public void testReadFilesInOneTransaction() throws Exception {
+		final BeIDCard beIDCard = getBeIDCard();
+		beIDCard.addCardListener(new TestBeIDCardListener());
+
+		LOG.debug("reading identity, signature, photo and RRN files");
+		final Map<FileType, byte[]> files = beIDCard.readFiles(EnumSet.of(
+				FileType.Identity, FileType.IdentitySignature, FileType.Photo,
+				FileType.RRNCertificate));
+
+		final CertificateFactory certificateFactory = CertificateFactory
+				.getInstance("X.509");
+		final X509Certificate rrnCertificate = (X509Certificate) certificateFactory
+				.generateCertificate(new ByteArrayInputStream(files
+						.get(FileType.RRNCertificate)));
+
+		beIDCard.close();
+
+		final BeIDIntegrity beIDIntegrity = new BeIDIntegrity();
+		final Identity identity = beIDIntegrity.getVerifiedIdentity(
+				files.get(FileType.Identity),
+				files.get(FileType.IdentitySignature),
+				files.get(FileType.Photo), rrnCertificate);
+
+		assertNotNull(identity);
+		assertNotNull(identity.getNationalNumber());
+	}
+
+	@Test
+	public void testReadIdentityFields() throws Exception {
+		final BeIDCard beIDCard = getBeIDCard();
+
+		LOG.debug("reading card number, chip number and national number");
+		final byte[] identityFields = beIDCard.readFileFields(
+				FileType.Identity, 1, 2, 6);
+
+		beIDCard.close();
+
+		LOG.debug("read " + identityFields.length + " bytes");
+		final Identity identity = TlvParser.parse(identityFields,
+				Identity.class);
+		assertNotNull(identity.getCardNumber());
+		assertNotNull(identity.getChipNumber());
+		assertNotNull(identity.getNationalNumber());
+	}
+
 	@Test
 	public void testAddressFileValidation() throws Exception {
 		final BeIDCard beIDCard = getBeIDCard();
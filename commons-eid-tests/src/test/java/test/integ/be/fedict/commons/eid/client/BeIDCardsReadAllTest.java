@@ -0,0 +1,125 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCards;
+import be.fedict.commons.eid.client.CardReadResult;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.event.CardReadListener;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminal;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminals;
+
+public class BeIDCardsReadAllTest {
+	private static final int NUMBER_OF_CARDS = 8;
+	private static final EnumSet<FileType> FILES = EnumSet.of(
+			FileType.Identity, FileType.Address, FileType.Photo);
+
+	@Test
+	public void testReadAllInParallel() throws Exception {
+		// shared by all cards, to count how many of them answer at once
+		final LatencyModel latencyModel = new LatencyModel()
+				.setMicrosPerAPDU(2000);
+		final SimulatedCardTerminals simulatedCardTerminals = new SimulatedCardTerminals();
+		for (int i = 0; i < NUMBER_OF_CARDS; i++) {
+			final SimulatedCardTerminal simulatedCardTerminal = new SimulatedCardTerminal(
+					"Fedix SCR " + i);
+			final SimulatedBeIDCard simulatedBeIDCard = new SimulatedBeIDCard(
+					"Alice");
+			simulatedBeIDCard.setLatencyModel(latencyModel);
+			simulatedCardTerminals.attachCardTerminal(simulatedCardTerminal);
+			simulatedCardTerminal.insertCard(simulatedBeIDCard);
+		}
+
+		final BeIDCards beIDCards = new BeIDCards(new TestLogger(), null,
+				simulatedCardTerminals);
+		assertEquals(NUMBER_OF_CARDS, beIDCards.getAllBeIDCards().size());
+
+		final List<CardReadResult> streamed = new ArrayList<CardReadResult>();
+		final List<CardReadResult> results = beIDCards.readAll(FILES,
+				new CardReadListener() {
+					@Override
+					public void cardRead(final CardReadResult result) {
+						streamed.add(result);
+					}
+				});
+		beIDCards.close();
+
+		assertEquals(NUMBER_OF_CARDS, results.size());
+		assertEquals(results, streamed);
+		for (CardReadResult result : results) {
+			assertTrue(result.isSuccessful());
+			for (FileType fileType : FILES) {
+				assertArrayEquals(IOUtils.toByteArray(BeIDCardsReadAllTest.class
+						.getResourceAsStream("/Alice_" + fileType + ".tlv")),
+						result.getFiles().get(fileType));
+			}
+		}
+
+		assertTrue("at most " + latencyModel.getPeakDelaysInProgress()
+				+ " cards read at once",
+				latencyModel.getPeakDelaysInProgress() >= NUMBER_OF_CARDS / 2);
+	}
+
+	@Test
+	public void testReadOneInterrupted() throws Exception {
+		final SimulatedCardTerminals simulatedCardTerminals = new SimulatedCardTerminals();
+		final SimulatedCardTerminal simulatedCardTerminal = new SimulatedCardTerminal(
+				"Fedix SCR 0");
+		simulatedCardTerminals.attachCardTerminal(simulatedCardTerminal);
+		simulatedCardTerminal.insertCard(new SimulatedBeIDCard("Alice"));
+
+		final BeIDCards beIDCards = new BeIDCards(new TestLogger(), null,
+				simulatedCardTerminals);
+		assertEquals(1, beIDCards.getAllBeIDCards().size());
+
+		final List<CardReadResult> streamed = new ArrayList<CardReadResult>();
+		Thread.currentThread().interrupt();
+		try {
+			beIDCards.readAll(FILES, new CardReadListener() {
+				@Override
+				public void cardRead(final CardReadResult result) {
+					streamed.add(result);
+				}
+			});
+			fail("readAll returned although interrupted");
+		} catch (final InterruptedException iex) {
+			assertFalse(Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+			beIDCards.close();
+		}
+		assertTrue(streamed.isEmpty());
+	}
+}
@@ -0,0 +1,344 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardTerminal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.CardAndTerminalEventPublisher;
+import be.fedict.commons.eid.client.CardAndTerminalManager;
+import be.fedict.commons.eid.client.event.CardAndTerminalEvent;
+import be.fedict.commons.eid.client.event.OverflowPolicy;
+import be.fedict.commons.eid.client.event.Subscriber;
+import be.fedict.commons.eid.client.event.Subscription;
+import be.fedict.commons.eid.simulator.SimulatedCard;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminal;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminals;
+
+public class CardAndTerminalEventPublisherTest {
+	private static final int NUMBER_OF_TERMINALS = 3;
+	private static final Object COMPLETE = new Object();
+
+	private List<SimulatedCardTerminal> simulatedCardTerminal;
+	private SimulatedCardTerminals simulatedCardTerminals;
+
+	@Before
+	public void setUp() {
+		this.simulatedCardTerminals = new SimulatedCardTerminals();
+		this.simulatedCardTerminal = new ArrayList<SimulatedCardTerminal>(
+				NUMBER_OF_TERMINALS);
+		for (int i = 0; i < NUMBER_OF_TERMINALS; i++) {
+			this.simulatedCardTerminal.add(new SimulatedCardTerminal(
+					"Fedix SCR " + i));
+		}
+	}
+
+	private SimulatedCard newCard(final int i) {
+		return new SimulatedCard(new ATR(new byte[]{0x3b, (byte) 0x98,
+				(byte) i, 0x40, (byte) i, (byte) i, (byte) i, (byte) i, 0x01,
+				0x01, (byte) 0xad, 0x13, 0x10}));
+	}
+
+	private class RecordingSubscriber
+			implements
+				Subscriber<CardAndTerminalEvent> {
+		private final long initialRequest;
+		private final BlockingQueue<Object> received;
+		private volatile Subscription subscription;
+
+		public RecordingSubscriber(final long initialRequest) {
+			this.initialRequest = initialRequest;
+			this.received = new LinkedBlockingQueue<Object>();
+		}
+
+		@Override
+		public void onSubscribe(final Subscription newSubscription) {
+			this.subscription = newSubscription;
+			if (this.initialRequest > 0) {
+				newSubscription.request(this.initialRequest);
+			}
+		}
+
+		@Override
+		public void onNext(final CardAndTerminalEvent event) {
+			this.received.add(event);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+			this.received.add(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			this.received.add(COMPLETE);
+		}
+
+		public Object next() throws InterruptedException {
+			final Object next = this.received.poll(5, TimeUnit.SECONDS);
+			assertNotNull("nothing received", next);
+			return next;
+		}
+
+		public CardAndTerminalEvent nextEvent() throws InterruptedException {
+			return (CardAndTerminalEvent) next();
+		}
+
+		public CardAndTerminalEvent nextEvent(
+				final CardAndTerminalEvent.Type type)
+				throws InterruptedException {
+			while (true) {
+				final CardAndTerminalEvent event = nextEvent();
+				if (event.getType() == type) {
+					return event;
+				}
+			}
+		}
+
+		public void assertNothingReceived() throws InterruptedException {
+			assertNull(this.received.poll(250, TimeUnit.MILLISECONDS));
+		}
+	}
+
+	@Test
+	public void testSnapshotOnSubscribe() throws Exception {
+		for (SimulatedCardTerminal terminal : this.simulatedCardTerminal) {
+			this.simulatedCardTerminals.attachCardTerminal(terminal);
+		}
+		this.simulatedCardTerminal.get(0).insertCard(newCard(0));
+		this.simulatedCardTerminal.get(1).insertCard(newCard(1));
+
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final CardAndTerminalEventPublisher publisher = new CardAndTerminalEventPublisher(
+				new TestLogger(), cardAndTerminalManager);
+		final RecordingSubscriber early = new RecordingSubscriber(
+				Long.MAX_VALUE);
+		publisher.subscribe(early);
+		cardAndTerminalManager.start();
+
+		try {
+			// subscribed before anything happened: an empty snapshot
+			early.nextEvent(CardAndTerminalEvent.Type.INITIALIZED);
+
+			final RecordingSubscriber late = new RecordingSubscriber(
+					Long.MAX_VALUE);
+			publisher.subscribe(late);
+
+			final Set<CardTerminal> attached = new HashSet<CardTerminal>();
+			for (int i = 0; i < NUMBER_OF_TERMINALS; i++) {
+				final CardAndTerminalEvent event = late.nextEvent();
+				assertEquals(CardAndTerminalEvent.Type.TERMINAL_ATTACHED,
+						event.getType());
+				assertTrue(event.isSnapshot());
+				attached.add(event.getCardTerminal());
+			}
+			assertEquals(new HashSet<CardTerminal>(this.simulatedCardTerminal),
+					attached);
+
+			final Set<CardTerminal> inserted = new HashSet<CardTerminal>();
+			for (int i = 0; i < 2; i++) {
+				final CardAndTerminalEvent event = late.nextEvent();
+				assertEquals(CardAndTerminalEvent.Type.CARD_INSERTED,
+						event.getType());
+				assertTrue(event.isSnapshot());
+				assertNotNull(event.getCard());
+				inserted.add(event.getCardTerminal());
+			}
+			assertTrue(inserted.contains(this.simulatedCardTerminal.get(0)));
+			assertTrue(inserted.contains(this.simulatedCardTerminal.get(1)));
+
+			CardAndTerminalEvent event = late.nextEvent();
+			assertEquals(CardAndTerminalEvent.Type.INITIALIZED,
+					event.getType());
+			assertTrue(event.isSnapshot());
+
+			// then the deltas
+			this.simulatedCardTerminal.get(2).insertCard(newCard(2));
+			event = late.nextEvent();
+			assertEquals(CardAndTerminalEvent.Type.CARD_INSERTED,
+					event.getType());
+			assertFalse(event.isSnapshot());
+			assertSame(this.simulatedCardTerminal.get(2),
+					event.getCardTerminal());
+		} finally {
+			cardAndTerminalManager.stop();
+			publisher.close();
+		}
+	}
+
+	@Test
+	public void testDemand() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final CardAndTerminalEventPublisher publisher = new CardAndTerminalEventPublisher(
+				new TestLogger(), cardAndTerminalManager);
+		final RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		publisher.subscribe(subscriber);
+		cardAndTerminalManager.start();
+
+		try {
+			assertEquals(CardAndTerminalEvent.Type.INITIALIZED, subscriber
+					.nextEvent().getType());
+
+			this.simulatedCardTerminals
+					.attachCardTerminal(this.simulatedCardTerminal.get(0));
+			this.simulatedCardTerminals
+					.attachCardTerminal(this.simulatedCardTerminal.get(1));
+			subscriber.assertNothingReceived();
+
+			subscriber.subscription.request(1);
+			assertEquals(CardAndTerminalEvent.Type.TERMINAL_ATTACHED,
+					subscriber.nextEvent().getType());
+			subscriber.assertNothingReceived();
+
+			subscriber.subscription.request(1);
+			assertEquals(CardAndTerminalEvent.Type.TERMINAL_ATTACHED,
+					subscriber.nextEvent().getType());
+
+			publisher.close();
+			assertSame(COMPLETE, subscriber.next());
+		} finally {
+			cardAndTerminalManager.stop();
+			publisher.close();
+		}
+	}
+
+	@Test
+	public void testSlowSubscriberDropsOldest() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final CardAndTerminalEventPublisher publisher = new CardAndTerminalEventPublisher(
+				new TestLogger(), cardAndTerminalManager);
+		final RecordingSubscriber fast = new RecordingSubscriber(
+				Long.MAX_VALUE);
+		final RecordingSubscriber slow = new RecordingSubscriber(0);
+		publisher.subscribe(fast);
+		publisher.subscribe(slow, 2, OverflowPolicy.DROP_OLDEST);
+		cardAndTerminalManager.start();
+
+		try {
+			fast.nextEvent(CardAndTerminalEvent.Type.INITIALIZED);
+			for (SimulatedCardTerminal terminal : this.simulatedCardTerminal) {
+				this.simulatedCardTerminals.attachCardTerminal(terminal);
+				assertSame(terminal,
+						fast.nextEvent(
+								CardAndTerminalEvent.Type.TERMINAL_ATTACHED)
+								.getCardTerminal());
+			}
+
+			// the slow subscriber's buffer held INITIALIZED and the attaches,
+			// only the last 2 remain.
+			assertEquals(NUMBER_OF_TERMINALS - 1, publisher.getDroppedEvents());
+			slow.subscription.request(Long.MAX_VALUE);
+			assertSame(this.simulatedCardTerminal.get(NUMBER_OF_TERMINALS - 2),
+					slow.nextEvent().getCardTerminal());
+			assertSame(this.simulatedCardTerminal.get(NUMBER_OF_TERMINALS - 1),
+					slow.nextEvent().getCardTerminal());
+			slow.assertNothingReceived();
+		} finally {
+			cardAndTerminalManager.stop();
+			publisher.close();
+		}
+	}
+
+	@Test
+	public void testSlowSubscriberFails() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final CardAndTerminalEventPublisher publisher = new CardAndTerminalEventPublisher(
+				new TestLogger(), cardAndTerminalManager);
+		final RecordingSubscriber slow = new RecordingSubscriber(0);
+		publisher.subscribe(slow, 1, OverflowPolicy.FAIL);
+		cardAndTerminalManager.start();
+
+		try {
+			this.simulatedCardTerminals
+					.attachCardTerminal(this.simulatedCardTerminal.get(0));
+			assertTrue(slow.next() instanceof IllegalStateException);
+			slow.subscription.request(1);
+			slow.assertNothingReceived();
+		} finally {
+			cardAndTerminalManager.stop();
+			publisher.close();
+		}
+	}
+
+	@Test
+	public void testSubscribersHaveTheirOwnBuffers() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final CardAndTerminalEventPublisher publisher = new CardAndTerminalEventPublisher(
+				new TestLogger(), cardAndTerminalManager);
+		final RecordingSubscriber fast = new RecordingSubscriber(
+				Long.MAX_VALUE);
+		final RecordingSubscriber failing = new RecordingSubscriber(0);
+		final RecordingSubscriber dropping = new RecordingSubscriber(0);
+		final RecordingSubscriber buffering = new RecordingSubscriber(0);
+		publisher.subscribe(fast);
+		publisher.subscribe(failing, 1, OverflowPolicy.FAIL);
+		publisher.subscribe(dropping, 1, OverflowPolicy.DROP_NEWEST);
+		publisher.subscribe(buffering);
+		cardAndTerminalManager.start();
+
+		try {
+			fast.nextEvent(CardAndTerminalEvent.Type.INITIALIZED);
+			for (SimulatedCardTerminal terminal : this.simulatedCardTerminal) {
+				this.simulatedCardTerminals.attachCardTerminal(terminal);
+				fast.nextEvent(CardAndTerminalEvent.Type.TERMINAL_ATTACHED);
+			}
+			assertTrue(failing.next() instanceof IllegalStateException);
+
+			dropping.subscription.request(Long.MAX_VALUE);
+			assertEquals(CardAndTerminalEvent.Type.INITIALIZED, dropping
+					.nextEvent().getType());
+			dropping.assertNothingReceived();
+
+			// the default: every event, without gaps
+			buffering.subscription.request(Long.MAX_VALUE);
+			assertEquals(CardAndTerminalEvent.Type.INITIALIZED, buffering
+					.nextEvent().getType());
+			for (SimulatedCardTerminal terminal : this.simulatedCardTerminal) {
+				assertSame(terminal, buffering.nextEvent().getCardTerminal());
+			}
+		} finally {
+			cardAndTerminalManager.stop();
+			publisher.close();
+		}
+	}
+}
@@ -28,6 +28,11 @@
 
 package test.integ.be.fedict.commons.eid.client;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,17 +40,30 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.smartcardio.ATR;
 import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
 import org.junit.Before;
 import org.junit.Test;
-import test.integ.be.fedict.commons.eid.client.simulation.SimulatedCard;
-import test.integ.be.fedict.commons.eid.client.simulation.SimulatedCardTerminal;
-import test.integ.be.fedict.commons.eid.client.simulation.SimulatedCardTerminals;
 import be.fedict.commons.eid.client.CardAndTerminalManager;
 import be.fedict.commons.eid.client.event.CardEventsListener;
 import be.fedict.commons.eid.client.event.CardTerminalEventsListener;
+import be.fedict.commons.eid.client.impl.AdaptivePollingPolicy;
+import be.fedict.commons.eid.client.impl.CardAndTerminalManagerStatistics;
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.client.impl.EventDispatcher;
+import be.fedict.commons.eid.client.impl.MBeans;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedCard;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminal;
+import be.fedict.commons.eid.simulator.SimulatedCardTerminals;
 
 public class CardAndTerminalManagerTests {
 	private static final int numberOfTerminals = 16;
@@ -208,6 +226,67 @@ public class CardAndTerminalManagerTests {
 		assertEquals(expectedState, recorder.getRecordedState());
 	}
 
+	@Test
+	public void testNoCardTerminalsIsIdle() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		cardAndTerminalManager.setPollingPolicy(new AdaptivePollingPolicy()
+				.setActiveMillis(50).setIdleMillis(200)
+				.setActivePeriodMillis(0).setMaxBackOffMillis(60000));
+		final RecordKeepingCardTerminalEventsListener recorder = new RecordKeepingCardTerminalEventsListener();
+		cardAndTerminalManager.addCardTerminalListener(recorder);
+		cardAndTerminalManager.start();
+
+		// long enough to back off beyond the idle interval, if it would
+		Thread.sleep(1000);
+		final long start = System.currentTimeMillis();
+		this.simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal
+				.get(0));
+		awaitState(new HashSet<CardTerminal>(this.simulatedCardTerminal.subList(
+				0, 1)), recorder);
+		final long elapsed = System.currentTimeMillis() - start;
+		final CardAndTerminalManagerStatistics statistics = cardAndTerminalManager
+				.getStatistics();
+		cardAndTerminalManager.stop();
+
+		assertTrue("attach noticed after " + elapsed + " ms", elapsed < 1000);
+		assertEquals(0L, statistics.getBackOffs());
+		assertEquals(0L, statistics.getSubSystemUnavailablePeriods());
+	}
+
+	@Test
+	public void testEventDrivenBacksOffWhilePCSCFails() throws Exception {
+		final CardTerminals failingCardTerminals = new CardTerminals() {
+			@Override
+			public List<CardTerminal> list(final State state)
+					throws CardException {
+				throw new CardException("SCARD_E_NO_SERVICE");
+			}
+
+			@Override
+			public boolean waitForChange(final long timeout)
+					throws CardException {
+				throw new CardException("SCARD_E_NO_SERVICE");
+			}
+		};
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), failingCardTerminals);
+		cardAndTerminalManager
+				.setMode(CardAndTerminalManager.MODE.EVENT_DRIVEN);
+		cardAndTerminalManager.setPollingPolicy(new AdaptivePollingPolicy()
+				.setActiveMillis(10).setMaxBackOffMillis(10000));
+		cardAndTerminalManager.start();
+		Thread.sleep(1000);
+		final CardAndTerminalManagerStatistics statistics = cardAndTerminalManager
+				.getStatistics();
+		cardAndTerminalManager.stop();
+
+		// 10, 20, 40, ... ms: without growing, that would be 100 back-offs
+		assertTrue("backed off " + statistics.getBackOffs() + " times",
+				statistics.getBackOffs() <= 8);
+		assertTrue(statistics.getBackOffMillis() >= 500);
+	}
+
 	@Test
 	public void testCardInsertRemoveDetection() throws Exception {
 		final Random random = new Random(0);
@@ -290,6 +369,357 @@ public class CardAndTerminalManagerTests {
 		assertEquals(expectedState, recorder.getRecordedState());
 	}
 
+	@Test
+	public void testEventDrivenDetection() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		cardAndTerminalManager
+				.setMode(CardAndTerminalManager.MODE.EVENT_DRIVEN);
+		final RecordKeepingCardTerminalEventsListener terminalRecorder = new RecordKeepingCardTerminalEventsListener();
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		cardAndTerminalManager.addCardTerminalListener(terminalRecorder);
+		cardAndTerminalManager.addCardListener(cardRecorder);
+		cardAndTerminalManager
+				.addCardListener(new NPEProneCardEventsListener());
+
+		// a card already present at start must be reported initially
+		final SimulatedCardTerminal firstTerminal = this.simulatedCardTerminal
+				.get(0);
+		this.simulatedCardTerminals.attachCardTerminal(firstTerminal);
+		firstTerminal.insertCard(this.simulatedBeIDCard.get(0));
+		cardAndTerminalManager.start();
+
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		expectedState.put(firstTerminal, this.simulatedBeIDCard.get(0));
+		awaitState(expectedState, cardRecorder);
+
+		for (int i = 1; i < numberOfTerminals; i++) {
+			this.simulatedCardTerminals
+					.attachCardTerminal(this.simulatedCardTerminal.get(i));
+		}
+		awaitState(new HashSet<CardTerminal>(this.simulatedCardTerminal),
+				terminalRecorder);
+
+		for (int round = 0; round < 10; round++) {
+			for (int i = 1; i < numberOfTerminals; i++) {
+				final SimulatedCardTerminal terminal = this.simulatedCardTerminal
+						.get(i);
+				final SimulatedCard card = this.simulatedBeIDCard
+						.get((i + round) % numberOfCards);
+				if (expectedState.containsValue(card)) {
+					continue;
+				}
+				terminal.insertCard(card);
+				expectedState.put(terminal, card);
+				awaitState(expectedState, cardRecorder);
+			}
+			for (int i = 1; i < numberOfTerminals; i++) {
+				final SimulatedCardTerminal terminal = this.simulatedCardTerminal
+						.get(i);
+				if (expectedState.remove(terminal) != null) {
+					terminal.removeCard();
+					awaitState(expectedState, cardRecorder);
+				}
+			}
+		}
+
+		// detaching a terminal with a card removes the card first
+		this.simulatedCardTerminals.detachCardTerminal(firstTerminal);
+		expectedState.remove(firstTerminal);
+		awaitState(expectedState, cardRecorder);
+
+		cardAndTerminalManager.stop();
+		assertEquals(expectedState, cardRecorder.getRecordedState());
+		assertEquals(numberOfTerminals - 1, terminalRecorder.getRecordedState()
+				.size());
+	}
+
+	@Test
+	public void testEventDrivenWithSynchronizedCardTerminals()
+			throws Exception {
+		// like the PCSC implementation: list waits for waitForChange
+		this.simulatedCardTerminals.setHoldMonitorWhileWaiting(true);
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		cardAndTerminalManager
+				.setMode(CardAndTerminalManager.MODE.EVENT_DRIVEN);
+		cardAndTerminalManager.setPollingPolicy(new AdaptivePollingPolicy()
+				.setActiveMillis(50).setIdleMillis(200)
+				.setActivePeriodMillis(0));
+		final RecordKeepingCardTerminalEventsListener terminalRecorder = new RecordKeepingCardTerminalEventsListener();
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		cardAndTerminalManager.addCardTerminalListener(terminalRecorder);
+		cardAndTerminalManager.addCardListener(cardRecorder);
+		this.simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal
+				.get(0));
+		cardAndTerminalManager.start();
+		awaitState(new HashSet<CardTerminal>(this.simulatedCardTerminal.subList(
+				0, 1)), terminalRecorder);
+
+		long start = System.currentTimeMillis();
+		this.simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal
+				.get(1));
+		awaitState(new HashSet<CardTerminal>(this.simulatedCardTerminal.subList(
+				0, 2)), terminalRecorder);
+		final long attachMillis = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		this.simulatedCardTerminal.get(1).insertCard(
+				this.simulatedBeIDCard.get(1));
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		expectedState.put(this.simulatedCardTerminal.get(1),
+				this.simulatedBeIDCard.get(1));
+		awaitState(expectedState, cardRecorder);
+		final long insertMillis = System.currentTimeMillis() - start;
+		cardAndTerminalManager.stop();
+
+		// the reader list is polled as often as the PollingPolicy decides,
+		// not when waitForChange lets go of the CardTerminals
+		assertTrue("attach noticed after " + attachMillis + " ms",
+				attachMillis < 1000);
+		assertTrue("insert noticed after " + insertMillis + " ms",
+				insertMillis < 1000);
+	}
+
+	@Test
+	public void testIgnoreCardEventsFor() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		cardAndTerminalManager.addCardListener(cardRecorder);
+
+		final SimulatedCardTerminal ignoredTerminal = this.simulatedCardTerminal
+				.get(0);
+		final SimulatedCardTerminal otherTerminal = this.simulatedCardTerminal
+				.get(1);
+		this.simulatedCardTerminals.attachCardTerminal(ignoredTerminal);
+		this.simulatedCardTerminals.attachCardTerminal(otherTerminal);
+		ignoredTerminal.insertCard(this.simulatedBeIDCard.get(0));
+		otherTerminal.insertCard(this.simulatedBeIDCard.get(1));
+
+		cardAndTerminalManager.ignoreCardEventsFor(ignoredTerminal.getName());
+		cardAndTerminalManager.start();
+
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		expectedState.put(otherTerminal, this.simulatedBeIDCard.get(1));
+		awaitState(expectedState, cardRecorder);
+
+		// changes while ignored are not reported
+		ignoredTerminal.removeCard();
+		ignoredTerminal.insertCard(this.simulatedBeIDCard.get(2));
+		otherTerminal.removeCard();
+		expectedState.remove(otherTerminal);
+		awaitState(expectedState, cardRecorder);
+
+		// accepting events again reports the card now present
+		cardAndTerminalManager.acceptCardEventsFor(ignoredTerminal.getName());
+		expectedState.put(ignoredTerminal, this.simulatedBeIDCard.get(2));
+		awaitState(expectedState, cardRecorder);
+
+		// ignoring again makes it look removed
+		cardAndTerminalManager.ignoreCardEventsFor("Fedix");
+		expectedState.clear();
+		awaitState(expectedState, cardRecorder);
+
+		cardAndTerminalManager.stop();
+		assertEquals(expectedState, cardRecorder.getRecordedState());
+	}
+
+	@Test
+	public void testExecutorDispatch() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		cardAndTerminalManager.setExecutor(executor);
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		final SimulatedCardTerminal blockedTerminal = this.simulatedCardTerminal
+				.get(0);
+		final SimulatedCardTerminal otherTerminal = this.simulatedCardTerminal
+				.get(1);
+		final CountDownLatch initialized = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		cardAndTerminalManager.addCardListener(new CardEventsListener() {
+			@Override
+			public void cardInserted(final CardTerminal cardTerminal,
+					final Card card) {
+				if (cardTerminal == blockedTerminal) {
+					try {
+						release.await();
+					} catch (final InterruptedException iex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+
+			@Override
+			public void cardRemoved(final CardTerminal cardTerminal) {
+			}
+
+			@Override
+			public void cardEventsInitialized() {
+				initialized.countDown();
+			}
+		});
+		cardAndTerminalManager.addCardListener(cardRecorder);
+		this.simulatedCardTerminals.attachCardTerminal(blockedTerminal);
+		this.simulatedCardTerminals.attachCardTerminal(otherTerminal);
+		cardAndTerminalManager.start();
+		initialized.await();
+
+		// a listener blocked on one CardTerminal doesn't hold up the others
+		blockedTerminal.insertCard(this.simulatedBeIDCard.get(0));
+		Thread.sleep(100);
+		otherTerminal.insertCard(this.simulatedBeIDCard.get(1));
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		expectedState.put(otherTerminal, this.simulatedBeIDCard.get(1));
+		awaitState(expectedState, cardRecorder);
+
+		// events for the blocked CardTerminal are queued, in order: the
+		// insertion still being delivered, and the removal
+		blockedTerminal.removeCard();
+		final EventDispatcher eventDispatcher = cardAndTerminalManager
+				.getEventDispatcher();
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline
+				&& eventDispatcher.getQueueDepth() < 2) {
+			Thread.sleep(1);
+		}
+		assertEquals(2, eventDispatcher.getQueueDepth());
+		release.countDown();
+		eventDispatcher.awaitDelivery();
+
+		cardAndTerminalManager.stop();
+		executor.shutdown();
+		assertEquals(expectedState, cardRecorder.getRecordedState());
+		assertEquals(0, eventDispatcher.getQueueDepth());
+		assertTrue(eventDispatcher.getPeakQueueDepth() >= 2);
+		assertTrue(eventDispatcher.getListenerCalls() > 0);
+	}
+
+	@Test
+	public void testParallelConnect() throws Exception {
+		final long connectMicros = 200000;
+		final int numberOfInserts = 8;
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		cardAndTerminalManager.addCardListener(cardRecorder);
+		// shared by all cards, to count how many are connected to at once
+		final LatencyModel latencyModel = new LatencyModel()
+				.setConnectMicros(connectMicros);
+		for (int i = 0; i < numberOfInserts; i++) {
+			this.simulatedCardTerminals
+					.attachCardTerminal(this.simulatedCardTerminal.get(i));
+			this.simulatedBeIDCard.get(i).setLatencyModel(latencyModel);
+		}
+		cardAndTerminalManager.start();
+		Thread.sleep(500);
+
+		// cards inserted at once are connected to in parallel, not one after
+		// the other
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		for (int i = 0; i < numberOfInserts; i++) {
+			this.simulatedCardTerminal.get(i).insertCard(
+					this.simulatedBeIDCard.get(i));
+			expectedState.put(this.simulatedCardTerminal.get(i),
+					this.simulatedBeIDCard.get(i));
+		}
+		awaitState(expectedState, cardRecorder);
+		cardAndTerminalManager.stop();
+
+		assertTrue("at most " + latencyModel.getPeakDelaysInProgress()
+				+ " cards connected to at once",
+				latencyModel.getPeakDelaysInProgress() >= numberOfInserts / 2);
+		for (int i = 0; i < numberOfInserts; i++) {
+			final CardTerminalProfile profile = CardTerminalProfile
+					.forTerminal(this.simulatedCardTerminal.get(i).getName());
+			assertTrue(profile.getCardConnects() > 0);
+			assertTrue(profile.getMaxCardConnectNanos() >= connectMicros * 1000);
+		}
+	}
+
+	@Test
+	public void testStatisticsMBean() throws Exception {
+		final CardAndTerminalManager cardAndTerminalManager = new CardAndTerminalManager(
+				new TestLogger(), this.simulatedCardTerminals);
+		final RecordKeepingCardEventsListener cardRecorder = new RecordKeepingCardEventsListener();
+		cardAndTerminalManager.addCardListener(cardRecorder);
+		this.simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal
+				.get(0));
+		this.simulatedCardTerminals.attachCardTerminal(this.simulatedCardTerminal
+				.get(1));
+		cardAndTerminalManager.start();
+
+		final Map<SimulatedCardTerminal, SimulatedCard> expectedState = new HashMap<SimulatedCardTerminal, SimulatedCard>();
+		this.simulatedCardTerminal.get(0).insertCard(
+				this.simulatedBeIDCard.get(0));
+		expectedState.put(this.simulatedCardTerminal.get(0),
+				this.simulatedBeIDCard.get(0));
+		awaitState(expectedState, cardRecorder);
+
+		final MBeanServer mbeanServer = ManagementFactory
+				.getPlatformMBeanServer();
+		final ObjectName objectName = cardAndTerminalManager.getObjectName();
+		assertNotNull(objectName);
+		assertEquals(MBeans.DOMAIN, objectName.getDomain());
+		assertEquals("CardAndTerminalManager",
+				objectName.getKeyProperty("type"));
+		assertTrue(mbeanServer.isRegistered(objectName));
+		assertEquals(2, mbeanServer.getAttribute(objectName,
+				"CardTerminalCount"));
+		assertEquals(1, mbeanServer.getAttribute(objectName, "CardCount"));
+		assertEquals(1L, mbeanServer.getAttribute(objectName, "CardsInserted"));
+		// the listener is called before the poll iteration ends
+		final long deadline = System.currentTimeMillis() + 5000;
+		while ((Long) mbeanServer.getAttribute(objectName, "PollIterations") == 0
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue((Long) mbeanServer.getAttribute(objectName,
+				"PollIterations") > 0);
+		assertEquals(Boolean.TRUE, mbeanServer.getAttribute(objectName,
+				"SubSystemAvailable"));
+
+		final CardAndTerminalManagerStatistics statistics = cardAndTerminalManager
+				.getStatistics();
+		assertTrue(statistics.getListenerCalls() > 0);
+		assertTrue(statistics.getCardsInsertedPerSecond() > 0);
+
+		cardAndTerminalManager.stop();
+		assertFalse(mbeanServer.isRegistered(objectName));
+		assertNull(cardAndTerminalManager.getObjectName());
+		assertEquals(0, statistics.getCardCount());
+	}
+
+	private void awaitState(
+			final Map<SimulatedCardTerminal, SimulatedCard> expectedState,
+			final RecordKeepingCardEventsListener recorder)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline) {
+			synchronized (recorder) {
+				if (expectedState.equals(recorder.getRecordedState())) {
+					return;
+				}
+			}
+			Thread.sleep(1);
+		}
+		synchronized (recorder) {
+			assertEquals(expectedState, recorder.getRecordedState());
+		}
+	}
+
+	private void awaitState(final Set<CardTerminal> expectedState,
+			final RecordKeepingCardTerminalEventsListener recorder)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + 5000;
+		while (System.currentTimeMillis() < deadline
+				&& !expectedState.equals(recorder.getRecordedState())) {
+			Thread.sleep(1);
+		}
+		assertEquals(expectedState, recorder.getRecordedState());
+	}
+
 	private final class NPEProneCardTerminalEventsListener
 			implements
 				CardTerminalEventsListener {
@@ -0,0 +1,191 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumSet;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.ReadBinaryMode;
+import be.fedict.commons.eid.client.impl.BeIDDigest;
+import be.fedict.commons.eid.client.impl.CardProfile;
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class CardProfileTest {
+	private static final byte[] APPLET_1_1_ATR = new byte[]{0x3b,
+			(byte) 0x98, 0x13, 0x40, 0x0a, (byte) 0xa5, 0x03, 0x01, 0x01, 0x01,
+			(byte) 0xad, 0x13, 0x11};
+	private static final byte[] APPLET_1_7_ATR = new byte[]{0x3b,
+			(byte) 0x98, (byte) 0x95, 0x40, 0x0a, (byte) 0xa5, 0x07, 0x01,
+			0x01, 0x01, (byte) 0xad, 0x13, 0x20};
+	private static final byte[] APPLET_1_8_ATR = new byte[]{0x3b, 0x7f,
+			(byte) 0x96, 0x00, 0x00, (byte) 0x80, 0x31, (byte) 0x80, 0x65,
+			(byte) 0xb0, (byte) 0x85, 0x04, 0x01, 0x20, 0x12, 0x0f,
+			(byte) 0xff, (byte) 0x82, (byte) 0x90, 0x00};
+	private static final byte[] OTHER_ATR = new byte[]{0x3b, (byte) 0x98,
+			0x13, 0x40, 0x0a, (byte) 0xa5, 0x03, 0x01, 0x01, 0x01, (byte) 0xad,
+			0x14, 0x11};
+	private static final byte[] IDPRIME_ATR = new byte[]{0x3b, 0x7f,
+			(byte) 0x96, 0x00, 0x00, (byte) 0x80, 0x31, (byte) 0x80, 0x65,
+			(byte) 0xb0, (byte) 0x85, 0x05, 0x00, 0x39, 0x12, 0x0f,
+			(byte) 0xfe, (byte) 0x82, (byte) 0x90, 0x00};
+
+	@Test
+	public void testRecognize() throws Exception {
+		assertEquals(CardProfile.APPLET_1_1,
+				CardProfile.recognize(new ATR(APPLET_1_1_ATR)));
+		assertEquals(CardProfile.APPLET_1_7,
+				CardProfile.recognize(new ATR(APPLET_1_7_ATR)));
+		assertEquals(CardProfile.APPLET_1_8,
+				CardProfile.recognize(new ATR(APPLET_1_8_ATR)));
+		assertNull(CardProfile.recognize(new ATR(OTHER_ATR)));
+		assertNull(CardProfile.recognize(new ATR(IDPRIME_ATR)));
+	}
+
+	@Test
+	public void testUnknownSignatureAlgorithmsLeftToCard() throws Exception {
+		assertNull(CardProfile.APPLET_1_8.getSignatureAlgorithms());
+		for (BeIDDigest digestAlgo : BeIDDigest.values()) {
+			assertTrue(CardProfile.APPLET_1_8
+					.isSignatureAlgorithmSupported(digestAlgo));
+		}
+	}
+
+	@Test
+	public void testRecognizeLeavesATRUntouched() throws Exception {
+		final byte[] atrBytes = APPLET_1_1_ATR.clone();
+		CardProfile.recognize(atrBytes);
+		assertArrayEquals(APPLET_1_1_ATR, atrBytes);
+	}
+
+	@Test
+	public void testUnsupportedSignatureAlgorithmRefused() throws Exception {
+		final CommandCounter counter = new CommandCounter();
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		beIDCard.addAPDUInterceptor(counter);
+		assertEquals(CardProfile.APPLET_1_1, beIDCard.getCardProfile());
+
+		try {
+			beIDCard.sign(new byte[0x20], BeIDDigest.SHA_256_PSS,
+					FileType.AuthentificationCertificate, false);
+			fail("applet 1.1 cannot sign using PSS");
+		} catch (final IllegalArgumentException iaex) {
+			assertEquals(0, counter.commands);
+		}
+	}
+
+	@Test
+	public void testNegotiatedReadUsesProfileLength() throws Exception {
+		final CommandCounter counter = new CommandCounter();
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		beIDCard.setReadBinaryMode(ReadBinaryMode.NEGOTIATED);
+		beIDCard.addAPDUInterceptor(counter);
+		beIDCard.readFiles(EnumSet.of(FileType.Photo));
+
+		assertEquals(CardProfile.APPLET_1_1.getMaxReadBinaryLength(),
+				counter.maxReadBinaryLength);
+	}
+
+	@Test
+	public void testShortNegotiatedReadIsNotEndOfFile() throws Exception {
+		final byte[] photo = new BeIDCard(new SimulatedBeIDCard("Alice"))
+				.readFile(FileType.Photo);
+
+		// answers at most 256 bytes with 9000, however many were requested
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice") {
+			@Override
+			protected ResponseAPDU readBinary(final int offset,
+					final int length) {
+				return super.readBinary(offset,
+						Math.min(length, CardTerminalProfile.SHORT_BLOCK_SIZE));
+			}
+		});
+		beIDCard.setCardProfile(CardProfile.APPLET_1_8);
+		beIDCard.setReadBinaryMode(ReadBinaryMode.NEGOTIATED);
+
+		assertArrayEquals(photo, beIDCard.readFile(FileType.Photo));
+	}
+
+	@Test
+	public void testRemovedCardKeepsBlockSize() throws Exception {
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice") {
+			@Override
+			protected ResponseAPDU transmit(final CommandAPDU apdu)
+					throws CardException {
+				if (0xb0 == apdu.getINS()) {
+					throw new CardException("card removed");
+				}
+				return super.transmit(apdu);
+			}
+		});
+		beIDCard.setCardProfile(CardProfile.APPLET_1_8);
+		beIDCard.setReadBinaryMode(ReadBinaryMode.NEGOTIATED);
+
+		try {
+			beIDCard.readFile(FileType.Photo);
+			fail("card was removed");
+		} catch (final CardException cex) {
+			assertEquals(CardTerminalProfile.EXTENDED_BLOCK_SIZE, beIDCard
+					.getCardTerminalProfile().getBlockSize());
+		}
+	}
+
+	private static class CommandCounter implements APDUInterceptor {
+		private int commands;
+		private int maxReadBinaryLength;
+
+		public void apduTransmitted(final String terminalName,
+				final CommandAPDU command, final ResponseAPDU response,
+				final long durationNanos) {
+			this.commands++;
+			if (0xb0 == command.getINS()) {
+				this.maxReadBinaryLength = Math.max(this.maxReadBinaryLength,
+						command.getNe());
+			}
+		}
+
+		public void apduFailed(final String terminalName,
+				final CommandAPDU command, final CardException cause,
+				final long durationNanos) {
+			this.commands++;
+		}
+
+		public void controlCommandTransmitted(final String terminalName,
+				final int controlCode, final byte[] command,
+				final byte[] response, final long durationNanos) {
+			this.commands++;
+		}
+	}
+}
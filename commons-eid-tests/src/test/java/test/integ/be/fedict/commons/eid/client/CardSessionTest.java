@@ -0,0 +1,182 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.smartcardio.CardException;
+
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.BeIDFileInputStream;
+import be.fedict.commons.eid.client.CardSession;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class CardSessionTest {
+	@Test
+	public void testNestedOperationsJoinSession() throws Exception {
+		final TransactionCountingCard card = new TransactionCountingCard();
+		final BeIDCard beIDCard = new BeIDCard(card);
+
+		final CardSession session = beIDCard.openSession();
+		try {
+			beIDCard.readFile(FileType.Identity);
+			beIDCard.readFile(FileType.Address);
+			beIDCard.getAuthenticationCertificateChain();
+
+			final CardSession nestedSession = beIDCard.openSession();
+			beIDCard.readFile(FileType.Photo);
+			nestedSession.close();
+			assertEquals(0, card.ended);
+
+			beIDCard.readFile(FileType.RRNCertificate);
+		} finally {
+			session.close();
+		}
+
+		assertTrue(session.isClosed());
+		assertEquals(1, card.begun);
+		assertEquals(1, card.ended);
+	}
+
+	@Test
+	public void testOperationsWithoutSession() throws Exception {
+		final TransactionCountingCard card = new TransactionCountingCard();
+		final BeIDCard beIDCard = new BeIDCard(card);
+
+		beIDCard.readFile(FileType.Identity);
+		beIDCard.readFile(FileType.Address);
+
+		assertEquals(2, card.begun);
+		assertEquals(2, card.ended);
+	}
+
+	@Test
+	public void testCloseTwice() throws Exception {
+		final TransactionCountingCard card = new TransactionCountingCard();
+		final BeIDCard beIDCard = new BeIDCard(card);
+
+		final CardSession session = beIDCard.openSession();
+		session.close();
+		session.close();
+
+		beIDCard.readFile(FileType.Identity);
+		assertEquals(2, card.begun);
+		assertEquals(2, card.ended);
+	}
+
+	@Test
+	public void testCloseStreamOnOtherThreadRefused() throws Exception {
+		final TransactionCountingCard card = new TransactionCountingCard();
+		final BeIDCard beIDCard = new BeIDCard(card);
+		final BeIDFileInputStream inputStream = beIDCard
+				.openFile(FileType.Identity);
+
+		final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		final Thread otherThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					inputStream.close();
+				} catch (final Throwable throwable) {
+					thrown.set(throwable);
+				}
+			}
+		};
+		otherThread.start();
+		otherThread.join();
+		assertTrue(thrown.get() instanceof IllegalMonitorStateException);
+		assertEquals(0, card.ended);
+
+		// still open: the thread that opened it can close it
+		inputStream.close();
+		assertEquals(1, card.ended);
+
+		final FutureTask<byte[]> read = new FutureTask<byte[]>(
+				new Callable<byte[]>() {
+					@Override
+					public byte[] call() throws Exception {
+						return beIDCard.readFile(FileType.Address);
+					}
+				});
+		new Thread(read).start();
+		assertNotNull(read.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testReadStreamByteByByte() throws Exception {
+		final byte[] photo = new BeIDCard(new SimulatedBeIDCard("Alice"))
+				.readFile(FileType.Photo);
+
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		final BeIDFileInputStream inputStream = beIDCard
+				.openFile(FileType.Photo);
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try {
+			int value;
+			while ((value = inputStream.read()) != -1) {
+				outputStream.write(value);
+			}
+			assertEquals(-1, inputStream.read());
+		} finally {
+			inputStream.close();
+		}
+		assertArrayEquals(photo, outputStream.toByteArray());
+
+		try {
+			inputStream.read();
+			fail("read from a closed stream");
+		} catch (final IOException ioex) {
+			assertEquals("stream closed", ioex.getMessage());
+		}
+	}
+
+	private static class TransactionCountingCard extends SimulatedBeIDCard {
+		private int begun;
+		private int ended;
+
+		public TransactionCountingCard() {
+			super("Alice");
+		}
+
+		@Override
+		public void beginExclusive() throws CardException {
+			this.begun++;
+		}
+
+		@Override
+		public void endExclusive() throws CardException {
+			this.ended++;
+		}
+	}
+}
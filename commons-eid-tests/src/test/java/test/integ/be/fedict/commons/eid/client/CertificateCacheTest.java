@@ -0,0 +1,206 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.impl.CertificateCache;
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class CertificateCacheTest {
+	@Test
+	public void testChainOfSecondCardReadsOnlyLeaf() throws Exception {
+		CertificateCache.clear();
+
+		final BytesReadCounter firstCounter = new BytesReadCounter();
+		final BeIDCard firstCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		firstCard.addAPDUInterceptor(firstCounter);
+		final List<X509Certificate> firstChain = firstCard
+				.getAuthenticationCertificateChain();
+		assertEquals(2, CertificateCache.size());
+		assertEquals(0, CertificateCache.getHits());
+
+		final BytesReadCounter secondCounter = new BytesReadCounter();
+		final BeIDCard secondCard = new BeIDCard(
+				new SimulatedBeIDCard("Alice"));
+		secondCard.addAPDUInterceptor(secondCounter);
+		final List<X509Certificate> secondChain = secondCard
+				.getAuthenticationCertificateChain();
+		assertEquals(2, CertificateCache.getHits());
+
+		assertEquals(firstChain, secondChain);
+		final int leafFileLength = IOUtils.toByteArray(
+				CertificateCacheTest.class
+						.getResourceAsStream("/Alice_AuthentificationCertificate.tlv")).length;
+		assertEquals(leafFileLength + 2 * CertificateCache.HEAD_SIZE,
+				secondCounter.bytesRead);
+		assertTrue(secondCounter.bytesRead < firstCounter.bytesRead);
+
+		assertEquals(firstChain.get(2), secondCard.getRootCACertificate());
+	}
+
+	@Test
+	public void testOnlyVerifiedCertificatesAdmitted() throws Exception {
+		CertificateCache.clear();
+
+		final byte[] caFile = getFile("Alice_CACertificate");
+		final byte[] rootFile = getFile("Alice_RootCertificate");
+		final byte[] leafFile = getFile("Alice_AuthentificationCertificate");
+
+		assertFalse(CertificateCache.put(getHead(caFile),
+				getCertificate(caFile)));
+		assertTrue(CertificateCache.put(getHead(rootFile),
+				getCertificate(rootFile)));
+		assertTrue(CertificateCache.put(getHead(caFile),
+				getCertificate(caFile)));
+		assertFalse(CertificateCache.put(getHead(leafFile),
+				getCertificate(leafFile)));
+		assertEquals(2, CertificateCache.size());
+	}
+
+	@Test
+	public void testUnconfirmedCachedCertificateReadInFull()
+			throws Exception {
+		CertificateCache.clear();
+
+		/*
+		 * the RRN certificate is signed by the Root, so it is admitted, but
+		 * under the head of the Citizen CA file
+		 */
+		final byte[] caFile = getFile("Alice_CACertificate");
+		final byte[] rootFile = getFile("Alice_RootCertificate");
+		final X509Certificate rrnCertificate = getCertificate(getFile("Alice_RRNCertificate"));
+		assertTrue(CertificateCache.put(getHead(rootFile),
+				getCertificate(rootFile)));
+		assertTrue(CertificateCache.put(getHead(caFile), rrnCertificate));
+
+		final BytesReadCounter counter = new BytesReadCounter();
+		final BeIDCard card = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		card.addAPDUInterceptor(counter);
+		final List<X509Certificate> chain = card
+				.getAuthenticationCertificateChain();
+
+		assertEquals(getCertificate(caFile), chain.get(1));
+		assertEquals(getCertificate(rootFile), chain.get(2));
+		// the tail of the Citizen CA file is read too, but does not match
+		final int leafFileLength = getFile("Alice_AuthentificationCertificate").length;
+		assertEquals(leafFileLength + CertificateCache.HEAD_SIZE
+				+ CertificateCache.HEAD_SIZE + caFile.length
+				+ CertificateCache.HEAD_SIZE, counter.bytesRead);
+	}
+
+	@Test
+	public void testCachedCertificateConfirmedWithoutLeaf() throws Exception {
+		CertificateCache.clear();
+		new BeIDCard(new SimulatedBeIDCard("Alice"))
+				.getAuthenticationCertificateChain();
+
+		final byte[] caFile = getFile("Alice_CACertificate");
+		final BytesReadCounter caCounter = new BytesReadCounter();
+		final BeIDCard caCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		caCard.addAPDUInterceptor(caCounter);
+		assertEquals(getCertificate(caFile), caCard.getCACertificate());
+		assertEquals(2 * CertificateCache.HEAD_SIZE, caCounter.bytesRead);
+		assertTrue(caCounter.bytesRead < caFile.length);
+
+		final byte[] rootFile = getFile("Alice_RootCertificate");
+		final BytesReadCounter rootCounter = new BytesReadCounter();
+		final BeIDCard rootCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		rootCard.addAPDUInterceptor(rootCounter);
+		assertEquals(getCertificate(rootFile), rootCard.getRootCACertificate());
+		assertEquals(2 * CertificateCache.HEAD_SIZE, rootCounter.bytesRead);
+	}
+
+	@Test
+	public void testCachedCertificateNotReplaced() throws Exception {
+		CertificateCache.clear();
+
+		final byte[] caFile = getFile("Alice_CACertificate");
+		final byte[] rootFile = getFile("Alice_RootCertificate");
+		final X509Certificate rrnCertificate = getCertificate(getFile("Alice_RRNCertificate"));
+		assertTrue(CertificateCache.put(getHead(rootFile),
+				getCertificate(rootFile)));
+		assertTrue(CertificateCache.put(getHead(caFile),
+				getCertificate(caFile)));
+		assertTrue(CertificateCache.put(getHead(caFile),
+				getCertificate(caFile)));
+
+		// signed by the Root, but not the certificate cached under this head
+		assertFalse(CertificateCache.put(getHead(caFile), rrnCertificate));
+		assertEquals(getCertificate(caFile),
+				CertificateCache.get(getHead(caFile)));
+		assertEquals(2, CertificateCache.size());
+	}
+
+	private static byte[] getFile(final String name) throws Exception {
+		return IOUtils.toByteArray(CertificateCacheTest.class
+				.getResourceAsStream("/" + name + ".tlv"));
+	}
+
+	private static byte[] getHead(final byte[] file) {
+		return Arrays.copyOf(file,
+				Math.min(file.length, CertificateCache.HEAD_SIZE));
+	}
+
+	private static X509Certificate getCertificate(final byte[] file)
+			throws Exception {
+		return (X509Certificate) CertificateFactory.getInstance("X.509")
+				.generateCertificate(new ByteArrayInputStream(file));
+	}
+
+	private static class BytesReadCounter implements APDUInterceptor {
+		private int bytesRead;
+
+		public void apduTransmitted(final String terminalName,
+				final CommandAPDU command, final ResponseAPDU response,
+				final long durationNanos) {
+			if (0xb0 == command.getINS()) {
+				this.bytesRead += response.getNr();
+			}
+		}
+
+		public void apduFailed(final String terminalName,
+				final CommandAPDU command, final CardException cause,
+				final long durationNanos) {
+		}
+
+		public void controlCommandTransmitted(final String terminalName,
+				final int controlCode, final byte[] command,
+				final byte[] response, final long durationNanos) {
+		}
+	}
+}
@@ -36,7 +36,6 @@ import javax.smartcardio.ATR;
 import org.junit.Before;
 import org.junit.Test;
 
-import test.integ.be.fedict.commons.eid.client.simulation.SimulatedCard;
 import be.fedict.commons.eid.client.BeIDCard;
 import be.fedict.commons.eid.client.BeIDCards;
 import be.fedict.commons.eid.client.FileType;
@@ -44,6 +43,7 @@ import be.fedict.commons.eid.client.spi.BeIDCardsUI;
 import be.fedict.commons.eid.consumer.Identity;
 import be.fedict.commons.eid.consumer.tlv.TlvParser;
 import be.fedict.commons.eid.dialogs.DefaultBeIDCardsUI;
+import be.fedict.commons.eid.simulator.SimulatedCard;
 
 public class DefaultBeIDCardsDialogTests {
 	private static final int numberOfCards = 3;
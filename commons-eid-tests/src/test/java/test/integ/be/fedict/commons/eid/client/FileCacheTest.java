@@ -0,0 +1,133 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.impl.DiskFileCache;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class FileCacheTest {
+	private File directory;
+	private DiskFileCache fileCache;
+	private SimulatedBeIDCard card;
+	private byte[] originalAddress;
+	private byte[] movedAddress;
+	private byte[] movedAddressSignature;
+
+	@Before
+	public void setUp() throws Exception {
+		this.directory = File.createTempFile("filecache", "");
+		this.directory.delete();
+		this.directory.mkdir();
+		this.fileCache = new DiskFileCache(this.directory);
+		final byte[] cardData = new byte[0x1c];
+		for (int idx = 0; idx < 16; idx++) {
+			cardData[idx] = (byte) idx;
+		}
+		this.card = new SimulatedBeIDCard("Alice");
+		this.card.setCardData(cardData);
+
+		this.originalAddress = resource(FileType.Address);
+		// the citizen moved: same layout, other contents
+		this.movedAddress = this.originalAddress.clone();
+		this.movedAddress[this.movedAddress.length - 1] ^= 0x01;
+		this.movedAddressSignature = resource(FileType.AddressSignature);
+		this.movedAddressSignature[this.movedAddressSignature.length - 1] ^= 0x01;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(this.directory);
+	}
+
+	@Test
+	public void testAddressSignatureNotCachedAlone() throws Exception {
+		assertArrayEquals(this.originalAddress, readAddress());
+
+		move();
+		// reads and must not cache the new signature without its address
+		newBeIDCard().readFiles(EnumSet.of(FileType.AddressSignature));
+
+		assertArrayEquals(this.movedAddress, readAddress());
+	}
+
+	@Test
+	public void testAddressChangedAndReadFailed() throws Exception {
+		assertArrayEquals(this.originalAddress, readAddress());
+
+		move();
+		// card pulled between reading the signature and the address
+		this.card.removeFile(FileType.Address.getFileId());
+		try {
+			readAddress();
+			fail("address read expected to fail");
+		} catch (final Exception expected) {
+			// expected
+		}
+		this.card.setFile(FileType.Address.getFileId(), this.movedAddress);
+
+		assertArrayEquals(this.movedAddress, readAddress());
+	}
+
+	@Test
+	public void testAddressChanged() throws Exception {
+		assertArrayEquals(this.originalAddress, readAddress());
+		assertArrayEquals(this.originalAddress, readAddress());
+
+		move();
+		assertArrayEquals(this.movedAddress, readAddress());
+		assertArrayEquals(this.movedAddress, readAddress());
+	}
+
+	private void move() {
+		this.card.setFile(FileType.Address.getFileId(), this.movedAddress);
+		this.card.setFile(FileType.AddressSignature.getFileId(),
+				this.movedAddressSignature);
+	}
+
+	// a new BeIDCard each time, so that nothing is kept in memory
+	private BeIDCard newBeIDCard() {
+		return new BeIDCard(this.card).setFileCache(this.fileCache);
+	}
+
+	private byte[] readAddress() throws Exception {
+		return newBeIDCard().readFiles(EnumSet.of(FileType.Address)).get(
+				FileType.Address);
+	}
+
+	private byte[] resource(final FileType fileType) throws IOException {
+		return IOUtils.toByteArray(FileCacheTest.class
+				.getResourceAsStream("/Alice_" + fileType + ".tlv"));
+	}
+}
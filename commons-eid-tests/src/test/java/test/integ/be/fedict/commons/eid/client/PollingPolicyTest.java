@@ -0,0 +1,100 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.impl.AdaptivePollingPolicy;
+import be.fedict.commons.eid.client.impl.FixedPollingPolicy;
+
+public class PollingPolicyTest {
+	@Test
+	public void testFixed() throws Exception {
+		final FixedPollingPolicy pollingPolicy = new FixedPollingPolicy(100);
+		pollingPolicy.failed();
+		assertEquals(100, pollingPolicy.getWaitMillis());
+		assertEquals(100, pollingPolicy.getBackOffMillis());
+		pollingPolicy.polled(false);
+		assertEquals(100, pollingPolicy.getWaitMillis());
+	}
+
+	@Test
+	public void testDecayWhenIdle() throws Exception {
+		final AdaptivePollingPolicy pollingPolicy = new AdaptivePollingPolicy()
+				.setActiveMillis(100).setIdleMillis(1000)
+				.setActivePeriodMillis(0);
+
+		assertEquals(100, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		assertEquals(200, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		assertEquals(400, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		assertEquals(800, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		assertEquals(1000, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		assertEquals(1000, pollingPolicy.getWaitMillis());
+
+		pollingPolicy.polled(true);
+		assertEquals(100, pollingPolicy.getWaitMillis());
+	}
+
+	@Test
+	public void testFastDuringActivePeriod() throws Exception {
+		final AdaptivePollingPolicy pollingPolicy = new AdaptivePollingPolicy()
+				.setActiveMillis(100).setIdleMillis(1000)
+				.setActivePeriodMillis(60000);
+
+		pollingPolicy.polled(true);
+		for (int i = 0; i < 10; i++) {
+			pollingPolicy.polled(false);
+			assertEquals(100, pollingPolicy.getWaitMillis());
+		}
+	}
+
+	@Test
+	public void testBackOff() throws Exception {
+		final AdaptivePollingPolicy pollingPolicy = new AdaptivePollingPolicy()
+				.setActiveMillis(100).setIdleMillis(1000)
+				.setActivePeriodMillis(0).setMaxBackOffMillis(500);
+
+		pollingPolicy.polled(false);
+		pollingPolicy.polled(false);
+		assertEquals(400, pollingPolicy.getWaitMillis());
+
+		pollingPolicy.failed();
+		assertEquals(100, pollingPolicy.getBackOffMillis());
+		pollingPolicy.failed();
+		assertEquals(200, pollingPolicy.getBackOffMillis());
+		pollingPolicy.failed();
+		assertEquals(400, pollingPolicy.getBackOffMillis());
+		pollingPolicy.failed();
+		assertEquals(500, pollingPolicy.getBackOffMillis());
+
+		// once the PC/SC subsystem is back, poll fast and stop backing off
+		assertEquals(100, pollingPolicy.getWaitMillis());
+		pollingPolicy.polled(false);
+		pollingPolicy.failed();
+		assertEquals(100, pollingPolicy.getBackOffMillis());
+	}
+}
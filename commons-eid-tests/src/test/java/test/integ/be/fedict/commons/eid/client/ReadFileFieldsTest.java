@@ -0,0 +1,114 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.spi.APDUInterceptor;
+import be.fedict.commons.eid.consumer.Identity;
+import be.fedict.commons.eid.consumer.tlv.TlvParser;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class ReadFileFieldsTest {
+	@Test
+	public void testReadIdentityFields() throws Exception {
+		final CommandCounter counter = new CommandCounter();
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		beIDCard.addAPDUInterceptor(counter);
+
+		// card number, chip number and national number
+		final byte[] identityFields = beIDCard.readFileFields(
+				FileType.Identity, 1, 2, 6);
+
+		assertEquals(1, counter.readBinaries);
+		final Identity identity = TlvParser.parse(identityFields,
+				Identity.class);
+		assertNotNull(identity.getCardNumber());
+		assertNotNull(identity.getChipNumber());
+		assertNotNull(identity.getNationalNumber());
+		assertNull(identity.getName());
+	}
+
+	@Test
+	public void testReadFieldsNotPresent() throws Exception {
+		final CommandCounter counter = new CommandCounter();
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		beIDCard.addAPDUInterceptor(counter);
+
+		// no such tag: the whole file is read
+		assertArrayEquals(IOUtils.toByteArray(ReadFileFieldsTest.class
+				.getResourceAsStream("/Alice_Identity.tlv")),
+				beIDCard.readFileFields(FileType.Identity, 0x7f));
+		assertEquals(2, counter.readBinaries);
+	}
+
+	@Test
+	public void testNoTagsRefused() throws Exception {
+		final CommandCounter counter = new CommandCounter();
+		final BeIDCard beIDCard = new BeIDCard(new SimulatedBeIDCard("Alice"));
+		beIDCard.addAPDUInterceptor(counter);
+
+		try {
+			beIDCard.readFileFields(FileType.Identity);
+			fail("tags required");
+		} catch (final IllegalArgumentException iaex) {
+			assertEquals(0, counter.commands);
+		}
+	}
+
+	private static class CommandCounter implements APDUInterceptor {
+		private int commands;
+		private int readBinaries;
+
+		public void apduTransmitted(final String terminalName,
+				final CommandAPDU command, final ResponseAPDU response,
+				final long durationNanos) {
+			this.commands++;
+			if (0xb0 == command.getINS()) {
+				this.readBinaries++;
+			}
+		}
+
+		public void apduFailed(final String terminalName,
+				final CommandAPDU command, final CardException cause,
+				final long durationNanos) {
+			this.commands++;
+		}
+
+		public void controlCommandTransmitted(final String terminalName,
+				final int controlCode, final byte[] command,
+				final byte[] response, final long durationNanos) {
+			this.commands++;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.EnumSet;
+import java.util.Map;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.impl.RecordedExchange;
+import be.fedict.commons.eid.client.impl.RecordingCard;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.ReplayCard;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class RecordReplayTest {
+	private static final EnumSet<FileType> FILES = EnumSet.of(
+			FileType.Identity, FileType.Address, FileType.Photo,
+			FileType.RRNCertificate);
+	private static final ATR TEST_CARD_ATR = new ATR(new byte[]{0x3b,
+			(byte) 0x98, 0x13, 0x40, 0x0a, (byte) 0xa5, 0x03, 0x01, 0x01, 0x01,
+			(byte) 0xad, 0x13, 0x11});
+
+	@Test
+	public void testRecordAndReplay() throws Exception {
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(
+				getAliceCard(), recording);
+		final Map<FileType, byte[]> recordedFiles = new BeIDCard(
+				recordingCard).readFiles(FILES);
+		recordingCard.close();
+
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), false);
+		final Map<FileType, byte[]> replayedFiles = new BeIDCard(replayCard)
+				.readFiles(FILES);
+
+		assertTrue(replayCard.isFinished());
+		for (FileType fileType : FILES) {
+			assertArrayEquals(recordedFiles.get(fileType),
+					replayedFiles.get(fileType));
+		}
+	}
+
+	@Test
+	public void testReplayWithOriginalTiming() throws Exception {
+		final SimulatedBeIDCard aliceCard = getAliceCard();
+		aliceCard.setLatencyModel(new LatencyModel().setMicrosPerAPDU(20000));
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(aliceCard,
+				recording);
+		new BeIDCard(recordingCard).readFile(FileType.Identity);
+		recordingCard.close();
+
+		long recordedMicros = 0;
+		int exchanges = 0;
+		final DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(recording.toByteArray()));
+		RecordedExchange.readHeader(in);
+		RecordedExchange exchange;
+		while ((exchange = RecordedExchange.readFrom(in)) != null) {
+			recordedMicros += exchange.getDurationMicros();
+			exchanges++;
+		}
+		assertTrue(recordedMicros >= exchanges * 20000L);
+
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), true);
+		final long start = System.nanoTime();
+		new BeIDCard(replayCard).readFile(FileType.Identity);
+		final long replayMicros = (System.nanoTime() - start) / 1000;
+		assertTrue(replayCard.isFinished());
+		assertTrue("replay took " + replayMicros + "us, recorded "
+				+ recordedMicros + "us", replayMicros >= recordedMicros);
+	}
+
+	@Test
+	public void testReplayKeepsRecordedGaps() throws Exception {
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(getAliceCard(),
+				recording);
+		final BeIDCard recordedBeIDCard = new BeIDCard(recordingCard);
+		recordedBeIDCard.readFile(FileType.Identity);
+		Thread.sleep(200);
+		recordedBeIDCard.readFile(FileType.Address);
+		recordingCard.close();
+
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), true);
+		final BeIDCard replayedBeIDCard = new BeIDCard(replayCard);
+		final long start = System.nanoTime();
+		replayedBeIDCard.readFile(FileType.Identity);
+		replayedBeIDCard.readFile(FileType.Address);
+		final long replayMillis = (System.nanoTime() - start) / 1000000;
+		assertTrue(replayCard.isFinished());
+		assertTrue("replay took " + replayMillis + "ms", replayMillis >= 200);
+	}
+
+	@Test
+	public void testReplayServesOnlyRecordedResponses() throws Exception {
+		final SimulatedBeIDCard aliceCard = getAliceCard();
+		aliceCard.setLatencyModel(new LatencyModel()
+				.setWrongLengthResponses(true));
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(aliceCard,
+				recording);
+		final byte[] identity = new BeIDCard(recordingCard)
+				.readFile(FileType.Identity);
+		recordingCard.close();
+
+		// a SimulatedCard would answer 6Cxx again to a resend this soon
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), false);
+		replayCard.setLatencyModel(new LatencyModel().setWrongLengthResponses(
+				true).setWrongLengthDelayMicros(1000000));
+		assertArrayEquals(identity,
+				new BeIDCard(replayCard).readFile(FileType.Identity));
+		assertTrue(replayCard.isFinished());
+	}
+
+	@Test
+	public void testReplayInterrupted() throws Exception {
+		final SimulatedBeIDCard aliceCard = getAliceCard();
+		aliceCard.setLatencyModel(new LatencyModel().setMicrosPerAPDU(20000));
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(aliceCard,
+				recording);
+		new BeIDCard(recordingCard).readFile(FileType.Identity);
+		recordingCard.close();
+
+		final DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(recording.toByteArray()));
+		RecordedExchange.readHeader(in);
+		final CommandAPDU firstCommand = new CommandAPDU(RecordedExchange
+				.readFrom(in).getCommand());
+
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), true);
+		Thread.currentThread().interrupt();
+		try {
+			replayCard.getBasicChannel().transmit(firstCommand);
+			fail("replay expected to be interrupted");
+		} catch (final CardException cex) {
+			assertTrue(Thread.interrupted());
+		}
+	}
+
+	@Test
+	public void testReplayFailedControlCommand() throws Exception {
+		final ByteArrayOutputStream recording = new ByteArrayOutputStream();
+		final RecordingCard recordingCard = new RecordingCard(
+				new SimulatedBeIDCard(TEST_CARD_ATR) {
+					@Override
+					public byte[] transmitControlCommand(final int controlCode,
+							final byte[] command) throws CardException {
+						throw new CardException("no such feature");
+					}
+				}, recording);
+		try {
+			recordingCard.transmitControlCommand(0x42000d48, new byte[0]);
+			fail("control command expected to fail");
+		} catch (final CardException cex) {
+			assertEquals("no such feature", cex.getMessage());
+		}
+		recordingCard.close();
+
+		final ReplayCard replayCard = new ReplayCard(new ByteArrayInputStream(
+				recording.toByteArray()), false);
+		try {
+			replayCard.transmitControlCommand(0x42000d48, new byte[0]);
+			fail("control command expected to fail");
+		} catch (final CardException cex) {
+			assertEquals("no such feature", cex.getMessage());
+		}
+		assertTrue(replayCard.isFinished());
+	}
+
+	private SimulatedBeIDCard getAliceCard() throws Exception {
+		final SimulatedBeIDCard card = new SimulatedBeIDCard(TEST_CARD_ATR);
+		for (FileType fileType : FILES) {
+			card.setFileFromProfile(fileType, "Alice");
+		}
+		return card;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Commons eID Project.
+ * Copyright (C) 2008-2013 FedICT.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License version
+ * 3.0 as published by the Free Software Foundation.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, see 
+ * http://www.gnu.org/licenses/.
+ */
+
+
+package test.integ.be.fedict.commons.eid.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Map;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import be.fedict.commons.eid.client.BeIDCard;
+import be.fedict.commons.eid.client.FileType;
+import be.fedict.commons.eid.client.impl.CardProfile;
+import be.fedict.commons.eid.client.impl.CardTerminalProfile;
+import be.fedict.commons.eid.simulator.LatencyModel;
+import be.fedict.commons.eid.simulator.SimulatedBeIDCard;
+
+public class T0TransportTest {
+	private static final EnumSet<FileType> FILES = EnumSet.of(
+			FileType.Identity, FileType.Address, FileType.Photo);
+
+	@Test
+	public void testWrongLengthCorrected() throws Exception {
+		final SimulatedBeIDCard card = new SimulatedBeIDCard("Alice");
+		card.setLatencyModel(new LatencyModel().setWrongLengthResponses(true));
+
+		final BeIDCard beIDCard = new BeIDCard(card)
+				.setCardProfile(CardProfile.APPLET_1_7);
+		assertFiles(beIDCard.readFiles(FILES));
+
+		final CardTerminalProfile profile = beIDCard.getCardTerminalProfile();
+		assertEquals(FILES.size(), profile.getWrongLengthRetries());
+		assertFalse(profile.isWrongLengthDelayRequired(card.getATR()));
+		assertEquals(0, profile.getSleptMillis());
+	}
+
+	@Test
+	public void testWrongLengthDelayLearned() throws Exception {
+		final SimulatedBeIDCard card = new SimulatedBeIDCard("Alice");
+		card.setLatencyModel(new LatencyModel().setWrongLengthResponses(true)
+				.setWrongLengthDelayMicros(5000));
+
+		// a card of an unknown generation
+		final BeIDCard beIDCard = new BeIDCard(card).setCardProfile(null);
+		assertFiles(beIDCard.readFiles(FILES));
+
+		final CardTerminalProfile profile = beIDCard.getCardTerminalProfile();
+		assertTrue(profile.isWrongLengthDelayRequired(card.getATR()));
+		assertEquals(FILES.size() + 1, profile.getWrongLengthRetries());
+	}
+
+	@Test
+	public void testWrongLengthDelayFromCardProfile() throws Exception {
+		final SimulatedBeIDCard card = new SimulatedBeIDCard("Alice");
+		card.setLatencyModel(new LatencyModel().setWrongLengthResponses(true)
+				.setWrongLengthDelayMicros(5000));
+
+		final BeIDCard beIDCard = new BeIDCard(card);
+		assertEquals(CardProfile.APPLET_1_1, beIDCard.getCardProfile());
+		assertFiles(beIDCard.readFiles(FILES));
+
+		final CardTerminalProfile profile = beIDCard.getCardTerminalProfile();
+		assertFalse(profile.isWrongLengthDelayRequired(card.getATR()));
+		assertEquals(FILES.size(), profile.getWrongLengthRetries());
+		assertEquals(FILES.size()
+				* CardTerminalProfile.LEGACY_WRONG_LENGTH_DELAY,
+				profile.getSleptMillis());
+	}
+
+	@Test
+	public void testWrongLengthDelayKeyedOnATR() throws Exception {
+		final ATR oldCard = new ATR(new byte[]{0x3b, (byte) 0x98, 0x13, 0x40,
+				0x0a, (byte) 0xa5, 0x03, 0x01, 0x01, 0x01, (byte) 0xad, 0x13,
+				0x11});
+		final ATR newCard = new ATR(new byte[]{0x3b, (byte) 0x98, (byte) 0x94,
+				0x40, (byte) 0xff, (byte) 0xa5, 0x03, 0x01, 0x01, 0x01,
+				(byte) 0xad, 0x13, 0x10});
+		final CardTerminalProfile profile = CardTerminalProfile
+				.forTerminal("testWrongLengthDelayKeyedOnATR");
+
+		profile.wrongLengthDelayRequired(oldCard);
+		assertTrue(profile.isWrongLengthDelayRequired(oldCard));
+
+		// another card in the same CardTerminal starts without the delay
+		assertFalse(profile.isWrongLengthDelayRequired(newCard));
+
+		// the same card, inserted again
+		assertTrue(profile.isWrongLengthDelayRequired(new ATR(oldCard
+				.getBytes())));
+	}
+
+	@Test
+	public void testGetResponseChaining() throws Exception {
+		final byte[] challenge = new byte[0x30];
+		for (int idx = 0; idx < challenge.length; idx++) {
+			challenge[idx] = (byte) idx;
+		}
+
+		final BeIDCard beIDCard = new BeIDCard(new ChainingCard(challenge,
+				0x10));
+		assertArrayEquals(challenge, beIDCard.getChallenge(challenge.length));
+		assertEquals(2, beIDCard.getCardTerminalProfile().getGetResponses());
+	}
+
+	private void assertFiles(final Map<FileType, byte[]> files)
+			throws IOException {
+		for (FileType fileType : FILES) {
+			assertArrayEquals(IOUtils.toByteArray(T0TransportTest.class
+					.getResourceAsStream("/Alice_" + fileType + ".tlv")),
+					files.get(fileType));
+		}
+	}
+
+	/*
+	 * Answers GET CHALLENGE in chunks, using 61xx and GET RESPONSE.
+	 */
+	private static class ChainingCard extends SimulatedBeIDCard {
+		private final byte[] challenge;
+		private final int chunkSize;
+		private int offset;
+
+		public ChainingCard(final byte[] challenge, final int chunkSize) {
+			super("Alice");
+			this.challenge = challenge;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected ResponseAPDU transmit(final CommandAPDU apdu)
+				throws CardException {
+			if (0x84 == apdu.getINS()) {
+				this.offset = 0;
+				return nextChunk();
+			}
+			if (0xc0 == apdu.getINS()) {
+				return nextChunk();
+			}
+			return super.transmit(apdu);
+		}
+
+		private ResponseAPDU nextChunk() {
+			final int length = Math.min(this.chunkSize, this.challenge.length
+					- this.offset);
+			final int remaining = this.challenge.length - this.offset - length;
+			final byte[] response = Arrays.copyOfRange(this.challenge,
+					this.offset, this.offset + length + 2);
+			if (remaining > 0) {
+				response[length] = 0x61;
+				response[length + 1] = (byte) Math.min(remaining,
+						this.chunkSize);
+			} else {
+				response[length] = (byte) 0x90;
+				response[length + 1] = 0x00;
+			}
+			this.offset += length;
+			return new ResponseAPDU(response);
+		}
+	}
+}